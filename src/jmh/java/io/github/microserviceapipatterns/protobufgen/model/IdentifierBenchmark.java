@@ -0,0 +1,75 @@
+/*
+ * Copyright 2020 Stefan Kapferer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.microserviceapipatterns.protobufgen.model;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the creation of identifiers and full identifiers. The regex variants serve as baseline and correspond to
+ * the way identifiers have been validated before.
+ *
+ * @author Stefan Kapferer
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class IdentifierBenchmark {
+
+    private static final String IDENT_REGEX = "^[a-zA-Z][a-zA-Z0-9_]*";
+    private static final String FULL_IDENT_REGEX = "^[a-zA-Z][a-zA-Z0-9_]*([\\.][a-zA-Z][a-zA-Z0-9_]*)*";
+
+    @State(Scope.Benchmark)
+    public static class Idents {
+        @Param({"id", "created_at", "CustomerRelationshipManagementRecord_2"})
+        private String name;
+    }
+
+    @State(Scope.Benchmark)
+    public static class FullIdents {
+        @Param({"integTests", "io.github.microserviceapipatterns.protobufgen"})
+        private String name;
+    }
+
+    @Benchmark
+    public boolean identRegex(Idents idents) {
+        return idents.name.matches(IDENT_REGEX);
+    }
+
+    @Benchmark
+    public Identifier identifier(Idents idents) {
+        return new Identifier(idents.name);
+    }
+
+    @Benchmark
+    public Identifier internedIdentifier(Idents idents) {
+        return Identifier.of(idents.name);
+    }
+
+    @Benchmark
+    public boolean fullIdentRegex(FullIdents fullIdents) {
+        return fullIdents.name.matches(FULL_IDENT_REGEX);
+    }
+
+    @Benchmark
+    public FullIdentifier fullIdentifier(FullIdents fullIdents) {
+        return new FullIdentifier(fullIdents.name);
+    }
+
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright 2020 Stefan Kapferer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.microserviceapipatterns.protobufgen.model;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the builder-heavy paths: creating fields, adding them to messages (sorted by field number) and putting
+ * messages into hash-based collections. Run with "-prof gc" to see the allocation per operation.
+ *
+ * @author Stefan Kapferer
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MessageBuilderBenchmark {
+
+    @Param({"10", "100"})
+    private int fieldCount;
+
+    private String[] fieldNames;
+
+    @Setup
+    public void setup() {
+        fieldNames = new String[fieldCount];
+        for (int i = 0; i < fieldCount; i++) {
+            fieldNames[i] = "field_" + i;
+        }
+    }
+
+    @Benchmark
+    public Message buildMessage() {
+        Message.Builder builder = new Message.Builder("BenchmarkMessage");
+        for (String fieldName : fieldNames) {
+            builder.withField(SimpleFieldType.STRING, fieldName);
+        }
+        return builder.build();
+    }
+
+    @Benchmark
+    public Message buildMessageWithThreadLocalBuilder() {
+        Message.Builder builder = Message.Builder.threadLocal("BenchmarkMessage");
+        for (String fieldName : fieldNames) {
+            builder.withField(SimpleFieldType.STRING, fieldName);
+        }
+        return builder.build();
+    }
+
+    @Benchmark
+    public Set<MessageField> hashFields() {
+        Set<MessageField> fields = new HashSet<>();
+        for (int i = 0; i < fieldNames.length; i++) {
+            fields.add(new MessageField.Builder(SimpleFieldType.STRING, fieldNames[i], i + 1).build());
+        }
+        return fields;
+    }
+
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright 2020 Stefan Kapferer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.microserviceapipatterns.protobufgen.model;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the lookup of nested messages by qualified name. The scan variant serves as baseline and corresponds to
+ * the recursive search through the nested messages that was needed before specs had a symbol table.
+ *
+ * @author Stefan Kapferer
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SymbolTableBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class Spec {
+        @Param({"100", "10000"})
+        private int messageCount;
+
+        private ProtoSpec spec;
+        private String name;
+
+        @Setup
+        public void setUp() {
+            ProtoSpec.Builder builder = new ProtoSpec.Builder();
+            for (int i = 0; i < messageCount; i++) {
+                Message deep = new Message.Builder("Deep").withField(SimpleFieldType.STRING, "value").build();
+                Message inner = new Message.Builder("Inner").withNestedMessage(deep).build();
+                builder.withMessage(new Message.Builder("Outer" + i).withNestedMessage(inner));
+            }
+            spec = builder.build();
+            name = "Outer" + (messageCount - 1) + ".Inner.Deep";
+            spec.resolve(name); // builds the symbol table
+        }
+    }
+
+    @Benchmark
+    public Symbol resolve(Spec spec) {
+        return spec.spec.resolve(spec.name);
+    }
+
+    @Benchmark
+    public Message scan(Spec spec) {
+        String[] segments = spec.name.split("\\.");
+        for (Message message : spec.spec.getMessages()) {
+            Message found = scan(message, segments, 0);
+            if (found != null)
+                return found;
+        }
+        return null;
+    }
+
+    private static Message scan(Message message, String[] segments, int index) {
+        if (!message.getName().equals(segments[index]))
+            return null;
+        if (index == segments.length - 1)
+            return message;
+        for (Message nested : message.getNestedMessages()) {
+            Message found = scan(nested, segments, index + 1);
+            if (found != null)
+                return found;
+        }
+        return null;
+    }
+
+}
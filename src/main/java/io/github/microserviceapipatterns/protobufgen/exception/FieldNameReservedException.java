@@ -0,0 +1,24 @@
+/*
+ * Copyright 2020 The Context Mapper Project Team
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.microserviceapipatterns.protobufgen.exception;
+
+public class FieldNameReservedException extends ProtocolBufferBuilderException {
+
+    public FieldNameReservedException(String message, String fieldName) {
+        super("The field name '" + fieldName + "' is reserved in the message '" + message + "'. Reserved names belong to removed fields and must not be used again.");
+    }
+
+}
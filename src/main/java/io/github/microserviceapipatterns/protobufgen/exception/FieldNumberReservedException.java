@@ -21,4 +21,8 @@ public class FieldNumberReservedException extends ProtocolBufferBuilderException
         super("Field numbers 19000 through 19999 are reserved for the protocol buffer library implementation.");
     }
 
+    public FieldNumberReservedException(String message, int number) {
+        super("The field number " + number + " is reserved in the message '" + message + "'. Reserved numbers belong to removed fields and must not be used again.");
+    }
+
 }
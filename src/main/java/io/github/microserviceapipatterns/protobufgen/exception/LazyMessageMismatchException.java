@@ -0,0 +1,28 @@
+/*
+ * Copyright 2020 Stefan Kapferer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.microserviceapipatterns.protobufgen.exception;
+
+public class LazyMessageMismatchException extends ProtocolBufferBuilderException {
+
+    public LazyMessageMismatchException(String expectedName) {
+        super("The supplier of the lazily supplied nested message '" + expectedName + "' returned null. Please ensure that the supplier returns a message with the name given to the builder.");
+    }
+
+    public LazyMessageMismatchException(String expectedName, String actualName) {
+        super("The lazily supplied nested message '" + expectedName + "' was resolved to a message with the name '" + actualName + "'. Please ensure that the supplier returns a message with the name given to the builder.");
+    }
+
+}
@@ -0,0 +1,53 @@
+/*
+ * Copyright 2020 The Context Mapper Project Team
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.microserviceapipatterns.protobufgen.exception;
+
+import java.util.List;
+import java.util.stream.Collectors;
+
+public class ModelValidationException extends ProtocolBufferBuilderException {
+
+    private final ValidationReport report;
+
+    public ModelValidationException(ValidationReport report) {
+        super(createMessage(report));
+        this.report = report;
+    }
+
+    /**
+     * Returns the report containing all problems that have been found while validating the model.
+     *
+     * @return the validation report
+     */
+    public ValidationReport getReport() {
+        return report;
+    }
+
+    /**
+     * Returns all problems that have been found while validating the model, as exceptions (created on every call).
+     *
+     * @return the problems found in the model
+     */
+    public List<ProtocolBufferBuilderException> getProblems() {
+        return report.getProblems().stream().map(ValidationProblem::getException).collect(Collectors.toList());
+    }
+
+    private static String createMessage(ValidationReport report) {
+        int count = report.getProblems().size();
+        return "The model contains " + count + (count == 1 ? " problem:" : " problems:") + System.lineSeparator() + report.toString().replaceAll("(?m)^", " - ");
+    }
+
+}
@@ -17,12 +17,40 @@ package io.github.microserviceapipatterns.protobufgen.exception;
 
 public class ProtocolBufferBuilderException extends RuntimeException {
 
+    /**
+     * System property to disable stack traces for all builder exceptions (set it to "false").
+     */
+    public static final String STACK_TRACES_PROPERTY = "protobufgen.exceptions.stackTraces";
+
+    private static volatile boolean stackTracesEnabled = !"false".equalsIgnoreCase(System.getProperty(STACK_TRACES_PROPERTY));
+
     public ProtocolBufferBuilderException(String message) {
-        super(message);
+        super(message, null, true, stackTracesEnabled);
     }
 
     public ProtocolBufferBuilderException(String message, Throwable cause) {
-        super(message, cause);
+        super(message, cause, true, stackTracesEnabled);
+    }
+
+    /**
+     * Enables or disables stack traces for builder exceptions created afterwards. Filling in the stack trace is by
+     * far the most expensive part of creating an exception; generators that probe many candidate identifiers or
+     * field numbers and handle the exceptions themselves may want to disable it. Alternatively, use the non-throwing
+     * validation methods (such as Identifier.isValid(String)).
+     *
+     * @param enabled true to capture stack traces (default), false otherwise
+     */
+    public static void setStackTracesEnabled(boolean enabled) {
+        stackTracesEnabled = enabled;
+    }
+
+    /**
+     * Indicates whether builder exceptions capture stack traces or not.
+     *
+     * @return true if stack traces are captured, false otherwise
+     */
+    public static boolean isStackTracesEnabled() {
+        return stackTracesEnabled;
     }
 
 }
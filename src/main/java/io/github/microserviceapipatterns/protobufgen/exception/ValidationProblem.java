@@ -0,0 +1,114 @@
+/*
+ * Copyright 2020 Stefan Kapferer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.microserviceapipatterns.protobufgen.exception;
+
+import java.util.function.Supplier;
+
+/**
+ * Represents one problem of a {@link ValidationReport}: the path of the element the problem refers to (such as
+ * "Person.name" for the field "name" in the message "Person"), the type of the exception that would have been thrown
+ * by an eagerly validating builder, and the message describing the problem. Problems are plain values; the exception
+ * is only created when it or its message is requested (see {@link #getException()} and {@link #getMessage()}), for
+ * example when the problems are thrown or printed.
+ *
+ * @author Stefan Kapferer
+ */
+public class ValidationProblem {
+
+    private final String path;
+    private final Class<? extends ProtocolBufferBuilderException> type;
+    private final Supplier<? extends ProtocolBufferBuilderException> exceptionFactory;
+    private volatile String message;
+
+    private ValidationProblem(String path, Class<? extends ProtocolBufferBuilderException> type,
+                              Supplier<? extends ProtocolBufferBuilderException> exceptionFactory, String message) {
+        this.path = path;
+        this.type = type;
+        this.exceptionFactory = exceptionFactory;
+        this.message = message;
+    }
+
+    /**
+     * Creates a problem described by the exceptions of the given factory, such as
+     * {@code ValidationProblem.of(path, FieldAlreadyExistsException.class, () -> new FieldAlreadyExistsException(name))}.
+     *
+     * @param path             the path of the element the problem refers to
+     * @param type             the type of the exception describing the problem
+     * @param exceptionFactory creates the exception describing the problem
+     * @param <E>              the type of the exception
+     * @return the problem
+     */
+    public static <E extends ProtocolBufferBuilderException> ValidationProblem of(String path, Class<E> type, Supplier<E> exceptionFactory) {
+        return new ValidationProblem(path, type, exceptionFactory, null);
+    }
+
+    /**
+     * Returns the path of the element the problem refers to (dot-separated names, starting at the root element).
+     *
+     * @return the path of the element
+     */
+    public String getPath() {
+        return path;
+    }
+
+    /**
+     * Returns the type of the exception describing the problem; it tells which kind of problem has been found.
+     *
+     * @return the type of the problem
+     */
+    public Class<? extends ProtocolBufferBuilderException> getType() {
+        return type;
+    }
+
+    /**
+     * Returns the message describing the problem (the message of the exception, which is created on the first call).
+     *
+     * @return the problem message
+     */
+    public String getMessage() {
+        String problemMessage = message;
+        if (problemMessage == null) {
+            problemMessage = exceptionFactory.get().getMessage();
+            message = problemMessage;
+        }
+        return problemMessage;
+    }
+
+    /**
+     * Creates the exception describing the problem (a new one on every call).
+     *
+     * @return the exception describing the problem
+     */
+    public ProtocolBufferBuilderException getException() {
+        return exceptionFactory.get();
+    }
+
+    /**
+     * Returns a copy of this problem with the given prefix in front of its path.
+     *
+     * @param pathPrefix the prefix of the path
+     * @return the problem with the prefixed path
+     */
+    ValidationProblem withPathPrefix(String pathPrefix) {
+        return new ValidationProblem(pathPrefix + path, type, exceptionFactory, message);
+    }
+
+    @Override
+    public String toString() {
+        return path.isEmpty() ? getMessage() : path + ": " + getMessage();
+    }
+
+}
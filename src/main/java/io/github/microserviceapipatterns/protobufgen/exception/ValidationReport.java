@@ -0,0 +1,132 @@
+/*
+ * Copyright 2020 Stefan Kapferer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.microserviceapipatterns.protobufgen.exception;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Collects the problems found while validating (parts of) a proto model, instead of throwing at the first one.
+ *
+ * @author Stefan Kapferer
+ */
+public class ValidationReport {
+
+    private static final ValidationReport VALID = new ValidationReport(Collections.emptyList());
+
+    private final List<ValidationProblem> problems;
+
+    /**
+     * Creates an empty report.
+     */
+    public ValidationReport() {
+        this(new ArrayList<>());
+    }
+
+    private ValidationReport(List<ValidationProblem> problems) {
+        this.problems = problems;
+    }
+
+    /**
+     * Returns a shared, empty report.
+     *
+     * @return a report without problems
+     */
+    public static ValidationReport valid() {
+        return VALID;
+    }
+
+    /**
+     * Returns a report containing one single problem.
+     *
+     * @param problem the problem
+     * @return a report with the given problem
+     */
+    public static ValidationReport of(ValidationProblem problem) {
+        ValidationReport report = new ValidationReport();
+        report.add(problem);
+        return report;
+    }
+
+    /**
+     * Adds the given problem.
+     *
+     * @param problem the problem to add
+     */
+    public void add(ValidationProblem problem) {
+        problems.add(problem);
+    }
+
+    /**
+     * Adds all problems of the given report.
+     *
+     * @param report the report containing the problems to add
+     */
+    public void addAll(ValidationReport report) {
+        problems.addAll(report.problems);
+    }
+
+    /**
+     * Adds all problems of the given report, with the given prefix in front of their paths (used to report the
+     * problems of nested elements with paths starting at the root element).
+     *
+     * @param pathPrefix the prefix of the paths
+     * @param report     the report containing the problems to add
+     */
+    public void addAll(String pathPrefix, ValidationReport report) {
+        for (ValidationProblem problem : report.problems) {
+            problems.add(problem.withPathPrefix(pathPrefix));
+        }
+    }
+
+    /**
+     * Removes all problems.
+     */
+    public void clear() {
+        problems.clear();
+    }
+
+    /**
+     * Indicates whether the validated element is valid (no problems found) or not.
+     *
+     * @return true if no problems have been found, false otherwise
+     */
+    public boolean isValid() {
+        return problems.isEmpty();
+    }
+
+    /**
+     * Returns the problems found, in the order they have been found.
+     *
+     * @return an unmodifiable list with the problems found
+     */
+    public List<ValidationProblem> getProblems() {
+        return Collections.unmodifiableList(problems);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder report = new StringBuilder();
+        for (ValidationProblem problem : problems) {
+            if (report.length() > 0)
+                report.append(System.lineSeparator());
+            report.append(problem);
+        }
+        return report.toString();
+    }
+
+}
@@ -15,8 +15,6 @@
  */
 package io.github.microserviceapipatterns.protobufgen.model;
 
-import java.util.Objects;
-
 /**
  * Represents Google's Any type for message fields.
  *
@@ -41,7 +39,7 @@ public class AnyType implements FieldType {
 
     @Override
     public int hashCode() {
-        return Objects.hash(ANY_TYPE_NAME);
+        return ANY_TYPE_NAME.hashCode();
     }
 
     @Override
@@ -0,0 +1,245 @@
+/*
+ * Copyright 2020 Stefan Kapferer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.microserviceapipatterns.protobufgen.model;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Registry that deduplicates structurally identical messages, enums, and fields: for every element, it returns one
+ * shared (canonical) instance with the same content. Use one registry across all specs of a generation run, so that
+ * common messages (such as pagination or error messages) exist only once in memory and can be compared by identity.
+ * <p>
+ * Elements are compared by their whole content (names, numbers, types, comments, fields, and nested messages), using
+ * the structural hash computed when they are built. The registry is thread-safe.
+ * <p>
+ * Messages are canonicalized recursively: nested messages are replaced by their canonical instances, and message and
+ * enum types of fields are replaced by the canonical instances of the referenced messages and enums. Since the
+ * qualified name of a message type depends on where the message is nested, nested messages are only shared between
+ * parents with the same qualified name, and types of fields are compared by identity. Types of fields referring to
+ * messages of other parents should therefore be the instances obtained through {@link Message#getNestedMessages()};
+ * other messages and enums are canonicalized as root elements. Use canonical instances for all elements of a spec,
+ * so that the types of the fields are found in the spec. Lazy nested messages that have not been materialized yet
+ * are kept as they are.
+ * <p>
+ * Comments supplied on demand (see Message.Builder.withComment(Supplier)) are not resolved by the registry; elements
+ * with such comments are only shared if they use the same supplier instance.
+ * <p>
+ * Since model elements are immutable, canonical instances can be shared by any number of specs and threads.
+ *
+ * @author Stefan Kapferer
+ */
+public class CanonicalizationRegistry {
+
+    private final ConcurrentMap<StructuralKey, Object> instances;
+
+    public CanonicalizationRegistry() {
+        this.instances = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Returns the canonical instance of the given message. If no structurally equal message has been registered yet,
+     * a message with canonical fields and nested messages becomes the canonical instance. For a nested message
+     * obtained through {@link Message#getNestedMessages()}, the canonical instance of its definition (without parent)
+     * is returned.
+     *
+     * @param message the message to canonicalize
+     * @return a shared message with the same content as the given message
+     */
+    public Message canonicalize(Message message) {
+        Message definition = message.getDefinition();
+        String scope = message.getParent() != null ? message.getParent().getFullIdentifier().toString() : null;
+        Map<Message, String> scopes = new IdentityHashMap<>();
+        collectScopes(definition, scope != null ? scope + "." + definition.getSimpleName() : definition.getSimpleName(), scopes);
+        return canonicalize(definition, scope, scopes, new IdentityHashMap<>());
+    }
+
+    /**
+     * Canonicalizes the given message definition, which is nested in the parent with the given qualified name (null
+     * for root messages). Nested messages of the canonicalized message are canonicalized when they are nested or
+     * referenced first, so that fields referring to them use the same canonical instances.
+     */
+    private Message canonicalize(Message definition, String scope, Map<Message, String> scopes, Map<Message, Message> canonicalDefinitions) {
+        Message canonical = canonicalDefinitions.get(definition);
+        if (canonical != null)
+            return canonical;
+        canonical = lookup(definition, scope);
+        if (canonical == null) {
+            NestedMessages nestedMessages = (NestedMessages) definition.getNestedMessages();
+            Object[] canonicalNestedMessages = null;
+            for (int i = 0; i < nestedMessages.size(); i++) {
+                Message nested = nestedMessages.getIfMaterialized(i);
+                if (nested == null)
+                    continue; // lazy messages are not materialized by the registry
+                Message canonicalNested = canonicalize(nested, scopes.get(nested), scopes, canonicalDefinitions);
+                if (canonicalNested != nested && canonicalNestedMessages == null)
+                    canonicalNestedMessages = nestedMessages.elements().clone();
+                if (canonicalNestedMessages != null)
+                    canonicalNestedMessages[i] = canonicalNested;
+            }
+            MessageField[] fields = definition.getFieldArray();
+            MessageField[] canonicalFields = null;
+            for (int i = 0; i < fields.length; i++) {
+                MessageField canonicalField = canonicalize(fields[i], scopes, canonicalDefinitions);
+                if (canonicalField != fields[i] && canonicalFields == null)
+                    canonicalFields = fields.clone();
+                if (canonicalFields != null)
+                    canonicalFields[i] = canonicalField;
+            }
+            canonical = register(canonicalFields == null && canonicalNestedMessages == null ? definition
+                    : definition.withEquivalentContent(canonicalFields != null ? canonicalFields : fields,
+                    canonicalNestedMessages != null ? new NestedMessages(canonicalNestedMessages) : nestedMessages), scope);
+        }
+        canonicalDefinitions.put(definition, canonical);
+        return canonical;
+    }
+
+    /**
+     * Collects the qualified names of the parents of the (materialized) messages nested in the given message.
+     */
+    private static void collectScopes(Message definition, String name, Map<Message, String> scopes) {
+        NestedMessages nestedMessages = (NestedMessages) definition.getNestedMessages();
+        for (int i = 0; i < nestedMessages.size(); i++) {
+            Message nested = nestedMessages.getIfMaterialized(i);
+            if (nested != null && scopes.putIfAbsent(nested, name) == null)
+                collectScopes(nested, name + "." + nested.getSimpleName(), scopes);
+        }
+    }
+
+    /**
+     * Returns the canonical instance of the given enum. If no structurally equal enum has been registered yet, an
+     * enum with canonical fields becomes the canonical instance.
+     *
+     * @param enumm the enum to canonicalize
+     * @return a shared enum with the same content as the given enum
+     */
+    public Enum canonicalize(Enum enumm) {
+        Enum canonical = lookup(enumm, null);
+        if (canonical != null)
+            return canonical;
+        List<EnumField> canonicalFields = new ArrayList<>(enumm.getFields().size());
+        boolean changed = false;
+        for (EnumField field : enumm.getFields()) {
+            EnumField canonicalField = canonicalize(field);
+            changed |= canonicalField != field;
+            canonicalFields.add(canonicalField);
+        }
+        return register(changed ? enumm.withEquivalentFields(canonicalFields) : enumm, null);
+    }
+
+    /**
+     * Returns the canonical instance of the given message field. If no structurally equal field has been registered
+     * yet, the given field becomes the canonical instance.
+     *
+     * @param messageField the field to canonicalize
+     * @return a shared field with the same content as the given field
+     */
+    public MessageField canonicalize(MessageField messageField) {
+        return canonicalize(messageField, Collections.emptyMap(), Collections.emptyMap());
+    }
+
+    private MessageField canonicalize(MessageField messageField, Map<Message, String> scopes, Map<Message, Message> canonicalDefinitions) {
+        FieldType type = messageField.getFieldType();
+        FieldType canonicalType = type;
+        if (type instanceof Message) {
+            String scope = scopes.get(type);
+            canonicalType = scope != null ? canonicalize((Message) type, scope, scopes, canonicalDefinitions) : canonicalType((Message) type);
+        } else if (type instanceof Enum) {
+            canonicalType = canonicalize((Enum) type);
+        }
+        return register(canonicalType == type ? messageField : messageField.withType(canonicalType), null);
+    }
+
+    /**
+     * Returns the canonical instance of a message referenced by a field: for a nested message obtained through
+     * {@link Message#getNestedMessages()}, the corresponding nested message of the canonical parent.
+     */
+    private Message canonicalType(Message type) {
+        Message parent = type.getParent();
+        if (parent == null)
+            return canonicalize(type);
+        for (Message nested : canonicalType(parent).getNestedMessages()) {
+            if (nested.getIdentifier().equals(type.getIdentifier()))
+                return nested;
+        }
+        throw new IllegalStateException(type.getName()); // cannot happen: the canonical parent is structurally equal
+    }
+
+    /**
+     * Returns the canonical instance of the given enum field. If no structurally equal field has been registered yet,
+     * the given field becomes the canonical instance.
+     *
+     * @param enumField the enum field to canonicalize
+     * @return a shared enum field with the same content as the given field
+     */
+    public EnumField canonicalize(EnumField enumField) {
+        return register(enumField, null);
+    }
+
+    /**
+     * Returns the number of canonical instances (messages, enums, and fields) in this registry.
+     *
+     * @return the number of canonical instances
+     */
+    public int size() {
+        return instances.size();
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T extends StructuralElement<T>> T lookup(T element, String scope) {
+        return (T) instances.get(new StructuralKey(element, scope));
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T extends StructuralElement<T>> T register(T element, String scope) {
+        Object existing = instances.putIfAbsent(new StructuralKey(element, scope), element);
+        return existing != null ? (T) existing : element;
+    }
+
+    /**
+     * Map key that compares elements by content and, for nested messages, by the qualified name of their parent.
+     */
+    private static final class StructuralKey {
+        private final StructuralElement<?> element;
+        private final String scope;
+
+        StructuralKey(StructuralElement<?> element, String scope) {
+            this.element = element;
+            this.scope = scope;
+        }
+
+        @Override
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof StructuralKey)) return false;
+            StructuralKey other = (StructuralKey) o;
+            return element.getClass() == other.element.getClass() && Objects.equals(scope, other.scope)
+                    && ((StructuralElement) element).structurallyEquals(other.element);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * element.structuralHash() + Objects.hashCode(scope);
+        }
+    }
+}
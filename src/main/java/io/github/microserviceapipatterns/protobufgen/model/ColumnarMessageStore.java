@@ -0,0 +1,643 @@
+/*
+ * Copyright 2020 Stefan Kapferer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.microserviceapipatterns.protobufgen.model;
+
+import io.github.microserviceapipatterns.protobufgen.exception.FieldAlreadyExistsException;
+import io.github.microserviceapipatterns.protobufgen.exception.FieldNumberAlreadyExistsException;
+import io.github.microserviceapipatterns.protobufgen.exception.MessageStoreFrozenException;
+import io.github.microserviceapipatterns.protobufgen.exception.NestedMessageAlreadyExistsException;
+import io.github.microserviceapipatterns.protobufgen.exception.RootElementAlreadyExistsException;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+import java.util.Set;
+
+/**
+ * Compact store for very large numbers of messages and fields. Instead of one object per message and field, the
+ * store keeps names, numbers, types, flags, and parent indexes in columns of primitive arrays; names and field types
+ * are interned in tables, so that every distinct name is held only once.
+ * <p>
+ * Messages are referenced by the index returned when they are added. Pass the store to
+ * {@link ProtoSpec.Builder#withMessageStore(ColumnarMessageStore)} to generate a spec from it: the root messages are
+ * materialized into {@link Message} objects one by one while the spec is rendered and can be garbage collected right
+ * afterwards, so that the heap only has to hold the columns plus one root message at a time.
+ * <p>
+ * Names and numbers are validated when they are added, just like with {@link Message.Builder}. The names and numbers
+ * of the fields of the message fields have been added to last are kept in bit sets, so that adding the fields of one
+ * message after the other takes constant time per field; switching to another message costs time proportional to
+ * the fields of the two messages. Comments are not stored. The store is not thread-safe.
+ * <p>
+ * Building a spec with the store freezes it (see {@link #isFrozen()}): the spec computes its imports and checks the
+ * names of the root messages when it is built, so messages and fields cannot be added afterwards.
+ *
+ * @author Stefan Kapferer
+ */
+public class ColumnarMessageStore {
+
+    private static final int NONE = -1;
+    private static final byte REPEATED = 1;
+    private static final int INITIAL_CAPACITY = 16;
+    private static final int MAX_BIT_SET_FIELD_NUMBER = 65535;
+
+    // interned tables
+    private final Map<String, Integer> nameIndexes;
+    private String[] names;
+    private int nameCount;
+    private final Map<FieldType, Integer> typeIndexes;
+    private FieldType[] types;
+    private int typeCount;
+
+    // message columns
+    private int[] messageNames;
+    private int[] messageParents;
+    private int[] messageFirstFields;
+    private int[] messageLastFields;
+    private int[] messageFirstChildren;
+    private int[] messageLastChildren;
+    private int[] messageNextSiblings;
+    private int messageCount;
+    private int[] roots;
+    private int rootCount;
+    private final BitSet rootNames;
+    private final MessageIndex messageIndex;
+
+    // field columns; types >= 0 index the type table, types < 0 reference a stored message (-index - 1)
+    private int[] fieldNames;
+    private int[] fieldNumbers;
+    private int[] fieldTypes;
+    private byte[] fieldFlags;
+    private int[] fieldNexts;
+    private int fieldCount;
+
+    // names and numbers of the fields of the message fields have been added to last (see openMessage)
+    private int openMessage;
+    private final BitSet openFieldNames;
+    private final BitSet openFieldNumbers;
+    private final Set<Integer> openLargeFieldNumbers;
+
+    private boolean frozen;
+    private long usedWellKnownTypes;
+    private final Set<String> typeReferenceImports;
+
+    public ColumnarMessageStore() {
+        this.nameIndexes = new HashMap<>();
+        this.names = new String[INITIAL_CAPACITY];
+        this.typeIndexes = new IdentityHashMap<>();
+        this.types = new FieldType[INITIAL_CAPACITY];
+        this.messageNames = new int[INITIAL_CAPACITY];
+        this.messageParents = new int[INITIAL_CAPACITY];
+        this.messageFirstFields = new int[INITIAL_CAPACITY];
+        this.messageLastFields = new int[INITIAL_CAPACITY];
+        this.messageFirstChildren = new int[INITIAL_CAPACITY];
+        this.messageLastChildren = new int[INITIAL_CAPACITY];
+        this.messageNextSiblings = new int[INITIAL_CAPACITY];
+        this.roots = new int[INITIAL_CAPACITY];
+        this.rootNames = new BitSet();
+        this.messageIndex = new MessageIndex();
+        this.fieldNames = new int[INITIAL_CAPACITY];
+        this.fieldNumbers = new int[INITIAL_CAPACITY];
+        this.fieldTypes = new int[INITIAL_CAPACITY];
+        this.fieldFlags = new byte[INITIAL_CAPACITY];
+        this.fieldNexts = new int[INITIAL_CAPACITY];
+        this.openMessage = NONE;
+        this.openFieldNames = new BitSet();
+        this.openFieldNumbers = new BitSet();
+        this.openLargeFieldNumbers = new HashSet<>();
+        this.typeReferenceImports = new LinkedHashSet<>();
+    }
+
+    /**
+     * Adds a root message.
+     *
+     * @param name the name of the message
+     * @return the index of the new message
+     */
+    public int addMessage(String name) {
+        checkNotFrozen();
+        int nameIndex = internName(name);
+        if (rootNames.get(nameIndex))
+            throw new RootElementAlreadyExistsException(name);
+        rootNames.set(nameIndex);
+        int message = appendMessage(nameIndex, NONE);
+        messageIndex.put(NONE, nameIndex, message);
+        if (rootCount == roots.length)
+            roots = Arrays.copyOf(roots, rootCount * 2);
+        roots[rootCount++] = message;
+        return message;
+    }
+
+    /**
+     * Adds a message nested into the given message.
+     *
+     * @param parent the index of the parent message
+     * @param name   the name of the nested message
+     * @return the index of the new message
+     */
+    public int addNestedMessage(int parent, String name) {
+        checkNotFrozen();
+        checkMessage(parent);
+        int nameIndex = internName(name);
+        if (messageIndex.get(parent, nameIndex) != NONE)
+            throw new NestedMessageAlreadyExistsException(name);
+        int message = appendMessage(nameIndex, parent);
+        messageIndex.put(parent, nameIndex, message);
+        if (messageLastChildren[parent] == NONE)
+            messageFirstChildren[parent] = message;
+        else
+            messageNextSiblings[messageLastChildren[parent]] = message;
+        messageLastChildren[parent] = message;
+        return message;
+    }
+
+    /**
+     * Adds a field to the given message. Use {@link #addMessageField(int, int, String, int, boolean)} for fields whose
+     * type is a message of this store.
+     *
+     * @param message  the index of the message
+     * @param type     the type of the field
+     * @param name     the name of the field
+     * @param number   the number of the field
+     * @param repeated whether the field is repeated
+     */
+    public void addField(int message, FieldType type, String name, int number, boolean repeated) {
+        checkNotFrozen();
+        checkMessage(message);
+        appendField(message, internType(type), name, number, repeated);
+        usedWellKnownTypes |= WellKnownType.maskOf(type);
+        if (type instanceof TypeReference && ((TypeReference) type).getImportPath() != null)
+            typeReferenceImports.add(((TypeReference) type).getImportPath());
+    }
+
+    public void addField(int message, FieldType type, String name, int number) {
+        addField(message, type, name, number, false);
+    }
+
+    /**
+     * Adds a field to the given message whose type is a message of this store.
+     *
+     * @param message     the index of the message
+     * @param typeMessage the index of the message used as the type of the field
+     * @param name        the name of the field
+     * @param number      the number of the field
+     * @param repeated    whether the field is repeated
+     */
+    public void addMessageField(int message, int typeMessage, String name, int number, boolean repeated) {
+        checkNotFrozen();
+        checkMessage(message);
+        checkMessage(typeMessage);
+        appendField(message, -typeMessage - 1, name, number, repeated);
+    }
+
+    public void addMessageField(int message, int typeMessage, String name, int number) {
+        addMessageField(message, typeMessage, name, number, false);
+    }
+
+    /**
+     * Returns the number of messages (root and nested) in this store.
+     *
+     * @return the number of messages
+     */
+    public int getMessageCount() {
+        return messageCount;
+    }
+
+    /**
+     * Returns the number of fields (of all messages) in this store.
+     *
+     * @return the number of fields
+     */
+    public int getFieldCount() {
+        return fieldCount;
+    }
+
+    /**
+     * Returns the number of root messages in this store.
+     *
+     * @return the number of root messages
+     */
+    public int getRootMessageCount() {
+        return rootCount;
+    }
+
+    /**
+     * Materializes the root message at the given position (in the order the root messages have been added), including
+     * all of its fields and nested messages. Every call creates new objects; they are not retained by the store.
+     *
+     * @param position the position of the root message
+     * @return the materialized root message
+     */
+    public Message getRootMessage(int position) {
+        if (position < 0 || position >= rootCount)
+            throw new IndexOutOfBoundsException("Root message " + position + " does not exist (size " + rootCount + ").");
+        return materialize(roots[position]);
+    }
+
+    /**
+     * Returns a list view of the root messages. The list does not hold any messages; every access materializes the
+     * message (see {@link #getRootMessage(int)}).
+     *
+     * @return a list view materializing the root messages on access
+     */
+    public List<Message> getRootMessages() {
+        return new RootMessages();
+    }
+
+    /**
+     * Materializes the root message with the given name. The message is found with an index, without scanning the
+     * root messages.
+     *
+     * @param name the name of the root message
+     * @return the materialized root message, or null if the store does not contain such a root message
+     */
+    public Message findRootMessage(String name) {
+        Integer nameIndex = nameIndexes.get(name);
+        int message = nameIndex != null ? messageIndex.get(NONE, nameIndex) : NONE;
+        return message != NONE ? materialize(message) : null;
+    }
+
+    /**
+     * Returns the index of the message with the given full identifier (see {@link #getFullIdentifier(int)}). The
+     * message is found with one index lookup per name segment, without materializing any message.
+     *
+     * @param fullIdentifier the full identifier of the message, for example "Outer.Inner"
+     * @return the index of the message, or -1 if the store does not contain such a message
+     */
+    public int findMessage(String fullIdentifier) {
+        int message = NONE;
+        int start = 0;
+        while (start <= fullIdentifier.length()) {
+            int end = fullIdentifier.indexOf('.', start);
+            if (end < 0)
+                end = fullIdentifier.length();
+            Integer nameIndex = nameIndexes.get(fullIdentifier.substring(start, end));
+            if (nameIndex == null)
+                return NONE;
+            message = messageIndex.get(message, nameIndex);
+            if (message == NONE)
+                return NONE;
+            start = end + 1;
+        }
+        return message;
+    }
+
+    /**
+     * Returns the full identifier of the given message: the names of all its parents and its own name, separated by
+     * dots.
+     *
+     * @param message the index of the message
+     * @return the full identifier of the message
+     */
+    public String getFullIdentifier(int message) {
+        checkMessage(message);
+        StringBuilder fullIdentifier = new StringBuilder(names[messageNames[message]]);
+        for (int parent = messageParents[message]; parent != NONE; parent = messageParents[parent]) {
+            fullIdentifier.insert(0, '.').insert(0, names[messageNames[parent]]);
+        }
+        return fullIdentifier.toString();
+    }
+
+    /**
+     * Indicates whether a spec has been built with this store; messages and fields cannot be added to a frozen store.
+     *
+     * @return true if the store is frozen, false otherwise
+     */
+    public boolean isFrozen() {
+        return frozen;
+    }
+
+    void freeze() {
+        frozen = true;
+    }
+
+    boolean containsRootMessage(String name) {
+        Integer nameIndex = nameIndexes.get(name);
+        return nameIndex != null && rootNames.get(nameIndex);
+    }
+
+    String getRootMessageName(int position) {
+        return names[messageNames[roots[position]]];
+    }
+
+    long getUsedWellKnownTypes() {
+        return usedWellKnownTypes;
+    }
+
+    Set<String> getTypeReferenceImports() {
+        return typeReferenceImports;
+    }
+
+    String getMessageName(int message) {
+        return names[messageNames[message]];
+    }
+
+    int getParent(int message) {
+        return messageParents[message];
+    }
+
+    int getFirstField(int message) {
+        return messageFirstFields[message];
+    }
+
+    int getNextField(int field) {
+        return fieldNexts[field];
+    }
+
+    String getFieldName(int field) {
+        return names[fieldNames[field]];
+    }
+
+    /**
+     * Returns the type of the given field, or null if the type is a message of this store (see
+     * {@link #getFieldTypeMessage(int)}).
+     */
+    FieldType getFieldType(int field) {
+        return fieldTypes[field] >= 0 ? types[fieldTypes[field]] : null;
+    }
+
+    /**
+     * Returns the index of the message used as the type of the given field, or -1 if the type is not a message of
+     * this store.
+     */
+    int getFieldTypeMessage(int field) {
+        return fieldTypes[field] < 0 ? -fieldTypes[field] - 1 : NONE;
+    }
+
+    /**
+     * Materializes the given message with its fields; its nested messages are materialized lazily, on first access
+     * (see {@link Message.Builder#withLazyNestedMessage(String, java.util.function.Supplier)}).
+     */
+    Message materializeShallow(int message) {
+        Message.Builder builder = new Message.Builder(names[messageNames[message]]);
+        addMaterializedFields(builder, message);
+        for (int child = messageFirstChildren[message]; child != NONE; child = messageNextSiblings[child]) {
+            int nested = child;
+            builder.withLazyNestedMessage(names[messageNames[nested]], () -> materializeShallow(nested));
+        }
+        return builder.build();
+    }
+
+    private Message materialize(int message) {
+        Message.Builder builder = new Message.Builder(names[messageNames[message]]);
+        addMaterializedFields(builder, message);
+        for (int child = messageFirstChildren[message]; child != NONE; child = messageNextSiblings[child]) {
+            builder.withNestedMessage(materialize(child));
+        }
+        return builder.build();
+    }
+
+    private void addMaterializedFields(Message.Builder builder, int message) {
+        for (int field = messageFirstFields[message]; field != NONE; field = fieldNexts[field]) {
+            int type = fieldTypes[field];
+            FieldType fieldType = type >= 0 ? types[type] : new StoredMessageType(getFullIdentifier(-type - 1));
+            MessageField.Builder fieldBuilder = new MessageField.Builder(fieldType, names[fieldNames[field]], fieldNumbers[field]);
+            if ((fieldFlags[field] & REPEATED) != 0)
+                fieldBuilder.repeated();
+            builder.withField(fieldBuilder);
+        }
+    }
+
+    private int appendMessage(int nameIndex, int parent) {
+        if (messageCount == messageNames.length) {
+            int capacity = messageCount * 2;
+            messageNames = Arrays.copyOf(messageNames, capacity);
+            messageParents = Arrays.copyOf(messageParents, capacity);
+            messageFirstFields = Arrays.copyOf(messageFirstFields, capacity);
+            messageLastFields = Arrays.copyOf(messageLastFields, capacity);
+            messageFirstChildren = Arrays.copyOf(messageFirstChildren, capacity);
+            messageLastChildren = Arrays.copyOf(messageLastChildren, capacity);
+            messageNextSiblings = Arrays.copyOf(messageNextSiblings, capacity);
+        }
+        int message = messageCount++;
+        messageNames[message] = nameIndex;
+        messageParents[message] = parent;
+        messageFirstFields[message] = NONE;
+        messageLastFields[message] = NONE;
+        messageFirstChildren[message] = NONE;
+        messageLastChildren[message] = NONE;
+        messageNextSiblings[message] = NONE;
+        return message;
+    }
+
+    private void appendField(int message, int type, String name, int number, boolean repeated) {
+        int nameIndex = internName(name);
+        FieldNumber.of(number); // validates the number
+        openMessage(message);
+        if (openFieldNames.get(nameIndex))
+            throw new FieldAlreadyExistsException(name);
+        if (containsOpenFieldNumber(number))
+            throw new FieldNumberAlreadyExistsException(names[messageNames[message]], number);
+        if (fieldCount == fieldNames.length) {
+            int capacity = fieldCount * 2;
+            fieldNames = Arrays.copyOf(fieldNames, capacity);
+            fieldNumbers = Arrays.copyOf(fieldNumbers, capacity);
+            fieldTypes = Arrays.copyOf(fieldTypes, capacity);
+            fieldFlags = Arrays.copyOf(fieldFlags, capacity);
+            fieldNexts = Arrays.copyOf(fieldNexts, capacity);
+        }
+        int field = fieldCount++;
+        fieldNames[field] = nameIndex;
+        fieldNumbers[field] = number;
+        fieldTypes[field] = type;
+        fieldFlags[field] = repeated ? REPEATED : 0;
+        fieldNexts[field] = NONE;
+        if (messageLastFields[message] == NONE)
+            messageFirstFields[message] = field;
+        else
+            fieldNexts[messageLastFields[message]] = field;
+        messageLastFields[message] = field;
+        addOpenField(nameIndex, number);
+    }
+
+    /**
+     * Loads the names and numbers of the fields of the given message into the bit sets, replacing the fields of the
+     * previously open message.
+     */
+    private void openMessage(int message) {
+        if (message == openMessage)
+            return;
+        if (openMessage != NONE) {
+            for (int field = messageFirstFields[openMessage]; field != NONE; field = fieldNexts[field]) {
+                openFieldNames.clear(fieldNames[field]);
+                if (fieldNumbers[field] <= MAX_BIT_SET_FIELD_NUMBER)
+                    openFieldNumbers.clear(fieldNumbers[field]);
+            }
+            openLargeFieldNumbers.clear();
+        }
+        openMessage = message;
+        for (int field = messageFirstFields[message]; field != NONE; field = fieldNexts[field]) {
+            addOpenField(fieldNames[field], fieldNumbers[field]);
+        }
+    }
+
+    private void addOpenField(int nameIndex, int number) {
+        openFieldNames.set(nameIndex);
+        if (number <= MAX_BIT_SET_FIELD_NUMBER)
+            openFieldNumbers.set(number);
+        else
+            openLargeFieldNumbers.add(number);
+    }
+
+    private boolean containsOpenFieldNumber(int number) {
+        return number <= MAX_BIT_SET_FIELD_NUMBER ? openFieldNumbers.get(number) : openLargeFieldNumbers.contains(number);
+    }
+
+    private int internName(String name) {
+        Integer index = nameIndexes.get(name);
+        if (index != null)
+            return index;
+        Identifier.of(name); // validates the name
+        if (nameCount == names.length)
+            names = Arrays.copyOf(names, nameCount * 2);
+        names[nameCount] = name;
+        nameIndexes.put(name, nameCount);
+        return nameCount++;
+    }
+
+    private int internType(FieldType type) {
+        Integer index = typeIndexes.get(type);
+        if (index != null)
+            return index;
+        if (typeCount == types.length)
+            types = Arrays.copyOf(types, typeCount * 2);
+        types[typeCount] = type;
+        typeIndexes.put(type, typeCount);
+        return typeCount++;
+    }
+
+    private void checkNotFrozen() {
+        if (frozen)
+            throw new MessageStoreFrozenException();
+    }
+
+    private void checkMessage(int message) {
+        if (message < 0 || message >= messageCount)
+            throw new IndexOutOfBoundsException("Message " + message + " does not exist (size " + messageCount + ").");
+    }
+
+    /**
+     * Type of materialized fields referencing a message of the store; the name is the full identifier of the message.
+     */
+    private static class StoredMessageType implements FieldType {
+        private final String fullIdentifier;
+
+        private StoredMessageType(String fullIdentifier) {
+            this.fullIdentifier = fullIdentifier;
+        }
+
+        @Override
+        public String getName() {
+            return fullIdentifier;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            return fullIdentifier.equals(((StoredMessageType) o).fullIdentifier);
+        }
+
+        @Override
+        public int hashCode() {
+            return fullIdentifier.hashCode();
+        }
+    }
+
+    /**
+     * Open-addressing hash table from the parent and the name of a message to the index of the message, so that
+     * messages are found without scanning the roots or the siblings. Root messages are stored with the parent -1.
+     */
+    private static class MessageIndex {
+        private long[] keys;
+        private int[] values;
+        private int size;
+
+        private MessageIndex() {
+            this.keys = new long[INITIAL_CAPACITY];
+            this.values = new int[INITIAL_CAPACITY];
+            Arrays.fill(values, NONE);
+        }
+
+        private int get(int parent, int nameIndex) {
+            long key = key(parent, nameIndex);
+            for (int slot = slot(key, keys.length); values[slot] != NONE; slot = (slot + 1) & (keys.length - 1)) {
+                if (keys[slot] == key)
+                    return values[slot];
+            }
+            return NONE;
+        }
+
+        private void put(int parent, int nameIndex, int message) {
+            if (2 * (size + 1) > keys.length)
+                grow();
+            long key = key(parent, nameIndex);
+            int slot = slot(key, keys.length);
+            while (values[slot] != NONE) {
+                slot = (slot + 1) & (keys.length - 1);
+            }
+            keys[slot] = key;
+            values[slot] = message;
+            size++;
+        }
+
+        private void grow() {
+            long[] oldKeys = keys;
+            int[] oldValues = values;
+            keys = new long[oldKeys.length * 2];
+            values = new int[oldValues.length * 2];
+            Arrays.fill(values, NONE);
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldValues[i] == NONE)
+                    continue;
+                int slot = slot(oldKeys[i], keys.length);
+                while (values[slot] != NONE) {
+                    slot = (slot + 1) & (keys.length - 1);
+                }
+                keys[slot] = oldKeys[i];
+                values[slot] = oldValues[i];
+            }
+        }
+
+        private static long key(int parent, int nameIndex) {
+            return ((long) (parent + 1) << 32) | nameIndex;
+        }
+
+        private static int slot(long key, int capacity) {
+            long hash = key * 0x9E3779B97F4A7C15L;
+            return (int) (hash >>> 32) & (capacity - 1);
+        }
+    }
+
+    private class RootMessages extends AbstractList<Message> implements RandomAccess {
+        @Override
+        public Message get(int index) {
+            return getRootMessage(index);
+        }
+
+        @Override
+        public int size() {
+            return rootCount;
+        }
+    }
+
+}
@@ -0,0 +1,165 @@
+/*
+ * Copyright 2020 Stefan Kapferer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.microserviceapipatterns.protobufgen.model;
+
+import io.github.microserviceapipatterns.protobufgen.exception.RootElementAlreadyExistsException;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Supplier;
+
+/**
+ * Thread-safe builder for proto specs. Messages, enums, and services can be added from many threads concurrently
+ * (for example from a parallel stream translating a domain model); duplicate names are detected lock-free.
+ * <p>
+ * The order in which elements are added is not preserved: {@link #build()} sorts messages, enums, services, and
+ * imports by name, so that the resulting spec does not depend on the scheduling of the adding threads.
+ *
+ * @author Stefan Kapferer
+ */
+public class ConcurrentProtoSpecBuilder {
+
+    private static final Comparator<Identifiable> BY_NAME = Comparator.comparing(i -> i.getIdentifier().toString());
+
+    private final ConcurrentMap<Identifier, Identifiable> rootElements;
+    private final ConcurrentMap<String, ImportStatement> importStatements;
+    private volatile FullIdentifier packageDef;
+    private volatile CharSequence comment;
+
+    public ConcurrentProtoSpecBuilder() {
+        this.rootElements = new ConcurrentHashMap<>();
+        this.importStatements = new ConcurrentHashMap<>();
+        this.comment = "";
+    }
+
+    public ConcurrentProtoSpecBuilder withMessage(Message message) {
+        addIdentifiable(message);
+        return this;
+    }
+
+    /**
+     * Builds the given message in the calling thread and adds it.
+     *
+     * @param messageBuilder the builder of the message to add
+     * @return this builder
+     */
+    public ConcurrentProtoSpecBuilder withMessage(Message.Builder messageBuilder) {
+        return this.withMessage(messageBuilder.build());
+    }
+
+    public ConcurrentProtoSpecBuilder withEnum(Enum enumm) {
+        addIdentifiable(enumm);
+        return this;
+    }
+
+    public ConcurrentProtoSpecBuilder withEnum(Enum.Builder enumBuilder) {
+        return this.withEnum(enumBuilder.build());
+    }
+
+    public ConcurrentProtoSpecBuilder withService(Service service) {
+        addIdentifiable(service);
+        return this;
+    }
+
+    public ConcurrentProtoSpecBuilder withService(Service.Builder serviceBuilder) {
+        return this.withService(serviceBuilder.build());
+    }
+
+    /**
+     * Adds the given import. If the same file is imported several times, the imports are merged: the file is
+     * imported publicly if any of the imports is public, independent of the order in which they are added.
+     *
+     * @param importStatement the import to add
+     * @return this builder
+     */
+    public ConcurrentProtoSpecBuilder withImport(ImportStatement importStatement) {
+        this.importStatements.merge(importStatement.getFileName(), importStatement, (existing, added) -> existing.isPublic() ? existing : added);
+        return this;
+    }
+
+    public ConcurrentProtoSpecBuilder withImport(String fileName) {
+        return this.withImport(new ImportStatement(fileName));
+    }
+
+    public ConcurrentProtoSpecBuilder withImport(String fileName, boolean publicImport) {
+        return this.withImport(new ImportStatement(fileName, publicImport));
+    }
+
+    public ConcurrentProtoSpecBuilder withPackage(FullIdentifier packageDef) {
+        this.packageDef = packageDef;
+        return this;
+    }
+
+    public ConcurrentProtoSpecBuilder withPackage(String packageName) {
+        return this.withPackage(new FullIdentifier(packageName));
+    }
+
+    public ConcurrentProtoSpecBuilder withComment(String comment) {
+        this.comment = comment;
+        return this;
+    }
+
+    public ConcurrentProtoSpecBuilder withComment(Supplier<? extends CharSequence> comment) {
+        this.comment = new LazyComment(comment);
+        return this;
+    }
+
+    private void addIdentifiable(Identifiable identifiable) {
+        if (this.rootElements.putIfAbsent(identifiable.getIdentifier(), identifiable) != null)
+            throw new RootElementAlreadyExistsException(identifiable.getIdentifier().toString());
+    }
+
+    /**
+     * Builds the proto spec from a snapshot of the elements added so far. Must not be called while other threads are
+     * still adding elements if the result shall contain all of them.
+     *
+     * @return the proto spec with all elements sorted by name
+     */
+    public ProtoSpec build() {
+        List<Message> messages = new ArrayList<>();
+        List<Enum> enums = new ArrayList<>();
+        List<Service> services = new ArrayList<>();
+        for (Identifiable identifiable : this.rootElements.values()) {
+            if (identifiable instanceof Message)
+                messages.add((Message) identifiable);
+            else if (identifiable instanceof Enum)
+                enums.add((Enum) identifiable);
+            else
+                services.add((Service) identifiable);
+        }
+        messages.sort(BY_NAME);
+        enums.sort(BY_NAME);
+        services.sort(BY_NAME);
+        List<ImportStatement> imports = new ArrayList<>(this.importStatements.values());
+        imports.sort(Comparator.comparing(ImportStatement::getFileName));
+
+        ProtoSpec.Builder builder = new ProtoSpec.Builder()
+                .withMessages(messages)
+                .withEnums(enums)
+                .withServices(services)
+                .withComment(this.comment);
+        if (this.packageDef != null)
+            builder.withPackage(this.packageDef);
+        for (ImportStatement importStatement : imports) {
+            builder.withImport(importStatement);
+        }
+        return builder.build();
+    }
+
+}
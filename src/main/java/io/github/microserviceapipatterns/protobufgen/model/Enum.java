@@ -15,26 +15,49 @@
  */
 package io.github.microserviceapipatterns.protobufgen.model;
 
-import io.github.microserviceapipatterns.protobufgen.exception.FirstEnumFieldZeroValueException;
 import io.github.microserviceapipatterns.protobufgen.exception.FieldAlreadyExistsException;
+import io.github.microserviceapipatterns.protobufgen.exception.FirstEnumFieldZeroValueException;
+import io.github.microserviceapipatterns.protobufgen.exception.ModelValidationException;
+import io.github.microserviceapipatterns.protobufgen.exception.ValidationProblem;
+import io.github.microserviceapipatterns.protobufgen.exception.ValidationReport;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Objects;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.function.Supplier;
 
 /**
  * Represents a protocol buffer enum.
  *
  * @author Stefan Kapferer
  */
-public class Enum implements FieldType, Identifiable {
+public class Enum implements FieldType, Identifiable, StructuralElement<Enum> {
 
-    private Identifier name;
-    private Set<EnumField> fields;
-    private String comment;
+    private final Identifier name;
+    private final Set<EnumField> fields;
+    private final CharSequence comment;
+    private final int structuralHash;
 
-    private Enum() {
+    private Enum(Builder builder) {
         // use builder to create enum
+        this(builder.name, builder.comment, builder.fields);
+    }
+
+    private Enum(Identifier name, CharSequence comment, Collection<EnumField> fields) {
+        this.name = name;
+        this.comment = comment;
+        this.fields = Collections.unmodifiableSet(new TreeSet<>(fields));
+        int hash = 31 * name.hashCode() + Objects.hashCode(comment);
+        for (EnumField field : fields) {
+            hash = 31 * hash + field.structuralHash();
+        }
+        this.structuralHash = hash;
     }
 
     /**
@@ -57,12 +80,12 @@ public class Enum implements FieldType, Identifiable {
     }
 
     /**
-     * Returns a set with the fields of the represented enum.
+     * Returns an unmodifiable set with the fields of the represented enum (ordered by value).
      *
      * @return a set with the fields of the represented enum
      */
     public Set<EnumField> getFields() {
-        return new TreeSet<>(fields);
+        return fields;
     }
 
     /**
@@ -71,31 +94,150 @@ public class Enum implements FieldType, Identifiable {
      * @return the comment for the represented enum
      */
     public String getComment() {
-        return comment;
+        return comment != null ? comment.toString() : null;
+    }
+
+    /**
+     * Returns a copy of this enum with the given fields, which must have the same names and values as the fields of
+     * this enum (used to replace fields with structurally equal, shared instances).
+     *
+     * @param fields the new fields
+     * @return a new enum with the given fields
+     */
+    Enum withEquivalentFields(Collection<EnumField> fields) {
+        return new Enum(name, comment, fields);
+    }
+
+    @Override
+    public int structuralHash() {
+        return structuralHash;
+    }
+
+    @Override
+    public boolean structurallyEquals(Enum other) {
+        if (this == other)
+            return true;
+        if (structuralHash != other.structuralHash || !name.equals(other.name) || fields.size() != other.fields.size()
+                || !Objects.equals(comment, other.comment))
+            return false;
+        Iterator<EnumField> otherFields = other.fields.iterator();
+        for (EnumField field : fields) {
+            if (!field.structurallyEquals(otherFields.next()))
+                return false;
+        }
+        return true;
     }
 
     public static class Builder {
-        private final Identifier name;
+        private static final ThreadLocal<Builder> THREAD_LOCAL_BUILDER = new ThreadLocal<>();
+
+        private Identifier name;
         private final Set<EnumField> fields;
-        private String comment;
+        private final Set<String> fieldNames;
+        private final List<EnumField> deferredFields;
+        private CharSequence comment;
         private int valueCounter = 0;
+        private boolean deferValidation = false;
 
         public Builder(String name) {
-            this.name = new Identifier(name);
+            this.name = Identifier.of(name);
             this.comment = "";
             this.fields = new TreeSet<>();
+            this.fieldNames = new HashSet<>();
+            this.deferredFields = new ArrayList<>();
+        }
+
+        /**
+         * Returns the enum builder of the calling thread, reset to the given name (see {@link #reset(String)}). The
+         * returned builder must not be used anymore once this method is called again in the same thread.
+         *
+         * @param name the name of the enum to build
+         * @return the reset builder of the calling thread
+         */
+        public static Builder threadLocal(String name) {
+            Builder builder = THREAD_LOCAL_BUILDER.get();
+            if (builder == null) {
+                builder = new Builder(name);
+                THREAD_LOCAL_BUILDER.set(builder);
+                return builder;
+            }
+            return builder.reset(name);
+        }
+
+        /**
+         * Resets this builder to build another enum with the given name, as if it was newly created. The internal
+         * collections are cleared but kept, so that builders can be reused without allocating them again.
+         *
+         * @param name the name of the enum to build
+         * @return this builder
+         */
+        public Builder reset(String name) {
+            this.name = Identifier.of(name);
+            this.comment = "";
+            this.fields.clear();
+            this.fieldNames.clear();
+            this.deferredFields.clear();
+            this.valueCounter = 0;
+            this.deferValidation = false;
+            return this;
+        }
+
+        /**
+         * Defers the validation of fields to {@link #build()}: fields are recorded without any checks and validated in
+         * one pass when the enum is built. Instead of failing at the first problem, build() reports all problems at
+         * once (see {@link ModelValidationException}).
+         *
+         * @return this builder
+         */
+        public Builder withDeferredValidation() {
+            this.deferValidation = true;
+            return this;
         }
 
         public Builder withField(EnumField enumField) {
+            if (this.deferValidation) {
+                this.deferredFields.add(enumField);
+                this.valueCounter = enumField.getValue() + 1;
+                return this;
+            }
             if (this.fields.isEmpty() && enumField.getValue() != 0)
                 throw new FirstEnumFieldZeroValueException();
-            if (this.fields.stream().anyMatch(f -> f.getName().equals(enumField.getName())))
+            if (!this.fieldNames.add(enumField.getName()))
                 throw new FieldAlreadyExistsException(enumField.getName());
             this.fields.add(enumField);
             this.valueCounter = enumField.getValue() + 1;
             return this;
         }
 
+        /**
+         * Adds all given fields (in iteration order). The whole batch is validated before any field is added; if one
+         * of the fields is invalid, the builder remains unchanged.
+         *
+         * @param enumFields the fields to add
+         * @return this builder
+         */
+        public Builder withFields(Collection<EnumField> enumFields) {
+            if (this.deferValidation) {
+                enumFields.forEach(this::withField);
+                return this;
+            }
+            Set<String> batchNames = new HashSet<>((int) (enumFields.size() / 0.75f) + 1);
+            EnumField last = null;
+            for (EnumField enumField : enumFields) {
+                if (this.fields.isEmpty() && last == null && enumField.getValue() != 0)
+                    throw new FirstEnumFieldZeroValueException();
+                if (this.fieldNames.contains(enumField.getName()) || !batchNames.add(enumField.getName()))
+                    throw new FieldAlreadyExistsException(enumField.getName());
+                last = enumField;
+            }
+            if (last == null)
+                return this;
+            this.fields.addAll(enumFields);
+            this.fieldNames.addAll(batchNames);
+            this.valueCounter = last.getValue() + 1;
+            return this;
+        }
+
         public Builder withField(EnumField.Builder enumFieldBuilder) {
             this.withField(enumFieldBuilder.build());
             return this;
@@ -111,12 +253,48 @@ public class Enum implements FieldType, Identifiable {
             return this;
         }
 
+        /**
+         * Sets a comment that is supplied on demand, when it is read first, instead of when the enum is built.
+         *
+         * @param comment the supplier of the comment
+         * @return this builder
+         */
+        public Builder withComment(Supplier<? extends CharSequence> comment) {
+            this.comment = new LazyComment(comment);
+            return this;
+        }
+
+        /**
+         * Builds the enum. If the validation fails, the builder remains unchanged, so that calling build() again
+         * reports the same problems.
+         *
+         * @return the built enum
+         */
         public Enum build() {
-            Enum enumm = new Enum();
-            enumm.name = this.name;
-            enumm.comment = this.comment;
-            enumm.fields = new TreeSet<>(this.fields);
-            return enumm;
+            validateDeferredFields();
+            return new Enum(this);
+        }
+
+        /**
+         * Validates the deferred fields and adds them if all of them are valid; otherwise, the builder remains
+         * unchanged.
+         */
+        private void validateDeferredFields() {
+            if (this.deferredFields.isEmpty())
+                return;
+            ValidationReport report = new ValidationReport();
+            if (this.fields.isEmpty() && this.deferredFields.get(0).getValue() != 0)
+                report.add(ValidationProblem.of(this.name + "." + this.deferredFields.get(0).getName(), FirstEnumFieldZeroValueException.class, FirstEnumFieldZeroValueException::new));
+            Set<String> acceptedNames = new HashSet<>();
+            for (EnumField enumField : this.deferredFields) {
+                if (this.fieldNames.contains(enumField.getName()) || !acceptedNames.add(enumField.getName()))
+                    report.add(ValidationProblem.of(this.name + "." + enumField.getName(), FieldAlreadyExistsException.class, () -> new FieldAlreadyExistsException(enumField.getName())));
+            }
+            if (!report.isValid())
+                throw new ModelValidationException(report);
+            this.fields.addAll(this.deferredFields);
+            this.fieldNames.addAll(acceptedNames);
+            this.deferredFields.clear();
         }
     }
 
@@ -130,6 +308,6 @@ public class Enum implements FieldType, Identifiable {
 
     @Override
     public int hashCode() {
-        return Objects.hash(name);
+        return name.hashCode();
     }
 }
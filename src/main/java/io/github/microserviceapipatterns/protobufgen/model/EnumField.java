@@ -16,20 +16,26 @@
 package io.github.microserviceapipatterns.protobufgen.model;
 
 import java.util.Objects;
+import java.util.function.Supplier;
 
 /**
  * Represents a protocol buffer enum field.
  *
  * @author Stefan Kapferer
  */
-public class EnumField implements Comparable<EnumField> {
+public class EnumField implements Comparable<EnumField>, StructuralElement<EnumField> {
 
-    private Identifier name;
-    private int value;
-    private String comment;
+    private final Identifier name;
+    private final int value;
+    private final CharSequence comment;
+    private final int structuralHash;
 
-    private EnumField() {
+    private EnumField(Builder builder) {
         // use builder to create enum field
+        this.name = builder.name;
+        this.value = builder.value;
+        this.comment = builder.comment;
+        this.structuralHash = 31 * (31 * name.hashCode() + value) + Objects.hashCode(comment);
     }
 
     /**
@@ -56,21 +62,32 @@ public class EnumField implements Comparable<EnumField> {
      * @return the comment for the represented enum field
      */
     public String getComment() {
-        return comment;
+        return comment != null ? comment.toString() : null;
     }
 
     @Override
     public int compareTo(EnumField enumField) {
-        return Integer.valueOf(value).compareTo(enumField.value);
+        return Integer.compare(value, enumField.value);
+    }
+
+    @Override
+    public int structuralHash() {
+        return structuralHash;
+    }
+
+    @Override
+    public boolean structurallyEquals(EnumField other) {
+        return this == other || (structuralHash == other.structuralHash && name.equals(other.name)
+                && value == other.value && Objects.equals(comment, other.comment));
     }
 
     public static class Builder {
         private final Identifier name;
         private final int value;
-        private String comment;
+        private CharSequence comment;
 
         public Builder(String name, int value) {
-            this.name = new Identifier(name);
+            this.name = Identifier.of(name);
             this.value = value;
             this.comment = "";
         }
@@ -80,12 +97,19 @@ public class EnumField implements Comparable<EnumField> {
             return this;
         }
 
+        /**
+         * Sets a comment that is supplied on demand, when it is read first, instead of when the enum field is built.
+         *
+         * @param comment the supplier of the comment
+         * @return this builder
+         */
+        public Builder withComment(Supplier<? extends CharSequence> comment) {
+            this.comment = new LazyComment(comment);
+            return this;
+        }
+
         public EnumField build() {
-            EnumField enumField = new EnumField();
-            enumField.name = this.name;
-            enumField.value = this.value;
-            enumField.comment = this.comment;
-            return enumField;
+            return new EnumField(this);
         }
     }
 
@@ -99,6 +123,6 @@ public class EnumField implements Comparable<EnumField> {
 
     @Override
     public int hashCode() {
-        return Objects.hash(name);
+        return name.hashCode();
     }
 }
@@ -17,8 +17,8 @@ package io.github.microserviceapipatterns.protobufgen.model;
 
 import io.github.microserviceapipatterns.protobufgen.exception.FieldNumberOutOfRangeException;
 import io.github.microserviceapipatterns.protobufgen.exception.FieldNumberReservedException;
-
-import java.util.Objects;
+import io.github.microserviceapipatterns.protobufgen.exception.ValidationProblem;
+import io.github.microserviceapipatterns.protobufgen.exception.ValidationReport;
 
 /**
  * Represents a protocol buffer field number.
@@ -27,16 +27,70 @@ import java.util.Objects;
  */
 public class FieldNumber implements Comparable<FieldNumber> {
 
+    private static final int CACHE_SIZE = 2047;
+    private static final FieldNumber[] CACHE = new FieldNumber[CACHE_SIZE];
+
+    static {
+        for (int i = 0; i < CACHE_SIZE; i++) {
+            CACHE[i] = new FieldNumber(i + 1);
+        }
+    }
+
     private final int number;
 
     public FieldNumber(int number) {
-        if (number < 1 || number > 536870911)
+        if (!isInRange(number))
             throw new FieldNumberOutOfRangeException(number);
-        if (number >= 19000 && number <= 19999)
+        if (isReserved(number))
             throw new FieldNumberReservedException();
         this.number = number;
     }
 
+    /**
+     * Checks whether the given integer can be used as field number, without throwing an exception.
+     *
+     * @param number the integer to check
+     * @return true if the given integer is a correct field number, false otherwise
+     */
+    public static boolean isValid(int number) {
+        return isInRange(number) && !isReserved(number);
+    }
+
+    /**
+     * Validates the given integer without throwing an exception.
+     *
+     * @param number the integer to validate
+     * @return a report that is valid if the given integer is a correct field number, or contains the problem otherwise
+     */
+    public static ValidationReport validate(int number) {
+        if (!isInRange(number))
+            return ValidationReport.of(ValidationProblem.of("", FieldNumberOutOfRangeException.class, () -> new FieldNumberOutOfRangeException(number)));
+        if (isReserved(number))
+            return ValidationReport.of(ValidationProblem.of("", FieldNumberReservedException.class, FieldNumberReservedException::new));
+        return ValidationReport.valid();
+    }
+
+    private static boolean isInRange(int number) {
+        return number >= 1 && number <= 536870911;
+    }
+
+    private static boolean isReserved(int number) {
+        return number >= 19000 && number <= 19999;
+    }
+
+    /**
+     * Returns a field number for the given integer. The numbers 1 to 2047 (the ones encoded with one or two bytes on
+     * the wire, and therefore the most common ones) are shared instances.
+     *
+     * @param number the field number as integer
+     * @return the field number
+     */
+    public static FieldNumber of(int number) {
+        if (number >= 1 && number <= CACHE_SIZE)
+            return CACHE[number - 1];
+        return new FieldNumber(number);
+    }
+
     /**
      * Returns the field number as integer.
      *
@@ -56,11 +110,11 @@ public class FieldNumber implements Comparable<FieldNumber> {
 
     @Override
     public int hashCode() {
-        return Objects.hash(number);
+        return number;
     }
 
     @Override
     public int compareTo(FieldNumber fieldNumber) {
-        return Integer.valueOf(number).compareTo(fieldNumber.number);
+        return Integer.compare(number, fieldNumber.number);
     }
 }
@@ -0,0 +1,323 @@
+/*
+ * Copyright 2020 Stefan Kapferer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.microserviceapipatterns.protobufgen.model;
+
+import io.github.microserviceapipatterns.protobufgen.exception.FieldNameReservedException;
+import io.github.microserviceapipatterns.protobufgen.exception.FieldNumberAlreadyExistsException;
+import io.github.microserviceapipatterns.protobufgen.exception.FieldNumberOutOfRangeException;
+import io.github.microserviceapipatterns.protobufgen.exception.FieldNumberReservedException;
+import io.github.microserviceapipatterns.protobufgen.exception.ValidationProblem;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Assigns stable field numbers to the fields of one message. A field keeps its number as long as it exists; new fields
+ * get the lowest free number, skipping numbers in use, reserved ranges, and the range 19000 to 19999 reserved for the
+ * protocol buffer implementation. Numbers in use are kept in a bitmap and reserved numbers as sorted intervals, so that
+ * the next free number is found without scanning the assigned fields.
+ * <p>
+ * Fields that no longer exist are retired (see {@link #retireFieldsExcept(Collection)}): their numbers and names
+ * become reserved, so that they are never assigned to another field. Pass the allocator to
+ * {@link Message.Builder#withFieldNumberAllocator(FieldNumberAllocator)}, and use a {@link FieldNumberLockFile} to keep
+ * the assignments between generator runs.
+ *
+ * @author Stefan Kapferer
+ */
+public class FieldNumberAllocator {
+
+    private static final int IMPLEMENTATION_RESERVED_FROM = 19000;
+    private static final int IMPLEMENTATION_RESERVED_TO = 19999;
+    private static final BitSet NO_NUMBERS = new BitSet();
+
+    private final String messageName;
+    private final Map<String, Integer> assignments;
+    private final BitSet usedNumbers;
+    private final TreeMap<Integer, Integer> reservedRanges;
+    private final Set<String> reservedNames;
+    private int lowestFree = 1;
+
+    public FieldNumberAllocator(String messageName) {
+        this.messageName = messageName;
+        this.assignments = new LinkedHashMap<>();
+        this.usedNumbers = new BitSet();
+        this.reservedRanges = new TreeMap<>();
+        this.reservedNames = new LinkedHashSet<>();
+    }
+
+    /**
+     * Returns the number of the given field: the number assigned before, or the lowest free number if the field has
+     * no number yet.
+     *
+     * @param fieldName the name of the field
+     * @return the number of the field
+     */
+    public int allocate(String fieldName) {
+        Integer number = assignments.get(fieldName);
+        if (number != null)
+            return number;
+        int free = nextNumber(fieldName, NO_NUMBERS);
+        assignments.put(fieldName, free);
+        usedNumbers.set(free);
+        lowestFree = free + 1;
+        return free;
+    }
+
+    /**
+     * Returns the number {@link #allocate(String)} would return for the given field, without assigning it. Numbers
+     * of the given set are skipped as well, so that the numbers of fields that have not been assigned yet are not
+     * handed out twice.
+     *
+     * @param fieldName       the name of the field
+     * @param excludedNumbers numbers that must not be returned for a field without number
+     * @return the number of the field
+     */
+    int nextNumber(String fieldName, BitSet excludedNumbers) {
+        Integer number = assignments.get(fieldName);
+        if (number != null)
+            return number;
+        if (reservedNames.contains(fieldName))
+            throw new FieldNameReservedException(messageName, fieldName);
+        return nextFree(excludedNumbers);
+    }
+
+    /**
+     * Assigns the given number to the given field (for fields numbered explicitly).
+     *
+     * @param fieldName the name of the field
+     * @param number    the number of the field
+     */
+    public void assign(String fieldName, int number) {
+        if (!check(fieldName, number))
+            return;
+        Integer assigned = assignments.get(fieldName);
+        if (assigned != null)
+            usedNumbers.clear(assigned);
+        assignments.put(fieldName, number);
+        usedNumbers.set(number);
+    }
+
+    /**
+     * Checks whether the given number can be assigned to the given field, without assigning it.
+     *
+     * @param fieldName the name of the field
+     * @param number    the number of the field
+     * @return false if the number is already assigned to the field, true if it can be assigned
+     */
+    boolean check(String fieldName, int number) {
+        FieldNumber.of(number); // validates the number
+        Integer assigned = assignments.get(fieldName);
+        if (assigned != null && assigned == number)
+            return false;
+        ValidationProblem conflict = findConflict(fieldName, fieldName, number);
+        if (conflict != null)
+            throw conflict.getException();
+        return true;
+    }
+
+    /**
+     * Returns the problem {@link #assign(String, int)} would report for the given field, without assigning it.
+     *
+     * @param path      the path of the field for the problem
+     * @param fieldName the name of the field
+     * @param number    the number of the field
+     * @return the problem, or null if the number can be assigned to the field
+     */
+    ValidationProblem findConflict(String path, String fieldName, int number) {
+        Integer assigned = assignments.get(fieldName);
+        if (assigned != null && assigned == number)
+            return null;
+        if (reservedNames.contains(fieldName))
+            return ValidationProblem.of(path, FieldNameReservedException.class, () -> new FieldNameReservedException(messageName, fieldName));
+        if (isReserved(number))
+            return ValidationProblem.of(path, FieldNumberReservedException.class, () -> new FieldNumberReservedException(messageName, number));
+        if (usedNumbers.get(number))
+            return ValidationProblem.of(path, FieldNumberAlreadyExistsException.class, () -> new FieldNumberAlreadyExistsException(messageName, number));
+        return null;
+    }
+
+    boolean isReservedName(String fieldName) {
+        return reservedNames.contains(fieldName);
+    }
+
+    public FieldNumberAllocator reserve(int number) {
+        return reserve(number, number);
+    }
+
+    /**
+     * Reserves the given range of numbers; they are never assigned to a field.
+     *
+     * @param from the first number to reserve (inclusive)
+     * @param to   the last number to reserve (inclusive)
+     * @return this allocator
+     */
+    public FieldNumberAllocator reserve(int from, int to) {
+        new ReservedRange(from, to); // validates the range
+        int used = usedNumbers.nextSetBit(from);
+        if (used >= 0 && used <= to)
+            throw new FieldNumberAlreadyExistsException(messageName, used);
+        Map.Entry<Integer, Integer> before = reservedRanges.floorEntry(from);
+        if (before != null && before.getValue() >= from - 1L) {
+            from = before.getKey();
+            to = Math.max(to, before.getValue());
+        }
+        Map.Entry<Integer, Integer> after = reservedRanges.higherEntry(from);
+        while (after != null && after.getKey() <= to + 1L) {
+            to = Math.max(to, after.getValue());
+            reservedRanges.remove(after.getKey());
+            after = reservedRanges.higherEntry(from);
+        }
+        reservedRanges.put(from, to);
+        return this;
+    }
+
+    /**
+     * Reserves the given name; it is never used for a field.
+     *
+     * @param fieldName the name to reserve
+     * @return this allocator
+     */
+    public FieldNumberAllocator reserveName(String fieldName) {
+        Identifier.of(fieldName); // validates the name
+        reservedNames.add(fieldName);
+        return this;
+    }
+
+    /**
+     * Retires all assigned fields except the given ones: their numbers and names become reserved.
+     *
+     * @param fieldNames the names of the fields that still exist
+     */
+    public void retireFieldsExcept(Collection<String> fieldNames) {
+        Set<String> existing = fieldNames instanceof Set ? (Set<String>) fieldNames : new HashSet<>(fieldNames);
+        Iterator<Map.Entry<String, Integer>> iterator = assignments.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<String, Integer> assignment = iterator.next();
+            if (existing.contains(assignment.getKey()))
+                continue;
+            iterator.remove();
+            usedNumbers.clear(assignment.getValue());
+            reserve(assignment.getValue());
+            reservedNames.add(assignment.getKey());
+        }
+    }
+
+    /**
+     * Returns the numbers and names this allocator would reserve after {@link #retireFieldsExcept(Collection)} with
+     * the given fields, without retiring any field.
+     *
+     * @param fieldNames the names of the fields that still exist
+     * @return the reservations of the allocator after retiring the other fields
+     */
+    Reservations previewReservations(Set<String> fieldNames) {
+        List<ReservedRange> ranges = getReservedRanges();
+        Set<String> names = new LinkedHashSet<>(reservedNames);
+        for (Map.Entry<String, Integer> assignment : assignments.entrySet()) {
+            if (fieldNames.contains(assignment.getKey()))
+                continue;
+            ranges.add(new ReservedRange(assignment.getValue(), assignment.getValue()));
+            names.add(assignment.getKey());
+        }
+        return Reservations.of(ranges, names);
+    }
+
+    /**
+     * Returns the message whose fields are numbered by this allocator.
+     *
+     * @return the name of the message
+     */
+    public String getMessageName() {
+        return messageName;
+    }
+
+    /**
+     * Returns an unmodifiable view on the assigned numbers by field name.
+     *
+     * @return the assigned numbers by field name
+     */
+    public Map<String, Integer> getAssignments() {
+        return Collections.unmodifiableMap(assignments);
+    }
+
+    /**
+     * Returns the reserved numbers as sorted, merged ranges.
+     *
+     * @return the reserved ranges
+     */
+    public List<ReservedRange> getReservedRanges() {
+        List<ReservedRange> ranges = new ArrayList<>(reservedRanges.size());
+        for (Map.Entry<Integer, Integer> range : reservedRanges.entrySet()) {
+            ranges.add(new ReservedRange(range.getKey(), range.getValue()));
+        }
+        return ranges;
+    }
+
+    /**
+     * Returns an unmodifiable view on the reserved names.
+     *
+     * @return the reserved names
+     */
+    public Set<String> getReservedNames() {
+        return Collections.unmodifiableSet(reservedNames);
+    }
+
+    private boolean isReserved(int number) {
+        if (number >= IMPLEMENTATION_RESERVED_FROM && number <= IMPLEMENTATION_RESERVED_TO)
+            return true;
+        Map.Entry<Integer, Integer> range = reservedRanges.floorEntry(number);
+        return range != null && range.getValue() >= number;
+    }
+
+    private int nextFree(BitSet excludedNumbers) {
+        int number = nextClear(lowestFree, excludedNumbers);
+        while (true) {
+            if (number >= IMPLEMENTATION_RESERVED_FROM && number <= IMPLEMENTATION_RESERVED_TO) {
+                number = nextClear(IMPLEMENTATION_RESERVED_TO + 1, excludedNumbers);
+                continue;
+            }
+            Map.Entry<Integer, Integer> range = reservedRanges.floorEntry(number);
+            if (range != null && range.getValue() >= number) {
+                if (range.getValue() == ReservedRange.MAX)
+                    throw new FieldNumberOutOfRangeException(ReservedRange.MAX + 1);
+                number = nextClear(range.getValue() + 1, excludedNumbers);
+                continue;
+            }
+            break;
+        }
+        if (number > ReservedRange.MAX)
+            throw new FieldNumberOutOfRangeException(number);
+        return number;
+    }
+
+    private int nextClear(int from, BitSet excludedNumbers) {
+        int number = usedNumbers.nextClearBit(from);
+        while (excludedNumbers.get(number)) {
+            number = usedNumbers.nextClearBit(excludedNumbers.nextClearBit(number));
+        }
+        return number;
+    }
+
+}
@@ -0,0 +1,200 @@
+/*
+ * Copyright 2020 Stefan Kapferer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.microserviceapipatterns.protobufgen.model;
+
+import io.github.microserviceapipatterns.protobufgen.exception.InvalidLockFileException;
+import io.github.microserviceapipatterns.protobufgen.exception.ProtocolBufferBuilderException;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Persists the field numbers assigned by {@link FieldNumberAllocator}s between generator runs, so that regenerating a
+ * spec after fields have been added or removed keeps the numbers of all other fields stable.
+ * <p>
+ * The file contains one line per message: the (full) message name, followed by the assigned fields as name=number,
+ * and the reserved numbers and names prefixed with an exclamation mark, for example
+ * {@code Customer name=1 email=2 !3 !5-9 !oldName}. Lines are sorted by message name and fields by number, so that the
+ * file can be kept under version control with readable diffs.
+ *
+ * @author Stefan Kapferer
+ */
+public class FieldNumberLockFile {
+
+    private static final String MAX = "max";
+
+    private final Map<String, FieldNumberAllocator> allocators;
+
+    public FieldNumberLockFile() {
+        this.allocators = new TreeMap<>();
+    }
+
+    /**
+     * Reads the given lock file. A file that does not exist yet is treated as an empty lock file.
+     *
+     * @param file the lock file
+     * @return the lock file with the allocators of all messages in the file
+     * @throws IOException if the file cannot be read
+     */
+    public static FieldNumberLockFile read(File file) throws IOException {
+        if (!file.exists())
+            return new FieldNumberLockFile();
+        try (Reader reader = new FileReader(file)) {
+            return read(reader);
+        }
+    }
+
+    /**
+     * Parses the given lock file content.
+     *
+     * @param content the content of a lock file
+     * @return the lock file with the allocators of all messages in the content
+     */
+    public static FieldNumberLockFile parse(String content) {
+        try {
+            return read(new StringReader(content));
+        } catch (IOException e) {
+            throw new IllegalStateException(e); // cannot happen with a string reader
+        }
+    }
+
+    private static FieldNumberLockFile read(Reader reader) throws IOException {
+        FieldNumberLockFile lockFile = new FieldNumberLockFile();
+        BufferedReader lines = new BufferedReader(reader);
+        int lineNumber = 0;
+        for (String line = lines.readLine(); line != null; line = lines.readLine()) {
+            lineNumber++;
+            String trimmed = line.trim();
+            if (trimmed.isEmpty() || trimmed.startsWith("#"))
+                continue;
+            try {
+                lockFile.parseLine(trimmed);
+            } catch (ProtocolBufferBuilderException | IllegalArgumentException e) {
+                throw new InvalidLockFileException(lineNumber, line);
+            }
+        }
+        return lockFile;
+    }
+
+    private void parseLine(String line) {
+        String[] tokens = line.split("\\s+");
+        if (allocators.containsKey(tokens[0]))
+            throw new IllegalArgumentException("duplicate message " + tokens[0]);
+        FieldNumberAllocator allocator = getAllocator(tokens[0]);
+        List<String> reservations = new ArrayList<>();
+        for (int i = 1; i < tokens.length; i++) {
+            String token = tokens[i];
+            if (token.startsWith("!")) {
+                reservations.add(token.substring(1));
+                continue;
+            }
+            int separator = token.indexOf('=');
+            if (separator <= 0)
+                throw new IllegalArgumentException(token);
+            allocator.assign(token.substring(0, separator), Integer.parseInt(token.substring(separator + 1)));
+        }
+        for (String reservation : reservations) {
+            if (reservation.isEmpty())
+                throw new IllegalArgumentException(line);
+            if (!Character.isDigit(reservation.charAt(0))) {
+                allocator.reserveName(reservation);
+                continue;
+            }
+            int separator = reservation.indexOf('-');
+            if (separator < 0) {
+                allocator.reserve(Integer.parseInt(reservation));
+            } else {
+                String to = reservation.substring(separator + 1);
+                allocator.reserve(Integer.parseInt(reservation.substring(0, separator)),
+                        MAX.equals(to) ? ReservedRange.MAX : Integer.parseInt(to));
+            }
+        }
+    }
+
+    /**
+     * Returns the allocator of the given message, creating an empty one if the lock file does not contain the message
+     * yet.
+     *
+     * @param messageName the (full) name of the message
+     * @return the allocator of the message
+     */
+    public FieldNumberAllocator getAllocator(String messageName) {
+        return allocators.computeIfAbsent(messageName, FieldNumberAllocator::new);
+    }
+
+    /**
+     * Writes the lock file.
+     *
+     * @param file the file to write to
+     * @throws IOException if the file cannot be written
+     */
+    public void write(File file) throws IOException {
+        try (Writer writer = new BufferedWriter(new FileWriter(file))) {
+            write(writer);
+        }
+    }
+
+    private void write(Writer writer) throws IOException {
+        for (FieldNumberAllocator allocator : allocators.values()) {
+            if (allocator.getAssignments().isEmpty() && allocator.getReservedRanges().isEmpty() && allocator.getReservedNames().isEmpty())
+                continue;
+            writer.write(allocator.getMessageName());
+            List<Map.Entry<String, Integer>> assignments = new ArrayList<>(allocator.getAssignments().entrySet());
+            assignments.sort(Map.Entry.comparingByValue());
+            for (Map.Entry<String, Integer> assignment : assignments) {
+                writer.write(" " + assignment.getKey() + "=" + assignment.getValue());
+            }
+            for (ReservedRange range : allocator.getReservedRanges()) {
+                writer.write(" !" + range.getFrom());
+                if (range.getTo() != range.getFrom())
+                    writer.write("-" + (range.getTo() == ReservedRange.MAX ? MAX : String.valueOf(range.getTo())));
+            }
+            for (String name : allocator.getReservedNames()) {
+                writer.write(" !" + name);
+            }
+            writer.write("\n");
+        }
+    }
+
+    /**
+     * Returns the content of the lock file as it is written by {@link #write(File)}.
+     *
+     * @return the content of the lock file
+     */
+    @Override
+    public String toString() {
+        StringWriter writer = new StringWriter();
+        try {
+            write(writer);
+        } catch (IOException e) {
+            throw new IllegalStateException(e); // cannot happen with a string writer
+        }
+        return writer.toString();
+    }
+
+}
@@ -15,10 +15,10 @@
  */
 package io.github.microserviceapipatterns.protobufgen.model;
 
+import io.github.microserviceapipatterns.protobufgen.exception.ValidationProblem;
+import io.github.microserviceapipatterns.protobufgen.exception.ValidationReport;
 import io.github.microserviceapipatterns.protobufgen.exception.WrongIdentifierException;
 
-import java.util.Objects;
-
 /**
  * Represents a full identifier (fullIdent) according to the .proto lang spec:
  * <p>
@@ -31,14 +31,63 @@ import java.util.Objects;
  */
 public class FullIdentifier {
 
-    private static final String FULL_IDENT_REGEX = "^[a-zA-Z][a-zA-Z0-9_]*([\\.][a-zA-Z][a-zA-Z0-9_]*)*";
-
     private final String name;
+    private final int hash;
 
     public FullIdentifier(String name) {
-        if (name == null || !name.matches(FULL_IDENT_REGEX))
+        if (name == null || !isFullIdent(name))
             throw new WrongIdentifierException(name);
         this.name = name;
+        this.hash = name.hashCode();
+    }
+
+    FullIdentifier(Identifier identifier) {
+        // an ident is always a correct fullIdent; no need to validate it again
+        this.name = identifier.getName();
+        this.hash = name.hashCode();
+    }
+
+    FullIdentifier(FullIdentifier parent, Identifier identifier) {
+        // two correct parts separated by a dot form a correct fullIdent; no need to validate it again
+        this.name = parent.name + "." + identifier.getName();
+        this.hash = name.hashCode();
+    }
+
+    /**
+     * Checks whether the given string is a correct full identifier, without throwing an exception.
+     *
+     * @param name the string to check
+     * @return true if the given string is a correct full identifier, false otherwise
+     */
+    public static boolean isValid(String name) {
+        return name != null && isFullIdent(name);
+    }
+
+    /**
+     * Validates the given string without throwing an exception.
+     *
+     * @param name the string to validate
+     * @return a report that is valid if the given string is a correct full identifier, or contains the problem otherwise
+     */
+    public static ValidationReport validate(String name) {
+        return isValid(name) ? ValidationReport.valid() : ValidationReport.of(ValidationProblem.of("", WrongIdentifierException.class, () -> new WrongIdentifierException(name)));
+    }
+
+    /**
+     * Checks whether the given string is a fullIdent by validating the dot-separated segments in place.
+     *
+     * @param name the string to check
+     * @return true if the given string is a correct fullIdent, false otherwise
+     */
+    static boolean isFullIdent(String name) {
+        int begin = 0;
+        int dot;
+        while ((dot = name.indexOf('.', begin)) >= 0) {
+            if (!Identifier.isIdent(name, begin, dot))
+                return false;
+            begin = dot + 1;
+        }
+        return Identifier.isIdent(name, begin, name.length());
     }
 
     /**
@@ -65,7 +114,7 @@ public class FullIdentifier {
 
     @Override
     public int hashCode() {
-        return Objects.hash(name);
+        return hash;
     }
 
 }
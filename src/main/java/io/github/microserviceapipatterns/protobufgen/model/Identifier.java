@@ -15,10 +15,10 @@
  */
 package io.github.microserviceapipatterns.protobufgen.model;
 
+import io.github.microserviceapipatterns.protobufgen.exception.ValidationProblem;
+import io.github.microserviceapipatterns.protobufgen.exception.ValidationReport;
 import io.github.microserviceapipatterns.protobufgen.exception.WrongIdentifierException;
 
-import java.util.Objects;
-
 /**
  * Represents an identifier (ident) according to the .proto lang spec:
  * <p>
@@ -30,14 +30,115 @@ import java.util.Objects;
  */
 public class Identifier {
 
-    private static final String IDENT_REGEX = "^[a-zA-Z][a-zA-Z0-9_]*";
+    private static final int POOL_SIZE = 4096;
+    private static final Identifier[] POOL = new Identifier[POOL_SIZE];
+
+    private static final boolean[] LETTER = new boolean[128];
+    private static final boolean[] LETTER_DIGIT_OR_UNDERSCORE = new boolean[128];
+
+    static {
+        for (char c = 'a'; c <= 'z'; c++) {
+            LETTER[c] = true;
+            LETTER[Character.toUpperCase(c)] = true;
+        }
+        for (char c = 0; c < 128; c++) {
+            LETTER_DIGIT_OR_UNDERSCORE[c] = LETTER[c] || (c >= '0' && c <= '9') || c == '_';
+        }
+    }
 
     private final String name;
+    private final int hash;
 
     public Identifier(String name) {
-        if (name == null || !name.matches(IDENT_REGEX))
+        if (name == null || !isIdent(name, 0, name.length()))
             throw new WrongIdentifierException(name);
         this.name = name;
+        this.hash = name.hashCode();
+    }
+
+    private Identifier(String name, int hash) {
+        // name has been validated already
+        this.name = name;
+        this.hash = hash;
+    }
+
+    /**
+     * Returns an identifier for the given name. Identifiers are interned in a bounded pool, so that frequently used
+     * names (such as "id" or "created_at") are validated and allocated only once.
+     * <p>
+     * The pool is direct-mapped: every name hashes to one slot, and a new name replaces the identifier that occupied
+     * its slot before. Since identifiers are immutable (final fields only), the pool can be read and written by many
+     * threads without locking; a lost update only costs an additional allocation.
+     *
+     * @param name the identifier name/string
+     * @return an identifier with the given name
+     */
+    public static Identifier of(String name) {
+        if (name == null)
+            throw new WrongIdentifierException(null);
+        int hash = name.hashCode();
+        int slot = (hash ^ (hash >>> 16)) & (POOL_SIZE - 1);
+        Identifier pooled = POOL[slot];
+        if (pooled != null && pooled.hash == hash && pooled.name.equals(name))
+            return pooled;
+        Identifier identifier = new Identifier(name);
+        POOL[slot] = identifier;
+        return identifier;
+    }
+
+    /**
+     * Returns an identifier to look up elements by the given name, or null if the name is not a correct identifier
+     * (an element with such a name cannot exist). Unlike {@link #of(String)}, the identifier is not interned, so that
+     * lookups with arbitrary names do not displace pooled identifiers.
+     *
+     * @param name the name to look up
+     * @return an identifier with the given name, or null if the name is not a correct identifier
+     */
+    static Identifier lookupKey(String name) {
+        return isValid(name) ? new Identifier(name, name.hashCode()) : null;
+    }
+
+    /**
+     * Checks whether the given string is a correct identifier, without throwing an exception.
+     *
+     * @param name the string to check
+     * @return true if the given string is a correct identifier, false otherwise
+     */
+    public static boolean isValid(String name) {
+        return name != null && isIdent(name, 0, name.length());
+    }
+
+    /**
+     * Validates the given string without throwing an exception.
+     *
+     * @param name the string to validate
+     * @return a report that is valid if the given string is a correct identifier, or contains the problem otherwise
+     */
+    public static ValidationReport validate(String name) {
+        return isValid(name) ? ValidationReport.valid() : ValidationReport.of(ValidationProblem.of("", WrongIdentifierException.class, () -> new WrongIdentifierException(name)));
+    }
+
+    /**
+     * Checks whether the characters between begin (inclusive) and end (exclusive) form an ident. Works in a single pass
+     * over the characters and does not allocate any objects.
+     *
+     * @param name  the string containing the characters to check
+     * @param begin the index of the first character (inclusive)
+     * @param end   the index of the last character (exclusive)
+     * @return true if the given range is a correct ident, false otherwise
+     */
+    static boolean isIdent(String name, int begin, int end) {
+        if (begin >= end)
+            return false;
+        char c = name.charAt(begin);
+        if (c >= 128 || !LETTER[c])
+            return false;
+        for (int i = begin + 1; i < end; i++) {
+            c = name.charAt(i);
+            if (c >= 128 || !LETTER_DIGIT_OR_UNDERSCORE[c])
+                return false;
+        }
+        return true;
     }
 
     /**
@@ -64,6 +165,6 @@ public class Identifier {
 
     @Override
     public int hashCode() {
-        return Objects.hash(name);
+        return hash;
     }
 }
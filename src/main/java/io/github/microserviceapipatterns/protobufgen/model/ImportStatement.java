@@ -15,8 +15,6 @@
  */
 package io.github.microserviceapipatterns.protobufgen.model;
 
-import java.util.Objects;
-
 /**
  * Represents an import statement to import other proto files.
  *
@@ -24,8 +22,8 @@ import java.util.Objects;
  */
 public class ImportStatement {
 
-    private String fileName;
-    private boolean publicImport;
+    private final String fileName;
+    private final boolean publicImport;
 
     public ImportStatement(String fileName) {
         this.fileName = fileName;
@@ -65,6 +63,6 @@ public class ImportStatement {
 
     @Override
     public int hashCode() {
-        return Objects.hash(fileName);
+        return fileName.hashCode();
     }
 }
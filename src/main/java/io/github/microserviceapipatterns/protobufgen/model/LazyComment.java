@@ -0,0 +1,74 @@
+/*
+ * Copyright 2020 Stefan Kapferer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.microserviceapipatterns.protobufgen.model;
+
+import java.util.function.Supplier;
+
+/**
+ * Comment that is supplied on demand (for example from an external documentation store) instead of being passed to the
+ * model. The supplier is called once, when the comment is read first (typically when the spec is rendered); all methods
+ * of the character sequence are backed by the resolved comment. Two lazy comments are equal if they use the same
+ * supplier.
+ *
+ * @author Stefan Kapferer
+ */
+final class LazyComment implements CharSequence {
+
+    private final Supplier<? extends CharSequence> supplier;
+    private volatile String comment;
+
+    LazyComment(Supplier<? extends CharSequence> supplier) {
+        this.supplier = supplier;
+    }
+
+    @Override
+    public int length() {
+        return toString().length();
+    }
+
+    @Override
+    public char charAt(int index) {
+        return toString().charAt(index);
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        return toString().subSequence(start, end);
+    }
+
+    @Override
+    public String toString() {
+        String resolved = comment;
+        if (resolved == null) {
+            CharSequence supplied = supplier.get();
+            resolved = supplied != null ? supplied.toString() : "";
+            comment = resolved; // racing threads resolve equal comments, so either one can be kept
+        }
+        return resolved;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        return supplier == ((LazyComment) o).supplier;
+    }
+
+    @Override
+    public int hashCode() {
+        return System.identityHashCode(supplier);
+    }
+}
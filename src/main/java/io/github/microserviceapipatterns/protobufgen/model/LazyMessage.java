@@ -0,0 +1,78 @@
+/*
+ * Copyright 2020 Stefan Kapferer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.microserviceapipatterns.protobufgen.model;
+
+import io.github.microserviceapipatterns.protobufgen.exception.LazyMessageMismatchException;
+
+import java.util.function.Supplier;
+
+/**
+ * Holder of a nested message that is materialized on first access. The supplier is called at most once, even if
+ * several threads access the message concurrently, and released afterwards.
+ *
+ * @author Stefan Kapferer
+ */
+final class LazyMessage {
+
+    private final Identifier name;
+    private Supplier<Message> supplier;
+    private volatile Message message;
+
+    LazyMessage(Identifier name, Supplier<Message> supplier) {
+        this.name = name;
+        this.supplier = supplier;
+    }
+
+    Identifier getIdentifier() {
+        return name;
+    }
+
+    /**
+     * Returns the message, calling the supplier if the message has not been materialized yet. If the supplier returns
+     * null or a message with another name, the message remains unmaterialized and the supplier is called again on
+     * the next access.
+     *
+     * @return the materialized message
+     * @throws LazyMessageMismatchException if the supplier returns null or a message with another name
+     */
+    Message get() {
+        Message result = message;
+        if (result == null) {
+            synchronized (this) {
+                result = message;
+                if (result == null) {
+                    result = supplier.get();
+                    if (result == null)
+                        throw new LazyMessageMismatchException(name.toString());
+                    if (!name.equals(result.getIdentifier()))
+                        throw new LazyMessageMismatchException(name.toString(), result.getSimpleName());
+                    message = result;
+                    supplier = null;
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the message if it has already been materialized, without calling the supplier.
+     *
+     * @return the message, or null if it has not been materialized yet
+     */
+    Message getIfMaterialized() {
+        return message;
+    }
+}
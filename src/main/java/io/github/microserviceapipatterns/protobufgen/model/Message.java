@@ -15,36 +15,169 @@
  */
 package io.github.microserviceapipatterns.protobufgen.model;
 
+import io.github.microserviceapipatterns.protobufgen.exception.ElementNotFoundException;
 import io.github.microserviceapipatterns.protobufgen.exception.FieldAlreadyExistsException;
+import io.github.microserviceapipatterns.protobufgen.exception.FieldNameReservedException;
 import io.github.microserviceapipatterns.protobufgen.exception.FieldNumberAlreadyExistsException;
+import io.github.microserviceapipatterns.protobufgen.exception.FieldNumberReservedException;
+import io.github.microserviceapipatterns.protobufgen.exception.ModelValidationException;
 import io.github.microserviceapipatterns.protobufgen.exception.NestedMessageAlreadyExistsException;
+import io.github.microserviceapipatterns.protobufgen.exception.ValidationProblem;
+import io.github.microserviceapipatterns.protobufgen.exception.ValidationReport;
 
 import java.util.*;
+import java.util.function.Supplier;
 
 /**
  * Represents a protocol buffer message.
  *
  * @author Stefan Kapferer
  */
-public class Message implements FieldType, Identifiable {
+public class Message implements FieldType, Identifiable, StructuralElement<Message> {
 
-    private Identifier name;
-    private String comment;
-    private Set<MessageField> fields;
-    private List<Message> nestedMessages;
-    private Message parent;
+    private final Identifier name;
+    private final FullIdentifier fullName;
+    private final Message parent;
+    private final Message definition;
+    private final CharSequence comment;
+    private final MessageField[] fields;
+    private final Map<String, MessageField> fieldsByName;
+    private final Set<MessageField> fieldSet;
+    private final List<MessageField> fieldList;
+    private final NestedMessages nestedMessages;
+    private final Reservations reservations;
+    private volatile long usedWellKnownTypes;
+    private final int structuralHash;
 
-    private Message() {
+    private static final long UNKNOWN_WELL_KNOWN_TYPES = -1L;
+
+    private Message(Identifier name, CharSequence comment, MessageField[] fields, Map<String, MessageField> fieldsByName, NestedMessages nestedMessages,
+                    Reservations reservations) {
         // use builder to create message
+        this.name = name;
+        this.fullName = new FullIdentifier(name);
+        this.parent = null;
+        this.definition = this;
+        this.comment = comment;
+        this.fields = fields;
+        this.fieldsByName = fieldsByName;
+        this.fieldList = Collections.unmodifiableList(Arrays.asList(fields));
+        this.fieldSet = new FieldSet();
+        this.nestedMessages = nestedMessages.ownedBy(this);
+        this.reservations = reservations;
+        long wellKnownTypes = 0L;
+        int hash = 31 * (31 * name.hashCode() + Objects.hashCode(comment)) + reservations.hashCode();
+        for (MessageField field : fields) {
+            wellKnownTypes |= WellKnownType.maskOf(field.getFieldType());
+            hash = 31 * hash + field.structuralHash();
+        }
+        for (int i = 0; i < nestedMessages.size(); i++) {
+            hash = 31 * hash + nestedMessages.getIdentifier(i).hashCode(); // does not materialize lazy messages
+        }
+        if (nestedMessages.isLazy()) {
+            wellKnownTypes = UNKNOWN_WELL_KNOWN_TYPES;
+        } else {
+            for (int i = 0; i < nestedMessages.size(); i++) {
+                wellKnownTypes |= nestedMessages.getDefinition(i).usedWellKnownTypes;
+            }
+        }
+        this.usedWellKnownTypes = wellKnownTypes;
+        this.structuralHash = hash;
+    }
+
+    /**
+     * Creates the view of the given message as nested message of the given parent. The view shares all content with
+     * the message; only its parent (and therefore its full name) differs.
+     */
+    private Message(Message definition, Message parent) {
+        this.name = definition.name;
+        this.fullName = new FullIdentifier(parent.fullName, definition.name);
+        this.parent = parent;
+        this.definition = definition;
+        this.comment = definition.comment;
+        this.fields = definition.fields;
+        this.fieldsByName = definition.fieldsByName;
+        this.fieldList = definition.fieldList;
+        this.fieldSet = definition.fieldSet;
+        this.nestedMessages = definition.nestedMessages.ownedBy(this);
+        this.reservations = definition.reservations;
+        this.usedWellKnownTypes = UNKNOWN_WELL_KNOWN_TYPES; // see getUsedWellKnownTypes()
+        this.structuralHash = definition.structuralHash;
+    }
+
+    /**
+     * Returns this message as nested message of the given parent (see {@link #getParent()}).
+     *
+     * @param parent the parent message
+     * @return a view of this message with the given parent
+     */
+    Message nestedIn(Message parent) {
+        return new Message(definition, parent);
     }
 
     /**
      * Returns the full name of the message (including parents, if it is a nested message) as string.
+     * <p>
+     * Messages are immutable and can be nested into any number of parents. A message knows its parents only if it
+     * has been accessed through them (see {@link #getNestedMessages()}); the message instance passed to
+     * {@link Builder#withNestedMessage(Message)} remains unchanged and keeps its simple name. To get the qualified
+     * name of such an instance within a spec, use {@link ProtoSpec#getFullIdentifier(Message)}.
      *
      * @return the full name of the represented message
      */
     public String getName() {
-        return isNestedMessage() ? parent.getName() + "." + name.toString() : name.toString();
+        return fullName.toString();
+    }
+
+    /**
+     * Returns the full name of the message (including parents, if it is a nested message) as full identifier. The
+     * full name is computed once, when the message is accessed through its parent (see {@link #getName()}).
+     *
+     * @return the full identifier of the represented message
+     */
+    public FullIdentifier getFullIdentifier() {
+        return fullName;
+    }
+
+    /**
+     * Returns the parent of this message, if it has been accessed as nested message of the parent (see
+     * {@link #getNestedMessages()}).
+     *
+     * @return the parent message, or null if this message has not been accessed through a parent
+     */
+    public Message getParent() {
+        return parent;
+    }
+
+    /**
+     * Indicates whether this message has been accessed as nested message of another message (see
+     * {@link #getParent()}).
+     *
+     * @return true if the message is nested in a parent, false otherwise
+     */
+    public boolean isNestedMessage() {
+        return parent != null;
+    }
+
+    /**
+     * Returns the outermost parent of this message, or this message if it has no parent.
+     */
+    Message getRoot() {
+        Message root = this;
+        while (root.parent != null) {
+            root = root.parent;
+        }
+        return root;
+    }
+
+    /**
+     * Returns the message as it has been built, independent of the parent it has been accessed through. Nested
+     * messages returned by {@link #getNestedMessages()} are views of their definition that know their parent.
+     *
+     * @return the definition of this message
+     */
+    Message getDefinition() {
+        return definition;
     }
 
     /**
@@ -72,67 +205,330 @@ public class Message implements FieldType, Identifiable {
      * @return the comment for the represented message
      */
     public String getComment() {
-        return comment;
+        return comment != null ? comment.toString() : null;
     }
 
     /**
-     * Returns a set with the fields of the represented message.
+     * Returns an unmodifiable set with the fields of the represented message (ordered by field number).
      *
      * @return a set containing the fields of the represented message
      */
     public Set<MessageField> getFields() {
-        return new TreeSet<>(fields);
+        return fieldSet;
     }
 
     /**
-     * Returns the nested messages inside the represented message.
+     * Returns an unmodifiable list with the fields of the represented message (ordered by field number).
+     *
+     * @return a list containing the fields of the represented message
+     */
+    public List<MessageField> getFieldList() {
+        return fieldList;
+    }
+
+    /**
+     * Returns the field with the given name.
+     *
+     * @param name the name of the field
+     * @return the field with the given name, or null if the message does not contain such a field
+     */
+    public MessageField getField(String name) {
+        return fieldsByName.get(name);
+    }
+
+    /**
+     * Returns the field with the given field number.
+     *
+     * @param number the field number
+     * @return the field with the given number, or null if the message does not contain such a field
+     */
+    public MessageField getFieldByNumber(int number) {
+        int low = 0;
+        int high = fields.length - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int midNumber = fields[mid].getNumber();
+            if (midNumber < number)
+                low = mid + 1;
+            else if (midNumber > number)
+                high = mid - 1;
+            else
+                return fields[mid];
+        }
+        return null;
+    }
+
+    /**
+     * Returns an unmodifiable list with the nested messages inside the represented message. The returned messages
+     * know this message as their parent (see {@link #getParent()}); every call returns the same instances. Lazy nested
+     * messages (see {@link Builder#withLazyNestedMessage(String, Supplier)}) are materialized when they are accessed
+     * in this list.
      *
      * @return a list with the nested messages inside the represented message
      */
     public List<Message> getNestedMessages() {
-        return new LinkedList<>(nestedMessages);
+        return nestedMessages;
     }
 
     /**
-     * Indicates whether the represented message is a nested message or not.
+     * Returns the reserved field numbers of the represented message as sorted ranges (see
+     * {@link FieldNumberAllocator}).
      *
-     * @return true if the message is a nested message, false otherwise
+     * @return an unmodifiable list with the reserved ranges
      */
-    public boolean isNestedMessage() {
-        return parent != null;
+    public List<ReservedRange> getReservedRanges() {
+        return reservations.getRanges();
     }
 
     /**
-     * Gives the parent message, in case the represented message is a nested message, null otherwise.
+     * Returns the reserved field names of the represented message.
      *
-     * @return the parent message of the nested message, or null if it is not a nested message
+     * @return an unmodifiable set with the reserved names
      */
-    public Message getParent() {
-        return parent;
+    public Set<String> getReservedNames() {
+        return reservations.getNames();
     }
 
     /**
-     * Changes the parent message of the represented message.
+     * Indicates whether the subtree of this message contains lazy nested messages (materialized or not).
      *
-     * @param parent the new parent message
+     * @return true if the subtree contains lazy nested messages, false otherwise
      */
-    protected void setParent(Message parent) {
-        this.parent = parent;
+    boolean hasLazyNestedMessages() {
+        return nestedMessages.isLazy();
+    }
+
+    /**
+     * Returns the well-known types (see {@link WellKnownType}) used by the fields of this message and its nested
+     * messages, one bit per type. Computed once when the message is built or, if the subtree contains lazy nested
+     * messages, on first call (which materializes them).
+     *
+     * @return the bits of the well-known types used in the subtree of the represented message
+     */
+    long getUsedWellKnownTypes() {
+        if (definition != this)
+            return definition.getUsedWellKnownTypes();
+        long wellKnownTypes = usedWellKnownTypes;
+        if (wellKnownTypes == UNKNOWN_WELL_KNOWN_TYPES) {
+            wellKnownTypes = 0L;
+            for (MessageField field : fields) {
+                wellKnownTypes |= WellKnownType.maskOf(field.getFieldType());
+            }
+            for (int i = 0; i < nestedMessages.size(); i++) {
+                wellKnownTypes |= nestedMessages.getDefinition(i).getUsedWellKnownTypes();
+            }
+            usedWellKnownTypes = wellKnownTypes;
+        }
+        return wellKnownTypes;
+    }
+
+    /**
+     * Returns a builder initialized with the comment, fields, and nested messages of this message. Fields and nested
+     * messages are not copied but shared with this message.
+     *
+     * @return a new builder to create a modified copy of this message
+     */
+    public Builder toBuilder() {
+        Builder builder = new Builder(name.toString()).withFields(fieldList);
+        builder.comment = comment;
+        builder.reservedRanges.addAll(reservations.getRanges());
+        builder.reservedNames.addAll(reservations.getNames());
+        for (Object nested : nestedMessages.elements()) {
+            builder.addNestedMessage(NestedMessages.identifierOf(nested), nested);
+        }
+        return builder;
+    }
+
+    /**
+     * Returns a copy of this message with the given field added. This message remains unchanged; all other fields and
+     * the nested messages are shared with the copy.
+     *
+     * @param messageField the field to add
+     * @return a new message containing the fields of this message plus the given field
+     */
+    public Message withFieldAdded(MessageField messageField) {
+        if (fieldsByName.containsKey(messageField.getName()))
+            throw new FieldAlreadyExistsException(messageField.getName());
+        if (reservations.containsName(messageField.getName()))
+            throw new FieldNameReservedException(name.toString(), messageField.getName());
+        if (reservations.containsNumber(messageField.getNumber()))
+            throw new FieldNumberReservedException(name.toString(), messageField.getNumber());
+        int index = Arrays.binarySearch(fields, messageField); // fields are ordered (and therefore compared) by number
+        if (index >= 0)
+            throw new FieldNumberAlreadyExistsException(name.toString(), messageField.getNumber());
+        int insertionPoint = -index - 1;
+        MessageField[] newFields = new MessageField[fields.length + 1];
+        System.arraycopy(fields, 0, newFields, 0, insertionPoint);
+        newFields[insertionPoint] = messageField;
+        System.arraycopy(fields, insertionPoint, newFields, insertionPoint + 1, fields.length - insertionPoint);
+        Map<String, MessageField> newFieldsByName = new HashMap<>(fieldsByName);
+        newFieldsByName.put(messageField.getName(), messageField);
+
+        return new Message(name, comment, newFields, newFieldsByName, nestedMessages, reservations);
+    }
+
+    /**
+     * Returns a copy of this message in which the nested message with the given (simple) name is replaced. This
+     * message remains unchanged; the fields and all other nested messages are shared with the copy.
+     *
+     * @param name    the simple name of the nested message to replace
+     * @param message the new nested message
+     * @return a new message containing the given nested message instead of the replaced one
+     */
+    public Message withNestedMessageReplaced(String name, Message message) {
+        int index = -1;
+        for (int i = 0; i < nestedMessages.size(); i++) {
+            Identifier nestedName = nestedMessages.getIdentifier(i);
+            if (nestedName.toString().equals(name))
+                index = i;
+            else if (nestedName.equals(message.getIdentifier()))
+                throw new NestedMessageAlreadyExistsException(message.getSimpleName());
+        }
+        if (index < 0)
+            throw new ElementNotFoundException(this.name + "." + name);
+
+        return new Message(this.name, comment, fields, fieldsByName, nestedMessages.with(index, message.getDefinition()), reservations);
+    }
+
+    /**
+     * Returns a copy of this message with the given fields and nested messages, which must have the same names (and
+     * numbers) as the fields and nested messages of this message (used to replace them with structurally equal,
+     * shared instances).
+     *
+     * @param fields         the new fields, ordered by number
+     * @param nestedMessages the new nested messages
+     * @return a new message with the given fields and nested messages
+     */
+    Message withEquivalentContent(MessageField[] fields, NestedMessages nestedMessages) {
+        Map<String, MessageField> newFieldsByName = new HashMap<>((int) (fields.length / 0.75f) + 1);
+        for (MessageField field : fields) {
+            newFieldsByName.put(field.getName(), field);
+        }
+        return new Message(name, comment, fields, newFieldsByName, nestedMessages, reservations);
+    }
+
+    MessageField[] getFieldArray() {
+        return fields;
+    }
+
+    @Override
+    public int structuralHash() {
+        return structuralHash;
+    }
+
+    @Override
+    public boolean structurallyEquals(Message other) {
+        if (this == other || definition == other.definition)
+            return true;
+        if (structuralHash != other.structuralHash || !name.equals(other.name) || fields.length != other.fields.length
+                || nestedMessages.size() != other.nestedMessages.size() || !Objects.equals(comment, other.comment)
+                || !reservations.equals(other.reservations))
+            return false;
+        for (int i = 0; i < fields.length; i++) {
+            if (!fields[i].structurallyEquals(other.fields[i]))
+                return false;
+        }
+        for (int i = 0; i < nestedMessages.size(); i++) {
+            if (!nestedMessages.getIdentifier(i).equals(other.nestedMessages.getIdentifier(i)))
+                return false;
+        }
+        for (int i = 0; i < nestedMessages.size(); i++) {
+            if (!nestedMessages.getDefinition(i).structurallyEquals(other.nestedMessages.getDefinition(i)))
+                return false;
+        }
+        return true;
     }
 
     public static class Builder {
-        private final Identifier name;
+        private static final ThreadLocal<Builder> THREAD_LOCAL_BUILDER = new ThreadLocal<>();
+
+        private Identifier name;
         private final Set<MessageField> messageFields;
-        private final List<Message> nestedMessages;
-        private String comment;
+        private final Map<String, MessageField> messageFieldsByName;
+        private final List<Object> nestedMessages;
+        private final Set<Identifier> nestedMessageNames;
+        private final List<MessageField> deferredFields;
+        private final BitSet deferredNumbers;
+        private final List<Object> deferredNestedMessages;
+        private final ValidationReport deferredReport;
+        private final List<ReservedRange> reservedRanges;
+        private final Set<String> reservedNames;
+        private FieldNumberAllocator fieldNumberAllocator;
+        private CharSequence comment;
         private int fieldCounter = 1;
-        private Message parent;
+        private boolean deferValidation = false;
 
         public Builder(String messageName) {
-            this.name = new Identifier(messageName);
+            this.name = Identifier.of(messageName);
             this.comment = "";
             this.messageFields = new TreeSet<>();
-            this.nestedMessages = new LinkedList<>();
+            this.messageFieldsByName = new HashMap<>();
+            this.nestedMessages = new ArrayList<>();
+            this.nestedMessageNames = new HashSet<>();
+            this.deferredFields = new ArrayList<>();
+            this.deferredNumbers = new BitSet();
+            this.deferredNestedMessages = new ArrayList<>();
+            this.deferredReport = new ValidationReport();
+            this.reservedRanges = new ArrayList<>();
+            this.reservedNames = new LinkedHashSet<>();
+        }
+
+        /**
+         * Returns the message builder of the calling thread, reset to the given name (see {@link #reset(String)}).
+         * The returned builder must not be used anymore once this method is called again in the same thread; do not
+         * use it to build nested messages while building their parent with it.
+         *
+         * @param messageName the name of the message to build
+         * @return the reset builder of the calling thread
+         */
+        public static Builder threadLocal(String messageName) {
+            Builder builder = THREAD_LOCAL_BUILDER.get();
+            if (builder == null) {
+                builder = new Builder(messageName);
+                THREAD_LOCAL_BUILDER.set(builder);
+                return builder;
+            }
+            return builder.reset(messageName);
+        }
+
+        /**
+         * Resets this builder to build another message with the given name, as if it was newly created. The internal
+         * collections are cleared but kept, so that builders can be reused without allocating them again.
+         *
+         * @param messageName the name of the message to build
+         * @return this builder
+         */
+        public Builder reset(String messageName) {
+            this.name = Identifier.of(messageName);
+            this.comment = "";
+            this.messageFields.clear();
+            this.messageFieldsByName.clear();
+            this.nestedMessages.clear();
+            this.nestedMessageNames.clear();
+            this.deferredFields.clear();
+            this.deferredNumbers.clear();
+            this.deferredNestedMessages.clear();
+            this.deferredReport.clear();
+            this.reservedRanges.clear();
+            this.reservedNames.clear();
+            this.fieldNumberAllocator = null;
+            this.fieldCounter = 1;
+            this.deferValidation = false;
+            return this;
+        }
+
+        /**
+         * Defers the validation of fields and nested messages to {@link #build()}: elements are recorded without any
+         * checks and validated in one pass when the message is built. Instead of failing at the first problem,
+         * build() reports all problems at once (see {@link ModelValidationException}). Nested messages passed as
+         * builders are built right away; their problems are reported by build() as well, with paths starting at this
+         * message.
+         *
+         * @return this builder
+         */
+        public Builder withDeferredValidation() {
+            this.deferValidation = true;
+            return this;
         }
 
         public Builder withComment(String comment) {
@@ -140,43 +536,353 @@ public class Message implements FieldType, Identifiable {
             return this;
         }
 
+        /**
+         * Sets a comment that is supplied on demand, when it is read first, instead of when the message is built.
+         *
+         * @param comment the supplier of the comment
+         * @return this builder
+         */
+        public Builder withComment(Supplier<? extends CharSequence> comment) {
+            this.comment = new LazyComment(comment);
+            return this;
+        }
+
+        /**
+         * Numbers the fields added without an explicit number with the given allocator instead of continuing after
+         * the last added field, and registers the explicitly numbered fields with it. Fields are registered with the
+         * allocator only once they have been accepted by the builder; with deferred validation, this happens when the
+         * message is built successfully. When the message is built, the fields of the allocator that have not been
+         * added are retired, and all numbers and names reserved by the allocator are reserved in the message. If the
+         * build fails, the allocator remains unchanged. Conflicts with the allocator are reported immediately, or when
+         * the message is built if the validation is deferred.
+         *
+         * @param allocator the allocator of the message
+         * @return this builder
+         */
+        public Builder withFieldNumberAllocator(FieldNumberAllocator allocator) {
+            this.fieldNumberAllocator = allocator;
+            return this;
+        }
+
+        public Builder withReservedNumber(int number) {
+            return this.withReservedNumbers(number, number);
+        }
+
+        /**
+         * Reserves the given range of field numbers (rendered as reserved statement). Adding a field with a reserved
+         * number fails when the message is built.
+         *
+         * @param from the first number to reserve (inclusive)
+         * @param to   the last number to reserve (inclusive)
+         * @return this builder
+         */
+        public Builder withReservedNumbers(int from, int to) {
+            this.reservedRanges.add(new ReservedRange(from, to));
+            return this;
+        }
+
+        /**
+         * Reserves the given field name (rendered as reserved statement). Adding a field with a reserved name fails
+         * when the message is built.
+         *
+         * @param name the name to reserve
+         * @return this builder
+         */
+        public Builder withReservedName(String name) {
+            Identifier.of(name); // validates the name
+            this.reservedNames.add(name);
+            return this;
+        }
+
         public Builder withField(MessageField messageField) {
-            if (this.messageFields.stream().anyMatch(f -> f.getName().equals(messageField.getName())))
+            if (this.deferValidation) {
+                if (this.fieldNumberAllocator != null)
+                    this.deferredNumbers.set(messageField.getNumber()); // checked and registered in build()
+                this.deferredFields.add(messageField);
+                this.fieldCounter = messageField.getNumber() + 1;
+                return this;
+            }
+            if (this.messageFieldsByName.containsKey(messageField.getName()))
                 throw new FieldAlreadyExistsException(messageField.getName());
-            if (this.messageFields.stream().anyMatch(f -> f.getNumber() == messageField.getNumber()))
+            if (this.messageFields.contains(messageField)) // fields are ordered (and therefore compared) by number
                 throw new FieldNumberAlreadyExistsException(this.name.toString(), messageField.getNumber());
+            if (this.fieldNumberAllocator != null)
+                this.fieldNumberAllocator.assign(messageField.getName(), messageField.getNumber());
             this.messageFields.add(messageField);
+            this.messageFieldsByName.put(messageField.getName(), messageField);
             this.fieldCounter = messageField.getNumber() + 1;
             return this;
         }
 
+        /**
+         * Adds all given fields. The whole batch is validated (names and numbers must be unique) before any field is
+         * added; if one of the fields is invalid, the builder remains unchanged.
+         *
+         * @param messageFields the fields to add
+         * @return this builder
+         */
+        public Builder withFields(Collection<MessageField> messageFields) {
+            if (this.deferValidation) {
+                messageFields.forEach(this::withField);
+                return this;
+            }
+            Map<String, MessageField> batchByName = new HashMap<>((int) (messageFields.size() / 0.75f) + 1);
+            Set<MessageField> batchByNumber = new TreeSet<>();
+            MessageField last = null;
+            for (MessageField messageField : messageFields) {
+                if (this.messageFieldsByName.containsKey(messageField.getName()) || batchByName.putIfAbsent(messageField.getName(), messageField) != null)
+                    throw new FieldAlreadyExistsException(messageField.getName());
+                if (this.messageFields.contains(messageField) || !batchByNumber.add(messageField))
+                    throw new FieldNumberAlreadyExistsException(this.name.toString(), messageField.getNumber());
+                last = messageField;
+            }
+            if (last == null)
+                return this;
+            if (this.fieldNumberAllocator != null) {
+                for (MessageField messageField : messageFields) {
+                    this.fieldNumberAllocator.check(messageField.getName(), messageField.getNumber());
+                }
+                for (MessageField messageField : messageFields) {
+                    this.fieldNumberAllocator.assign(messageField.getName(), messageField.getNumber());
+                }
+            }
+            this.messageFields.addAll(batchByNumber);
+            this.messageFieldsByName.putAll(batchByName);
+            this.fieldCounter = last.getNumber() + 1;
+            return this;
+        }
+
+        /**
+         * Adds fields with the given type and names. The fields are numbered automatically, continuing after the last
+         * added field.
+         *
+         * @param type       the type of all fields
+         * @param fieldNames the names of the fields to add
+         * @return this builder
+         */
+        public Builder withFields(FieldType type, Collection<String> fieldNames) {
+            List<MessageField> batch = new ArrayList<>(fieldNames.size());
+            int number = this.fieldCounter;
+            BitSet batchNumbers = this.fieldNumberAllocator != null ? (BitSet) this.deferredNumbers.clone() : null;
+            for (String fieldName : fieldNames) {
+                int fieldNumber = number++;
+                if (this.fieldNumberAllocator != null) {
+                    // the numbers are assigned by withFields(Collection) once the batch has been accepted
+                    fieldNumber = nextAllocatedNumber(fieldName, batchNumbers);
+                    if (fieldNumber < 0)
+                        continue;
+                    batchNumbers.set(fieldNumber);
+                }
+                batch.add(new MessageField.Builder(type, fieldName, fieldNumber).build());
+            }
+            return this.withFields(batch);
+        }
+
         public Builder withField(MessageField.Builder fieldBuilder) {
             this.withField(fieldBuilder.build());
             return this;
         }
 
         public Builder withField(FieldType type, String name) {
-            this.withField(new MessageField.Builder(type, name, fieldCounter).build());
+            // the number is assigned by withField(MessageField) once the field has been accepted
+            int number = fieldNumberAllocator != null ? nextAllocatedNumber(name, deferredNumbers) : fieldCounter;
+            if (number < 0)
+                return this;
+            this.withField(new MessageField.Builder(type, name, number).build());
             return this;
         }
 
+        /**
+         * Returns the number the allocator would assign to the given field. With deferred validation, a name reserved
+         * by the allocator is reported when the message is built; the field is not added and -1 is returned.
+         */
+        private int nextAllocatedNumber(String fieldName, BitSet excludedNumbers) {
+            if (this.deferValidation && this.fieldNumberAllocator.isReservedName(fieldName)) {
+                String messageName = this.fieldNumberAllocator.getMessageName();
+                this.deferredReport.add(ValidationProblem.of(this.name + "." + fieldName, FieldNameReservedException.class, () -> new FieldNameReservedException(messageName, fieldName)));
+                return -1;
+            }
+            return this.fieldNumberAllocator.nextNumber(fieldName, excludedNumbers);
+        }
+
         public Builder withNestedMessage(Message message) {
-            if (this.nestedMessages.stream().anyMatch(m -> m.getName().equals(message.getName())))
-                throw new NestedMessageAlreadyExistsException(message.getName());
+            return addNestedMessage(message.getIdentifier(), message.getDefinition());
+        }
+
+        public Builder withNestedMessage(Message.Builder messageBuilder) {
+            if (this.deferValidation) {
+                try {
+                    return this.withNestedMessage(messageBuilder.build());
+                } catch (ModelValidationException e) {
+                    this.deferredReport.addAll(this.name + ".", e.getReport());
+                    return this;
+                }
+            }
+            return this.withNestedMessage(messageBuilder.build());
+        }
+
+        /**
+         * Adds a nested message that is materialized on first access (when the nested messages of the built message
+         * are traversed or rendered), so that unused parts of huge models are never built. The supplier is called at
+         * most once, also if the message is accessed by several threads, and must return a message with the given
+         * name.
+         *
+         * @param name     the name of the nested message
+         * @param supplier the supplier creating the nested message
+         * @return this builder
+         */
+        public Builder withLazyNestedMessage(String name, Supplier<Message> supplier) {
+            Identifier identifier = Identifier.of(name);
+            return addNestedMessage(identifier, new LazyMessage(identifier, supplier));
+        }
+
+        private Builder addNestedMessage(Identifier identifier, Object message) {
+            if (this.deferValidation) {
+                this.deferredNestedMessages.add(message);
+                return this;
+            }
+            if (!this.nestedMessageNames.add(identifier))
+                throw new NestedMessageAlreadyExistsException(identifier.toString());
             this.nestedMessages.add(message);
             return this;
         }
 
+        /**
+         * Builds the message. If the validation fails, the builder remains unchanged, so that calling build() again
+         * reports the same problems.
+         *
+         * @return the built message
+         */
         public Message build() {
-            Message message = new Message();
-            message.name = this.name;
-            message.fields = new TreeSet<>(this.messageFields);
-            message.nestedMessages = new LinkedList<>(this.nestedMessages);
-            for (Message nested : nestedMessages) {
-                nested.setParent(message);
+            Map<String, MessageField> acceptedByName = new HashMap<>();
+            Set<MessageField> acceptedByNumber = new TreeSet<>();
+            Set<Identifier> acceptedNestedNames = new HashSet<>();
+            ValidationReport report = validateDeferredElements(acceptedByName, acceptedByNumber, acceptedNestedNames);
+            validateReservations(acceptedByName.keySet(), acceptedByNumber, report);
+            if (!report.isValid())
+                throw new ModelValidationException(report);
+            // valid: from here on, the builder and the allocator are changed
+            if (this.fieldNumberAllocator != null) {
+                for (MessageField messageField : acceptedByNumber) {
+                    this.fieldNumberAllocator.assign(messageField.getName(), messageField.getNumber());
+                }
             }
-            message.comment = this.comment;
-            return message;
+            this.messageFields.addAll(acceptedByNumber);
+            this.messageFieldsByName.putAll(acceptedByName);
+            this.nestedMessages.addAll(this.deferredNestedMessages);
+            this.nestedMessageNames.addAll(acceptedNestedNames);
+            this.deferredFields.clear();
+            this.deferredNumbers.clear();
+            this.deferredNestedMessages.clear();
+            this.deferredReport.clear();
+            Reservations reservations = buildReservations();
+            return new Message(this.name, this.comment, this.messageFields.toArray(new MessageField[0]),
+                    new HashMap<>(this.messageFieldsByName), new NestedMessages(this.nestedMessages.toArray()), reservations);
+        }
+
+        private Reservations buildReservations() {
+            if (this.fieldNumberAllocator == null)
+                return Reservations.of(this.reservedRanges, this.reservedNames);
+            this.fieldNumberAllocator.retireFieldsExcept(this.messageFieldsByName.keySet());
+            List<ReservedRange> ranges = new ArrayList<>(this.reservedRanges);
+            ranges.addAll(this.fieldNumberAllocator.getReservedRanges());
+            Set<String> names = new LinkedHashSet<>(this.reservedNames);
+            names.addAll(this.fieldNumberAllocator.getReservedNames());
+            return Reservations.of(ranges, names);
+        }
+
+        /**
+         * Checks the fields (including the accepted deferred fields) against the reserved numbers and names, and
+         * against the numbers and names the allocator will reserve when the fields that have not been added are
+         * retired. Neither the builder nor the allocator are changed.
+         */
+        private void validateReservations(Set<String> acceptedNames, Set<MessageField> acceptedFields, ValidationReport report) {
+            Reservations reservations = Reservations.of(this.reservedRanges, this.reservedNames);
+            if (this.fieldNumberAllocator != null) {
+                Set<String> fieldNames = new HashSet<>(this.messageFieldsByName.keySet());
+                fieldNames.addAll(acceptedNames);
+                Reservations allocatorReservations = this.fieldNumberAllocator.previewReservations(fieldNames);
+                List<ReservedRange> ranges = new ArrayList<>(reservations.getRanges());
+                ranges.addAll(allocatorReservations.getRanges());
+                Set<String> names = new LinkedHashSet<>(reservations.getNames());
+                names.addAll(allocatorReservations.getNames());
+                reservations = Reservations.of(ranges, names);
+            }
+            if (reservations == Reservations.NONE)
+                return;
+            validateReservations(this.messageFields, reservations, report);
+            validateReservations(acceptedFields, reservations, report);
+        }
+
+        private void validateReservations(Set<MessageField> messageFields, Reservations reservations, ValidationReport report) {
+            for (MessageField messageField : messageFields) {
+                String path = this.name + "." + messageField.getName();
+                ValidationProblem problem = null;
+                if (reservations.containsName(messageField.getName()))
+                    problem = ValidationProblem.of(path, FieldNameReservedException.class, () -> new FieldNameReservedException(this.name.toString(), messageField.getName()));
+                else if (reservations.containsNumber(messageField.getNumber()))
+                    problem = ValidationProblem.of(path, FieldNumberReservedException.class, () -> new FieldNumberReservedException(this.name.toString(), messageField.getNumber()));
+                if (problem == null)
+                    continue;
+                if (!this.deferValidation)
+                    throw problem.getException();
+                report.add(problem);
+            }
+        }
+
+        /**
+         * Validates the deferred elements and collects the accepted ones in the given collections, without changing the
+         * builder; the deferred fields are also checked against the allocator.
+         *
+         * @return a report with the problems found, including the problems recorded while the elements were added
+         */
+        private ValidationReport validateDeferredElements(Map<String, MessageField> acceptedByName, Set<MessageField> acceptedByNumber,
+                                                          Set<Identifier> acceptedNestedNames) {
+            ValidationReport report = new ValidationReport();
+            report.addAll(this.deferredReport);
+            for (MessageField messageField : this.deferredFields) {
+                String path = this.name + "." + messageField.getName();
+                if (this.messageFieldsByName.containsKey(messageField.getName()) || acceptedByName.putIfAbsent(messageField.getName(), messageField) != null) {
+                    report.add(ValidationProblem.of(path, FieldAlreadyExistsException.class, () -> new FieldAlreadyExistsException(messageField.getName())));
+                } else if (this.messageFields.contains(messageField) || !acceptedByNumber.add(messageField)) {
+                    acceptedByName.remove(messageField.getName());
+                    report.add(ValidationProblem.of(path, FieldNumberAlreadyExistsException.class, () -> new FieldNumberAlreadyExistsException(this.name.toString(), messageField.getNumber())));
+                } else if (this.fieldNumberAllocator != null) {
+                    ValidationProblem conflict = this.fieldNumberAllocator.findConflict(path, messageField.getName(), messageField.getNumber());
+                    if (conflict != null) {
+                        acceptedByName.remove(messageField.getName());
+                        acceptedByNumber.remove(messageField);
+                        report.add(conflict);
+                    }
+                }
+            }
+            for (Object nested : this.deferredNestedMessages) {
+                Identifier nestedName = NestedMessages.identifierOf(nested);
+                if (this.nestedMessageNames.contains(nestedName) || !acceptedNestedNames.add(nestedName))
+                    report.add(ValidationProblem.of(this.name + "." + nestedName, NestedMessageAlreadyExistsException.class, () -> new NestedMessageAlreadyExistsException(nestedName.toString())));
+            }
+            return report;
+        }
+    }
+
+    /**
+     * Read-only set view on the sorted field array; membership is checked with the name index.
+     */
+    private class FieldSet extends AbstractSet<MessageField> {
+
+        @Override
+        public Iterator<MessageField> iterator() {
+            return fieldList.iterator();
+        }
+
+        @Override
+        public int size() {
+            return fields.length;
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            return o instanceof MessageField && o.equals(fieldsByName.get(((MessageField) o).getName()));
         }
     }
 
@@ -190,6 +896,6 @@ public class Message implements FieldType, Identifiable {
 
     @Override
     public int hashCode() {
-        return Objects.hash(name);
+        return name.hashCode();
     }
 }
@@ -16,22 +16,31 @@
 package io.github.microserviceapipatterns.protobufgen.model;
 
 import java.util.Objects;
+import java.util.function.Supplier;
 
 /**
  * Represents a protocol buffer message field.
  *
  * @author Stefan Kapferer
  */
-public class MessageField implements Comparable<MessageField> {
+public class MessageField implements Comparable<MessageField>, StructuralElement<MessageField> {
 
-    private Identifier name;
-    private FieldNumber number;
-    private String comment;
-    private FieldType type;
-    private boolean repeated;
+    private final Identifier name;
+    private final FieldNumber number;
+    private final CharSequence comment;
+    private final FieldType type;
+    private final boolean repeated;
+    private final int structuralHash;
 
-    private MessageField() {
+    private MessageField(Builder builder) {
         // use builder to create message field
+        this.name = builder.name;
+        this.number = builder.number;
+        this.comment = builder.comment;
+        this.type = builder.type;
+        this.repeated = builder.repeated;
+        this.structuralHash = 31 * (31 * (31 * (31 * name.hashCode() + number.hashCode()) + typeHash(type))
+                + Boolean.hashCode(repeated)) + Objects.hashCode(comment);
     }
 
     /**
@@ -44,7 +53,8 @@ public class MessageField implements Comparable<MessageField> {
     }
 
     /**
-     * Returns the type of the field as string.
+     * Returns the type of the field as string. For nested message types, this is the simple name of the message; use
+     * {@link ProtoSpec#getTypeName(MessageField)} to get the qualified name within a spec.
      *
      * @return the type of the field as string
      */
@@ -52,13 +62,35 @@ public class MessageField implements Comparable<MessageField> {
         return type.getName();
     }
 
+    /**
+     * Returns the type of the field.
+     *
+     * @return the type of the field
+     */
+    FieldType getFieldType() {
+        return type;
+    }
+
+    /**
+     * Returns a copy of this field with the given type (used to replace the type with an equal, shared instance).
+     *
+     * @param type the new type
+     * @return a new field with the given type
+     */
+    MessageField withType(FieldType type) {
+        Builder builder = new Builder(type, name, number);
+        builder.comment = comment;
+        builder.repeated = repeated;
+        return builder.build();
+    }
+
     /**
      * Returns a comment (rendered into the .proto file, besides the field definition)
      *
      * @return the comment for the represented field
      */
     public String getComment() {
-        return comment;
+        return comment != null ? comment.toString() : null;
     }
 
     /**
@@ -84,16 +116,45 @@ public class MessageField implements Comparable<MessageField> {
         return number.compareTo(messageField.number);
     }
 
+    @Override
+    public int structuralHash() {
+        return structuralHash;
+    }
+
+    @Override
+    public boolean structurallyEquals(MessageField other) {
+        return this == other || (structuralHash == other.structuralHash && name.equals(other.name)
+                && number.equals(other.number) && repeated == other.repeated
+                && isSameType(type, other.type) && Objects.equals(comment, other.comment));
+    }
+
+    /**
+     * Messages and enums are compared by identity: messages with the same name can be nested at different places, so
+     * that the qualified name of the type depends on the instance. Other types (including type references with their
+     * import path) are compared by equals().
+     */
+    private static boolean isSameType(FieldType type, FieldType other) {
+        return type instanceof Identifiable ? type == other : type.equals(other);
+    }
+
+    private static int typeHash(FieldType type) {
+        return type instanceof Identifiable ? System.identityHashCode(type) : type.hashCode();
+    }
+
     public static class Builder {
         private final Identifier name;
         private final FieldNumber number;
         private final FieldType type;
-        private String comment;
+        private CharSequence comment;
         private boolean repeated = false;
 
         public Builder(FieldType type, String fieldName, int fieldNumber) {
-            this.name = new Identifier(fieldName);
-            this.number = new FieldNumber(fieldNumber);
+            this(type, Identifier.of(fieldName), FieldNumber.of(fieldNumber));
+        }
+
+        private Builder(FieldType type, Identifier name, FieldNumber number) {
+            this.name = name;
+            this.number = number;
             this.type = type;
         }
 
@@ -102,19 +163,24 @@ public class MessageField implements Comparable<MessageField> {
             return this;
         }
 
+        /**
+         * Sets a comment that is supplied on demand, when it is read first, instead of when the field is built.
+         *
+         * @param comment the supplier of the comment
+         * @return this builder
+         */
+        public Builder withComment(Supplier<? extends CharSequence> comment) {
+            this.comment = new LazyComment(comment);
+            return this;
+        }
+
         public Builder repeated() {
             this.repeated = true;
             return this;
         }
 
         public MessageField build() {
-            MessageField messageField = new MessageField();
-            messageField.name = this.name;
-            messageField.comment = this.comment;
-            messageField.number = this.number;
-            messageField.type = this.type;
-            messageField.repeated = this.repeated;
-            return messageField;
+            return new MessageField(this);
         }
 
     }
@@ -129,6 +195,6 @@ public class MessageField implements Comparable<MessageField> {
 
     @Override
     public int hashCode() {
-        return Objects.hash(name);
+        return name.hashCode();
     }
 }
@@ -0,0 +1,300 @@
+/*
+ * Copyright 2020 Stefan Kapferer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.microserviceapipatterns.protobufgen.model;
+
+import io.github.microserviceapipatterns.protobufgen.exception.FieldAlreadyExistsException;
+import io.github.microserviceapipatterns.protobufgen.exception.InstanceNameConflictException;
+import io.github.microserviceapipatterns.protobufgen.exception.TypeArgumentCountMismatchException;
+import io.github.microserviceapipatterns.protobufgen.exception.UnknownTypeParameterException;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Template for wrapper messages that only differ in the types of some fields, such as pages or results of different
+ * entities. The fields of the template either have a concrete type or one of the type parameters of the template.
+ * <p>
+ * Every distinct combination of type arguments is instantiated only once: the instances are cached, so that
+ * instantiating the template again with the same arguments returns the same message. Messages and enums are compared
+ * by identity (two messages with the same name are different arguments), other types with equals. Fields with a
+ * concrete type are built once with the template and shared by all instances.
+ * <p>
+ * The name of an instance is the concatenation of the (simple) names of its type arguments, starting with a capital
+ * letter, followed by the name of the template; for example, the template "Page" instantiated with the message
+ * "Customer" creates the message "CustomerPage". Instantiating the template with different arguments that result in
+ * the same name fails with an {@link InstanceNameConflictException}.
+ *
+ * @author Stefan Kapferer
+ */
+public class MessageTemplate {
+
+    private final String name;
+    private final List<String> typeParameters;
+    private final List<FieldDefinition> fields;
+    private final String comment;
+    private final ConcurrentMap<TypeArguments, Message> instances;
+    private final ConcurrentMap<String, TypeArguments> instanceNames;
+
+    private MessageTemplate(Builder builder) {
+        // use builder to create template
+        this.name = builder.name.toString();
+        this.typeParameters = Collections.unmodifiableList(new ArrayList<>(builder.typeParameters));
+        this.fields = new ArrayList<>(builder.fields);
+        this.comment = builder.comment;
+        this.instances = new ConcurrentHashMap<>();
+        this.instanceNames = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Returns the name of the template.
+     *
+     * @return the name of the template
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Returns the type parameters of the template.
+     *
+     * @return an unmodifiable list with the type parameters
+     */
+    public List<String> getTypeParameters() {
+        return typeParameters;
+    }
+
+    /**
+     * Returns the message for the given type arguments: the cached instance, if the template has been instantiated
+     * with the same arguments before, or a newly built message otherwise. Can be called by many threads concurrently.
+     *
+     * @param typeArguments the types of the type parameters, in the order of the parameters
+     * @return the message for the given type arguments
+     * @throws InstanceNameConflictException if other arguments with the same instance name have been used before
+     */
+    public Message instantiate(FieldType... typeArguments) {
+        if (typeArguments.length != typeParameters.size())
+            throw new TypeArgumentCountMismatchException(name, typeParameters.size(), typeArguments.length);
+        TypeArguments key = new TypeArguments(typeArguments.clone());
+        Message instance = instances.get(key);
+        return instance != null ? instance : instances.computeIfAbsent(key, this::build);
+    }
+
+    /**
+     * Returns the name of the message instantiated for the given type arguments.
+     *
+     * @param typeArguments the types of the type parameters, in the order of the parameters
+     * @return the name of the instance
+     */
+    public String getInstanceName(FieldType... typeArguments) {
+        StringBuilder instanceName = new StringBuilder();
+        for (FieldType typeArgument : typeArguments) {
+            String typeName = typeArgument instanceof Message ? ((Message) typeArgument).getSimpleName() : typeArgument.getName();
+            typeName = typeName.substring(typeName.lastIndexOf('.') + 1);
+            instanceName.append(Character.toUpperCase(typeName.charAt(0))).append(typeName, 1, typeName.length());
+        }
+        return instanceName.append(name).toString();
+    }
+
+    /**
+     * Returns all instances created so far.
+     *
+     * @return an unmodifiable view on the cached instances
+     */
+    public Collection<Message> getInstances() {
+        return Collections.unmodifiableCollection(instances.values());
+    }
+
+    private Message build(TypeArguments typeArguments) {
+        FieldType[] arguments = typeArguments.arguments;
+        String instanceName = getInstanceName(arguments);
+        TypeArguments previous = instanceNames.putIfAbsent(instanceName, typeArguments);
+        if (previous != null && !previous.equals(typeArguments))
+            throw new InstanceNameConflictException(name, instanceName);
+        try {
+            List<MessageField> instanceFields = new ArrayList<>(fields.size());
+            for (FieldDefinition field : fields) {
+                instanceFields.add(field.field != null ? field.field : field.instantiate(arguments[field.parameterIndex]));
+            }
+            return new Message.Builder(instanceName)
+                    .withComment(comment)
+                    .withFields(instanceFields)
+                    .build();
+        } catch (RuntimeException e) {
+            if (previous == null)
+                instanceNames.remove(instanceName, typeArguments); // no instance has been created with the name
+            throw e;
+        }
+    }
+
+    /**
+     * Key of the instance cache: messages and enums are compared by identity, other types with equals.
+     */
+    private static final class TypeArguments {
+        private final FieldType[] arguments;
+        private final int hash;
+
+        private TypeArguments(FieldType[] arguments) {
+            this.arguments = arguments;
+            int hash = 1;
+            for (FieldType argument : arguments) {
+                hash = 31 * hash + (argument instanceof Identifiable ? System.identityHashCode(definitionOf(argument)) : argument.hashCode());
+            }
+            this.hash = hash;
+        }
+
+        /**
+         * Nested messages obtained from their parent are views of the same definition (see
+         * {@link Message#getDefinition()}).
+         */
+        private static Object definitionOf(FieldType argument) {
+            return argument instanceof Message ? ((Message) argument).getDefinition() : argument;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof TypeArguments)) return false;
+            FieldType[] other = ((TypeArguments) o).arguments;
+            for (int i = 0; i < arguments.length; i++) {
+                boolean same = arguments[i] instanceof Identifiable
+                        ? definitionOf(arguments[i]) == definitionOf(other[i])
+                        : arguments[i].equals(other[i]);
+                if (!same)
+                    return false;
+            }
+            return true;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    /**
+     * A field of the template: either a shared field with a concrete type, or a field typed with a type parameter.
+     */
+    private static class FieldDefinition {
+        private final MessageField field;
+        private final int parameterIndex;
+        private final String fieldName;
+        private final int number;
+        private final boolean repeated;
+
+        private FieldDefinition(MessageField field) {
+            this.field = field;
+            this.parameterIndex = -1;
+            this.fieldName = field.getName();
+            this.number = field.getNumber();
+            this.repeated = field.isRepeated();
+        }
+
+        private FieldDefinition(int parameterIndex, String fieldName, int number, boolean repeated) {
+            this.field = null;
+            this.parameterIndex = parameterIndex;
+            this.fieldName = fieldName;
+            this.number = number;
+            this.repeated = repeated;
+        }
+
+        private MessageField instantiate(FieldType typeArgument) {
+            MessageField.Builder builder = new MessageField.Builder(typeArgument, fieldName, number);
+            if (repeated)
+                builder.repeated();
+            return builder.build();
+        }
+    }
+
+    public static class Builder {
+        private final Identifier name;
+        private final List<String> typeParameters;
+        private final List<FieldDefinition> fields;
+        private final Set<String> fieldNames;
+        private String comment;
+        private int fieldCounter = 1;
+
+        public Builder(String templateName, String... typeParameters) {
+            this.name = Identifier.of(templateName);
+            for (String typeParameter : typeParameters) {
+                Identifier.of(typeParameter); // validates the parameter name
+            }
+            this.typeParameters = Arrays.asList(typeParameters.clone());
+            this.fields = new ArrayList<>();
+            this.fieldNames = new HashSet<>();
+            this.comment = "";
+        }
+
+        public Builder withComment(String comment) {
+            this.comment = comment;
+            return this;
+        }
+
+        public Builder withField(FieldType type, String fieldName) {
+            return addField(new MessageField.Builder(type, fieldName, fieldCounter).build());
+        }
+
+        public Builder withRepeatedField(FieldType type, String fieldName) {
+            return addField(new MessageField.Builder(type, fieldName, fieldCounter).repeated().build());
+        }
+
+        /**
+         * Adds a field whose type is the argument of the given type parameter.
+         *
+         * @param typeParameter the type parameter
+         * @param fieldName     the name of the field
+         * @return this builder
+         */
+        public Builder withParameterField(String typeParameter, String fieldName) {
+            return addParameterField(typeParameter, fieldName, false);
+        }
+
+        public Builder withRepeatedParameterField(String typeParameter, String fieldName) {
+            return addParameterField(typeParameter, fieldName, true);
+        }
+
+        private Builder addParameterField(String typeParameter, String fieldName, boolean repeated) {
+            int parameterIndex = typeParameters.indexOf(typeParameter);
+            if (parameterIndex < 0)
+                throw new UnknownTypeParameterException(name.toString(), typeParameter);
+            Identifier.of(fieldName); // validates the name
+            return addField(new FieldDefinition(parameterIndex, fieldName, fieldCounter, repeated));
+        }
+
+        private Builder addField(MessageField field) {
+            return addField(new FieldDefinition(field));
+        }
+
+        private Builder addField(FieldDefinition definition) {
+            if (!this.fieldNames.add(definition.fieldName)) // numbers are assigned in sequence and therefore unique
+                throw new FieldAlreadyExistsException(definition.fieldName);
+            this.fields.add(definition);
+            this.fieldCounter = definition.number + 1;
+            return this;
+        }
+
+        public MessageTemplate build() {
+            return new MessageTemplate(this);
+        }
+    }
+
+}
@@ -0,0 +1,156 @@
+/*
+ * Copyright 2020 Stefan Kapferer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.microserviceapipatterns.protobufgen.model;
+
+import java.util.AbstractList;
+import java.util.RandomAccess;
+
+/**
+ * Unmodifiable list of the nested messages of a message. Elements are either messages or {@link LazyMessage} holders;
+ * lazy messages are materialized when they are accessed through {@link #get(int)} (or iteration). The list returns
+ * views of the messages that know the owner of the list as their parent; each view is created once, on first access.
+ *
+ * @author Stefan Kapferer
+ */
+final class NestedMessages extends AbstractList<Message> implements RandomAccess {
+
+    private final Object[] elements;
+    private final boolean lazy;
+    private final Message owner;
+    private final Message[] views;
+
+    NestedMessages(Object[] elements) {
+        this.elements = elements;
+        this.owner = null;
+        this.views = null;
+        boolean containsLazyMessages = false;
+        for (Object element : elements) {
+            if (element instanceof LazyMessage || ((Message) element).hasLazyNestedMessages()) {
+                containsLazyMessages = true;
+                break;
+            }
+        }
+        this.lazy = containsLazyMessages;
+    }
+
+    private NestedMessages(NestedMessages nestedMessages, Message owner) {
+        this.elements = nestedMessages.elements;
+        this.lazy = nestedMessages.lazy;
+        this.owner = owner;
+        this.views = new Message[elements.length];
+    }
+
+    /**
+     * Returns this list as nested messages of the given message; the list shares the elements with this list.
+     *
+     * @param owner the message containing the nested messages
+     * @return a list returning views of the nested messages with the given parent
+     */
+    NestedMessages ownedBy(Message owner) {
+        return new NestedMessages(this, owner);
+    }
+
+    static Identifier identifierOf(Object element) {
+        return element instanceof LazyMessage ? ((LazyMessage) element).getIdentifier() : ((Message) element).getIdentifier();
+    }
+
+    @Override
+    public Message get(int index) {
+        if (owner == null)
+            return getDefinition(index);
+        Message view = views[index]; // views are immutable, so reading a racily published view is safe
+        if (view == null) {
+            synchronized (views) {
+                view = views[index];
+                if (view == null) {
+                    view = getDefinition(index).nestedIn(owner);
+                    views[index] = view;
+                }
+            }
+        }
+        return view;
+    }
+
+    /**
+     * Returns the nested message at the given index as it has been built (without parent), materializing it if
+     * it is lazy.
+     *
+     * @param index the index of the nested message
+     * @return the definition of the nested message
+     */
+    Message getDefinition(int index) {
+        Object element = elements[index];
+        return element instanceof LazyMessage ? ((LazyMessage) element).get() : (Message) element;
+    }
+
+    @Override
+    public int size() {
+        return elements.length;
+    }
+
+    /**
+     * Returns the name of the nested message at the given index without materializing it.
+     *
+     * @param index the index of the nested message
+     * @return the identifier of the nested message
+     */
+    Identifier getIdentifier(int index) {
+        return identifierOf(elements[index]);
+    }
+
+    /**
+     * Returns the nested message at the given index (as it has been built, see {@link #getDefinition(int)}) if it is
+     * not lazy or has already been materialized.
+     *
+     * @param index the index of the nested message
+     * @return the definition of the nested message, or null if it has not been materialized yet
+     */
+    Message getIfMaterialized(int index) {
+        Object element = elements[index];
+        return element instanceof LazyMessage ? ((LazyMessage) element).getIfMaterialized() : (Message) element;
+    }
+
+    /**
+     * Indicates whether the list contains lazy messages, directly or in the subtrees of its messages.
+     *
+     * @return true if materializing the subtree may call suppliers, false otherwise
+     */
+    boolean isLazy() {
+        return lazy;
+    }
+
+    /**
+     * Returns the messages and lazy message holders of this list.
+     *
+     * @return the elements of this list (must not be modified)
+     */
+    Object[] elements() {
+        return elements;
+    }
+
+    /**
+     * Returns a copy of this list with the element at the given index replaced by the given message.
+     *
+     * @param index   the index of the replaced element
+     * @param message the new message
+     * @return a new list containing the given message
+     */
+    NestedMessages with(int index, Message message) {
+        Object[] newElements = elements.clone();
+        newElements[index] = message;
+        return new NestedMessages(newElements);
+    }
+}
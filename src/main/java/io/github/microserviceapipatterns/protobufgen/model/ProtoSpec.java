@@ -15,17 +15,29 @@
  */
 package io.github.microserviceapipatterns.protobufgen.model;
 
+import io.github.microserviceapipatterns.protobufgen.exception.ElementNotFoundException;
+import io.github.microserviceapipatterns.protobufgen.exception.MessageNotInSpecException;
+import io.github.microserviceapipatterns.protobufgen.exception.ModelValidationException;
 import io.github.microserviceapipatterns.protobufgen.exception.RootElementAlreadyExistsException;
+import io.github.microserviceapipatterns.protobufgen.exception.ValidationProblem;
+import io.github.microserviceapipatterns.protobufgen.exception.ValidationReport;
 import io.github.microserviceapipatterns.protobufgen.serializer.ProtoSpecSerializer;
 
 import java.io.File;
 import java.io.IOException;
-import java.util.HashSet;
-import java.util.LinkedList;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
 import java.util.Set;
-
-import static io.github.microserviceapipatterns.protobufgen.model.AnyType.ANY_TYPE_IMPORT;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
 
 /**
  * Represents a protocol buffers specification; one single *.proto file.
@@ -34,46 +46,359 @@ import static io.github.microserviceapipatterns.protobufgen.model.AnyType.ANY_TY
  */
 public class ProtoSpec {
 
-    private String syntax;
-    private List<Message> messages;
-    private List<Enum> enums;
-    private List<Service> services;
-    private List<ImportStatement> importStatements;
-    private FullIdentifier packageDef;
-    private String comment;
-
-    private ProtoSpecSerializer serializer;
+    private final String syntax;
+    private final List<Message> messages;
+    private final ColumnarMessageStore messageStore;
+    private final List<Message> messageView;
+    private final List<Enum> enums;
+    private final List<Service> services;
+    private final List<ImportStatement> declaredImportStatements;
+    private volatile List<ImportStatement> importStatements;
+    private volatile Map<String, Symbol> symbols;
+    private final Map<String, Symbol> storeSymbols;
+    private final Map<Identifier, Identifiable> rootElements;
+    private volatile Map<Message, FullIdentifier> fullIdentifiers;
+    private final Map<Message, FullIdentifier> lazyFullIdentifiers;
+    private final FullIdentifier packageDef;
+    private final CharSequence comment;
+
+    private final ProtoSpecSerializer serializer;
+
+    private ProtoSpec(List<Message> messages, ColumnarMessageStore messageStore, List<Enum> enums, List<Service> services, List<ImportStatement> declaredImportStatements,
+                      Map<Identifier, Identifiable> rootElements, Map<Message, FullIdentifier> fullIdentifiers,
+                      FullIdentifier packageDef, CharSequence comment) {
+        this(messages, messageStore, enums, services, declaredImportStatements, rootElements, fullIdentifiers, packageDef, comment, null);
+    }
 
-    private ProtoSpec() {
+    /**
+     * Creates a spec with the given imports (if they are known already, which implies that the spec does not contain
+     * lazy nested messages), or collects them.
+     */
+    private ProtoSpec(List<Message> messages, ColumnarMessageStore messageStore, List<Enum> enums, List<Service> services, List<ImportStatement> declaredImportStatements,
+                      Map<Identifier, Identifiable> rootElements, Map<Message, FullIdentifier> fullIdentifiers,
+                      FullIdentifier packageDef, CharSequence comment, List<ImportStatement> importStatements) {
         // use builder to create proto spec
+        this.syntax = "proto3"; // currently we only support proto3
+        this.messages = messages;
+        this.messageStore = messageStore;
+        this.messageView = messageStore != null ? new MessagesWithStore() : messages;
+        this.storeSymbols = messageStore != null ? new ConcurrentHashMap<>() : null;
+        this.enums = enums;
+        this.services = services;
+        this.declaredImportStatements = declaredImportStatements;
+        this.rootElements = rootElements;
+        this.fullIdentifiers = fullIdentifiers;
+        this.packageDef = packageDef;
+        this.comment = comment;
         this.serializer = new ProtoSpecSerializer();
+        boolean lazy = importStatements == null && messages.stream().anyMatch(Message::hasLazyNestedMessages);
+        // with lazy nested messages, imports and names of nested messages are resolved on demand (see below)
+        this.lazyFullIdentifiers = lazy ? Collections.synchronizedMap(new IdentityHashMap<>()) : null;
+        this.importStatements = importStatements != null ? importStatements : lazy ? null : collectImportStatements();
     }
 
     /**
-     * Returns the messages contained by this proto spec.
+     * Returns an unmodifiable list with the messages contained by this proto spec. The messages of a
+     * {@link ColumnarMessageStore} follow the other messages; they are materialized whenever they are accessed.
      *
      * @return the messages contained by the represented proto spec.
      */
     public List<Message> getMessages() {
-        return new LinkedList<>(messages);
+        return messageView;
     }
 
     /**
-     * Returns the enums contained by this proto spec.
+     * Returns an unmodifiable list with the enums contained by this proto spec.
      *
      * @return the enums contained by the represented proto spec.
      */
     public List<Enum> getEnums() {
-        return new LinkedList<>(enums);
+        return enums;
     }
 
     /**
-     * Returns the services contained by this proto spec.
+     * Returns an unmodifiable list with the services contained by this proto spec.
      *
      * @return the services contained by the represented proto spec.
      */
     public List<Service> getServices() {
-        return new LinkedList<>(services);
+        return services;
+    }
+
+    /**
+     * Returns the root element (message, enum, or service) with the given name.
+     *
+     * @param name the name of the root element
+     * @return the message, enum, or service with the given name, or null if the spec does not contain such an element
+     * (including names that are not correct identifiers, such as qualified names)
+     */
+    public Identifiable findRootElement(String name) {
+        Identifier identifier = Identifier.lookupKey(name);
+        if (identifier == null)
+            return null;
+        Identifiable rootElement = rootElements.get(identifier);
+        if (rootElement == null && messageStore != null)
+            return messageStore.findRootMessage(name);
+        return rootElement;
+    }
+
+    /**
+     * Resolves the message, enum, or service with the given fully qualified name, for example "Outer.Inner.Deep". The
+     * name may start with the package of the spec and with a dot (".pkg.Outer.Inner"). Lookups use a symbol table
+     * that is built once, on the first call; building it materializes lazy nested messages. Messages of a
+     * {@link ColumnarMessageStore} are not part of the table; they are found with the indexes of the store. Their
+     * symbols are kept once they have been resolved, and materialize only the resolved message (with its nested
+     * messages) and the fields of the enclosing messages, on first access.
+     *
+     * @param name the fully qualified name of the element
+     * @return the symbol of the element, or null if the spec does not contain an element with the given name
+     */
+    public Symbol resolve(String name) {
+        String relativeName = name.startsWith(".") ? name.substring(1) : name;
+        Symbol symbol = lookup(relativeName);
+        if (symbol == null && packageDef != null && relativeName.startsWith(packageDef.getName() + "."))
+            symbol = lookup(relativeName.substring(packageDef.getName().length() + 1));
+        return symbol;
+    }
+
+    /**
+     * Checks whether {@link #resolve(String)} finds an element with the given name, without creating a symbol for
+     * messages of the message store.
+     */
+    boolean canResolve(String name) {
+        String relativeName = name.startsWith(".") ? name.substring(1) : name;
+        if (contains(relativeName))
+            return true;
+        return packageDef != null && relativeName.startsWith(packageDef.getName() + ".")
+                && contains(relativeName.substring(packageDef.getName().length() + 1));
+    }
+
+    /**
+     * Checks whether the given full identifier (relative to the package) is contained in the symbol table or the
+     * message store, without creating a symbol for messages of the store.
+     */
+    boolean contains(String fullIdentifier) {
+        return getSymbols().containsKey(fullIdentifier) || messageStore != null && messageStore.findMessage(fullIdentifier) >= 0;
+    }
+
+    /**
+     * Returns the messages of this spec that are not part of the message store.
+     */
+    List<Message> getObjectMessages() {
+        return messages;
+    }
+
+    ColumnarMessageStore getMessageStore() {
+        return messageStore;
+    }
+
+    /**
+     * Looks up the given full identifier (relative to the package) in the symbol table and the message store.
+     */
+    Symbol lookup(String fullIdentifier) {
+        Symbol symbol = getSymbols().get(fullIdentifier);
+        if (symbol == null && messageStore != null)
+            symbol = resolveStoredMessage(fullIdentifier);
+        return symbol;
+    }
+
+    /**
+     * Checks that all types used by the fields of the messages and by the RPCs of the services can be resolved: they
+     * must be elements of this spec or {@link TypeReference}s with an import path. Reports unresolved types, names
+     * referring to more than one definition, and names that protoc would resolve to another element because they are
+     * shadowed in the scope of the referencing message. Every reference is checked with a few lookups in the symbol
+     * table (see {@link #resolve(String)}), so that the check takes time proportional to the number of references.
+     * The fields of a {@link ColumnarMessageStore} are checked on the columns of the store, without materializing its
+     * messages; references between messages of the store are resolved by their full identifiers.
+     *
+     * @return a report containing the problems found, valid if all types can be resolved
+     */
+    public ValidationReport validateTypeReferences() {
+        return new TypeResolver(this).validate();
+    }
+
+    private Map<String, Symbol> getSymbols() {
+        Map<String, Symbol> table = symbols;
+        if (table == null) {
+            table = buildSymbolTable();
+            symbols = table;
+        }
+        return table;
+    }
+
+    private Map<String, Symbol> buildSymbolTable() {
+        Map<String, Symbol> table = new HashMap<>();
+        for (Message message : messages) {
+            addMessageSymbols(table, message, new FullIdentifier(message.getIdentifier()), Collections.emptyList());
+        }
+        for (Enum enumm : enums) {
+            table.putIfAbsent(enumm.getName(), new Symbol(new FullIdentifier(enumm.getIdentifier()), enumm, Collections.emptyList()));
+        }
+        for (Service service : services) {
+            table.putIfAbsent(service.getName(), new Symbol(new FullIdentifier(service.getIdentifier()), service, Collections.emptyList()));
+        }
+        return Collections.unmodifiableMap(table);
+    }
+
+    private static void addMessageSymbols(Map<String, Symbol> table, Message message, FullIdentifier fullIdentifier, List<Message> enclosingMessages) {
+        if (table.putIfAbsent(fullIdentifier.getName(), new Symbol(fullIdentifier, message, enclosingMessages)) != null)
+            return;
+        List<Message> nestedEnclosingMessages = null;
+        for (Message nested : message.getNestedMessages()) {
+            if (nestedEnclosingMessages == null) {
+                List<Message> path = new ArrayList<>(enclosingMessages.size() + 1);
+                path.addAll(enclosingMessages);
+                path.add(message);
+                nestedEnclosingMessages = Collections.unmodifiableList(path);
+            }
+            addMessageSymbols(table, nested, new FullIdentifier(fullIdentifier, nested.getIdentifier()), nestedEnclosingMessages);
+        }
+    }
+
+    private Symbol resolveStoredMessage(String name) {
+        Symbol symbol = storeSymbols.get(name);
+        if (symbol != null)
+            return symbol;
+        int message = messageStore.findMessage(name);
+        if (message < 0)
+            return null;
+        return storeSymbols.computeIfAbsent(name, n -> new Symbol(new FullIdentifier(n), messageStore.getParent(message) >= 0,
+                () -> materializeStoredSymbol(message)));
+    }
+
+    /**
+     * Materializes the root message containing the given message of the store with lazy nested messages, so that
+     * only the path to the message is materialized.
+     */
+    private Symbol materializeStoredSymbol(int message) {
+        List<Integer> path = new ArrayList<>();
+        for (int current = message; current >= 0; current = messageStore.getParent(current)) {
+            path.add(0, current);
+        }
+        Message element = messageStore.materializeShallow(path.get(0));
+        List<Message> enclosingMessages = new ArrayList<>(path.size() - 1);
+        for (int i = 1; i < path.size(); i++) {
+            enclosingMessages.add(element);
+            element = findNestedMessage(element, messageStore.getMessageName(path.get(i)));
+        }
+        return new Symbol(element.getFullIdentifier(), element, Collections.unmodifiableList(enclosingMessages));
+    }
+
+    private static Message findNestedMessage(Message parent, String name) {
+        NestedMessages nestedMessages = (NestedMessages) parent.getNestedMessages();
+        for (int i = 0; i < nestedMessages.size(); i++) {
+            if (nestedMessages.getIdentifier(i).getName().equals(name)) // does not materialize the other messages
+                return nestedMessages.get(i);
+        }
+        return null;
+    }
+
+    /**
+     * Returns the full identifier of the given message within this spec. For messages nested (directly or indirectly)
+     * in a message of this spec, the full identifier contains the names of all parents. Besides the messages obtained
+     * from the spec (see {@link Message#getFullIdentifier()}), this also works for the instances that have been
+     * passed to {@link Message.Builder#withNestedMessage(Message)}. If the same message is nested at several places,
+     * the first occurrence is used.
+     *
+     * @param message the message
+     * @return the full identifier of the message within this spec
+     * @throws MessageNotInSpecException if the message is neither a message of this spec nor nested in one
+     */
+    public FullIdentifier getFullIdentifier(Message message) {
+        FullIdentifier fullIdentifier = findFullIdentifier(message);
+        if (fullIdentifier == null)
+            throw new MessageNotInSpecException(message.getName());
+        return fullIdentifier;
+    }
+
+    private FullIdentifier findFullIdentifier(Message message) {
+        if (isRootOfThisSpec(message.getRoot()))
+            return message.getFullIdentifier(); // the message has been obtained from this spec
+        FullIdentifier fullIdentifier = getFullIdentifiers().get(message.getDefinition());
+        if (fullIdentifier == null && lazyFullIdentifiers != null)
+            fullIdentifier = findLazyFullIdentifier(message.getDefinition());
+        return fullIdentifier;
+    }
+
+    /**
+     * Returns the full identifiers of the messages nested in the messages of this spec, keyed by their definition.
+     * They are collected on the first call, so that building and copying specs does not walk the nested messages;
+     * messages obtained from the spec know their full identifier anyway.
+     */
+    private Map<Message, FullIdentifier> getFullIdentifiers() {
+        Map<Message, FullIdentifier> map = fullIdentifiers;
+        if (map == null) {
+            map = collectFullIdentifiers(messages);
+            fullIdentifiers = map;
+        }
+        return map;
+    }
+
+    /**
+     * Messages of the store are materialized on every access, so they are recognized by name only.
+     */
+    private boolean isRootOfThisSpec(Message root) {
+        Identifiable rootElement = rootElements.get(root.getIdentifier());
+        if (rootElement != null)
+            return rootElement == root;
+        return messageStore != null && messageStore.containsRootMessage(root.getIdentifier().toString());
+    }
+
+    /**
+     * Searches messages inside lazy nested messages that have been materialized since the spec was built. Lazy
+     * messages that have not been materialized yet are not materialized by the search; the given message cannot be
+     * nested inside them anyway.
+     */
+    private FullIdentifier findLazyFullIdentifier(Message message) {
+        FullIdentifier fullIdentifier = lazyFullIdentifiers.get(message);
+        if (fullIdentifier != null)
+            return fullIdentifier;
+        for (Message root : messages) {
+            collectLazyFullIdentifiers(root, new FullIdentifier(root.getIdentifier()));
+        }
+        return lazyFullIdentifiers.get(message);
+    }
+
+    private void collectLazyFullIdentifiers(Message parent, FullIdentifier parentIdentifier) {
+        NestedMessages nestedMessages = (NestedMessages) parent.getNestedMessages();
+        if (!nestedMessages.isLazy() && getFullIdentifiers().containsKey(parent))
+            return; // eager subtree, already collected by getFullIdentifiers()
+        for (int i = 0; i < nestedMessages.size(); i++) {
+            Message nested = nestedMessages.getIfMaterialized(i);
+            if (nested == null)
+                continue;
+            FullIdentifier fullIdentifier = new FullIdentifier(parentIdentifier, nested.getIdentifier());
+            if (!getFullIdentifiers().containsKey(nested))
+                lazyFullIdentifiers.putIfAbsent(nested, fullIdentifier);
+            collectLazyFullIdentifiers(nested, fullIdentifier);
+        }
+    }
+
+    /**
+     * Returns the type of the given field as it has to be written in this spec: the full identifier (see
+     * {@link #getFullIdentifier(Message)}) for message types, the name of the type otherwise. Messages that are not
+     * contained in this spec are written with their name (see {@link #validateTypeReferences()}).
+     *
+     * @param field the message field
+     * @return the type name of the field within this spec
+     */
+    public String getTypeName(MessageField field) {
+        return getTypeName(field.getFieldType());
+    }
+
+    /**
+     * Returns the given type as it has to be written in this spec: the full identifier (see
+     * {@link #getFullIdentifier(Message)}) for messages, the name of the type otherwise. Messages that are not
+     * contained in this spec are written with their name.
+     *
+     * @param type a field type, or the input or output type of an RPC
+     * @return the type name within this spec
+     */
+    public String getTypeName(FieldType type) {
+        if (!(type instanceof Message))
+            return type.getName();
+        FullIdentifier fullIdentifier = findFullIdentifier((Message) type);
+        return fullIdentifier != null ? fullIdentifier.toString() : type.getName();
     }
 
     /**
@@ -85,8 +410,69 @@ public class ProtoSpec {
         return syntax;
     }
 
+    /**
+     * Returns an unmodifiable list with the import statements of this proto spec, including the imports of the
+     * well-known types and of the {@link TypeReference}s used by its messages and services. If the spec contains lazy nested messages, the imports are determined on
+     * the first call, which materializes them.
+     *
+     * @return the import statements of the represented proto spec
+     */
     public List<ImportStatement> getImportStatements() {
-        return new LinkedList<>(importStatements);
+        List<ImportStatement> imports = importStatements;
+        if (imports == null) {
+            imports = collectImportStatements();
+            importStatements = imports;
+        }
+        return imports;
+    }
+
+    private List<ImportStatement> collectImportStatements() {
+        long usedWellKnownTypes = 0L;
+        for (Message message : messages) {
+            usedWellKnownTypes |= message.getUsedWellKnownTypes();
+        }
+        if (messageStore != null)
+            usedWellKnownTypes |= messageStore.getUsedWellKnownTypes();
+        Set<String> typeReferenceImports = collectTypeReferenceImports(usedWellKnownTypes);
+        if (usedWellKnownTypes == 0L && typeReferenceImports.isEmpty())
+            return declaredImportStatements;
+        List<ImportStatement> imports = new ArrayList<>(declaredImportStatements);
+        addWellKnownTypeImports(imports, usedWellKnownTypes);
+        for (String fileName : typeReferenceImports) {
+            addImport(imports, fileName);
+        }
+        return Collections.unmodifiableList(imports);
+    }
+
+    private Set<String> collectTypeReferenceImports(long usedWellKnownTypes) {
+        Set<String> imports = new LinkedHashSet<>();
+        if ((usedWellKnownTypes & WellKnownType.TYPE_REFERENCE_IMPORTS) != 0L) {
+            for (Message message : messages) {
+                collectTypeReferenceImports(message, imports);
+            }
+            if (messageStore != null)
+                imports.addAll(messageStore.getTypeReferenceImports());
+        }
+        for (Service service : services) {
+            imports.addAll(collectTypeReferenceImports(service));
+        }
+        return imports;
+    }
+
+    private static void collectTypeReferenceImports(Message message, Set<String> imports) {
+        if ((message.getUsedWellKnownTypes() & WellKnownType.TYPE_REFERENCE_IMPORTS) == 0L)
+            return; // no type references with imports in this subtree
+        for (MessageField field : message.getFieldArray()) {
+            addTypeReferenceImport(field.getFieldType(), imports);
+        }
+        for (Message nested : message.getNestedMessages()) {
+            collectTypeReferenceImports(nested, imports);
+        }
+    }
+
+    private static void addTypeReferenceImport(FieldType type, Set<String> imports) {
+        if (type instanceof TypeReference && ((TypeReference) type).getImportPath() != null)
+            imports.add(((TypeReference) type).getImportPath());
     }
 
     /**
@@ -124,37 +510,316 @@ public class ProtoSpec {
      * @return the comment as a string
      */
     public String getComment() {
-        return comment;
+        return comment != null ? comment.toString() : null;
+    }
+
+    /**
+     * Returns a builder initialized with the messages, enums, services, imports, package, and comment of this spec.
+     * The elements are not copied but shared with this spec.
+     *
+     * @return a new builder to create a modified copy of this spec
+     */
+    public Builder toBuilder() {
+        Builder builder = new Builder()
+                .withMessages(messages)
+                .withEnums(enums)
+                .withServices(services);
+        builder.comment = comment;
+        if (packageDef != null)
+            builder.withPackage(packageDef);
+        if (messageStore != null)
+            builder.withMessageStore(messageStore);
+        builder.importStatements.addAll(declaredImportStatements);
+        return builder;
+    }
+
+    /**
+     * Returns a copy of this spec in which the message with the given name is replaced. This spec remains unchanged;
+     * all other messages, enums, and services are shared with the copy. Imports for well-known types and type
+     * references are updated according to the new message; if the new message requires the same imports as the
+     * replaced one, the imports of this spec are shared as well.
+     * <p>
+     * Note that RPCs referencing the replaced message are not updated, and that messages of a
+     * {@link ColumnarMessageStore} cannot be replaced. The list of messages and the table of root element names are
+     * copied, so that replacing an element takes time linear in the number of root elements; replace many elements
+     * at once through {@link #toBuilder()} instead.
+     *
+     * @param name    the name of the message to replace
+     * @param message the new message
+     * @return a new spec containing the given message instead of the replaced one
+     */
+    public ProtoSpec withMessageReplaced(String name, Message message) {
+        message = message.getDefinition();
+        Map<Identifier, Identifiable> newRootElements = replaceRootElement(name, message, Message.class);
+        List<Message> newMessages = replaceElement(messages, Identifier.of(name), message);
+        Message replaced = (Message) rootElements.get(Identifier.of(name));
+        List<ImportStatement> imports = lazyFullIdentifiers == null && !message.hasLazyNestedMessages()
+                && requiresSameImports(replaced, message) ? importStatements : null;
+        return new ProtoSpec(newMessages, messageStore, enums, services, declaredImportStatements, newRootElements,
+                null, packageDef, comment, imports);
+    }
+
+    /**
+     * Returns a copy of this spec in which the service with the given name is replaced. This spec remains unchanged;
+     * all other messages, enums, and services are shared with the copy, and so are the imports if the new service
+     * requires the same imports as the replaced one. As for {@link #withMessageReplaced(String, Message)}, the list
+     * of services and the table of root element names are copied.
+     *
+     * @param name    the name of the service to replace
+     * @param service the new service
+     * @return a new spec containing the given service instead of the replaced one
+     */
+    public ProtoSpec withServiceReplaced(String name, Service service) {
+        Map<Identifier, Identifiable> newRootElements = replaceRootElement(name, service, Service.class);
+        Service replaced = (Service) rootElements.get(Identifier.of(name));
+        List<ImportStatement> imports = importStatements != null
+                && collectTypeReferenceImports(replaced).equals(collectTypeReferenceImports(service)) ? importStatements : null;
+        return new ProtoSpec(messages, messageStore, enums, replaceElement(services, Identifier.of(name), service), declaredImportStatements,
+                newRootElements, fullIdentifiers, packageDef, comment, imports); // messages unchanged, so are their full identifiers
+    }
+
+    /**
+     * Indicates whether the given messages require the same imports, in the same order: the same well-known types
+     * and, if they use type references with import paths, the same paths.
+     */
+    private static boolean requiresSameImports(Message replaced, Message message) {
+        if (replaced.getUsedWellKnownTypes() != message.getUsedWellKnownTypes())
+            return false;
+        if ((message.getUsedWellKnownTypes() & WellKnownType.TYPE_REFERENCE_IMPORTS) == 0L)
+            return true;
+        Set<String> replacedImports = new LinkedHashSet<>();
+        Set<String> imports = new LinkedHashSet<>();
+        collectTypeReferenceImports(replaced, replacedImports);
+        collectTypeReferenceImports(message, imports);
+        return new ArrayList<>(replacedImports).equals(new ArrayList<>(imports));
+    }
+
+    private static List<String> collectTypeReferenceImports(Service service) {
+        Set<String> imports = new LinkedHashSet<>();
+        for (RemoteProcedureCall rpc : service.getRemoteProcedureCalls()) {
+            addTypeReferenceImport(rpc.getInputType(), imports);
+            addTypeReferenceImport(rpc.getOutputType(), imports);
+        }
+        return new ArrayList<>(imports);
+    }
+
+    private Map<Identifier, Identifiable> replaceRootElement(String name, Identifiable element, Class<? extends Identifiable> type) {
+        Identifier identifier = Identifier.of(name);
+        if (!type.isInstance(rootElements.get(identifier)))
+            throw new ElementNotFoundException(name);
+        if (!identifier.equals(element.getIdentifier()) && (rootElements.containsKey(element.getIdentifier())
+                || messageStore != null && messageStore.containsRootMessage(element.getIdentifier().toString())))
+            throw new RootElementAlreadyExistsException(element.getIdentifier().toString());
+        Map<Identifier, Identifiable> newRootElements = new HashMap<>(rootElements);
+        newRootElements.remove(identifier);
+        newRootElements.put(element.getIdentifier(), element);
+        return newRootElements;
+    }
+
+    private static <T extends Identifiable> List<T> replaceElement(List<T> elements, Identifier identifier, T element) {
+        List<T> copy = new ArrayList<>(elements);
+        for (int i = 0; i < copy.size(); i++) {
+            if (copy.get(i).getIdentifier().equals(identifier))
+                copy.set(i, element);
+        }
+        return Collections.unmodifiableList(copy);
+    }
+
+    private static Map<Message, FullIdentifier> collectFullIdentifiers(List<Message> messages) {
+        Map<Message, FullIdentifier> fullIdentifiers = new IdentityHashMap<>();
+        for (Message message : messages) {
+            fullIdentifiers.put(message, new FullIdentifier(message.getIdentifier()));
+        }
+        for (Message message : messages) {
+            collectNestedFullIdentifiers(fullIdentifiers, message, fullIdentifiers.get(message));
+        }
+        return Collections.unmodifiableMap(fullIdentifiers);
+    }
+
+    private static void collectNestedFullIdentifiers(Map<Message, FullIdentifier> fullIdentifiers, Message parent, FullIdentifier parentIdentifier) {
+        NestedMessages nestedMessages = (NestedMessages) parent.getNestedMessages();
+        for (int i = 0; i < nestedMessages.size(); i++) {
+            Message nested = nestedMessages.getIfMaterialized(i); // lazy messages are handled by findLazyFullIdentifier
+            if (nested == null)
+                continue;
+            FullIdentifier fullIdentifier = new FullIdentifier(parentIdentifier, nested.getIdentifier());
+            if (fullIdentifiers.putIfAbsent(nested, fullIdentifier) == null)
+                collectNestedFullIdentifiers(fullIdentifiers, nested, fullIdentifier);
+        }
+    }
+
+    private static void addWellKnownTypeImports(List<ImportStatement> importStatements, long usedWellKnownTypes) {
+        if (usedWellKnownTypes == 0L)
+            return;
+        for (WellKnownType type : WellKnownType.values()) {
+            if ((usedWellKnownTypes & type.mask()) != 0L)
+                addImport(importStatements, type.getImportFileName());
+        }
+    }
+
+    private static void addImport(List<ImportStatement> importStatements, String fileName) {
+        if (importStatements.stream().noneMatch(i -> i.getFileName().equals(fileName)))
+            importStatements.add(new ImportStatement(fileName));
+    }
+
+    /**
+     * The messages of the spec followed by the root messages of its message store, materialized on access.
+     */
+    private class MessagesWithStore extends AbstractList<Message> implements RandomAccess {
+        @Override
+        public Message get(int index) {
+            return index < messages.size() ? messages.get(index) : messageStore.getRootMessage(index - messages.size());
+        }
+
+        @Override
+        public int size() {
+            return messages.size() + messageStore.getRootMessageCount();
+        }
     }
 
     public static class Builder {
+        private static final ThreadLocal<Builder> THREAD_LOCAL_BUILDER = ThreadLocal.withInitial(Builder::new);
+
         private final List<Message> messages;
         private final List<Enum> enums;
         private final List<Service> services;
-        private final Set<Identifiable> allIdentifiableObjects;
+        private final Map<Identifier, Identifiable> rootElements;
         private final List<ImportStatement> importStatements;
+        private final List<Identifiable> deferredRootElements;
+        private final ValidationReport deferredReport;
+        private ColumnarMessageStore messageStore;
         private FullIdentifier packageDef;
-        private String comment;
+        private CharSequence comment;
+        private boolean deferValidation = false;
+        private boolean strictTypeResolution = false;
 
         public Builder() {
-            this.messages = new LinkedList<>();
-            this.enums = new LinkedList<>();
-            this.services = new LinkedList<>();
-            this.allIdentifiableObjects = new HashSet<>();
-            this.importStatements = new LinkedList<>();
+            this.messages = new ArrayList<>();
+            this.enums = new ArrayList<>();
+            this.services = new ArrayList<>();
+            this.rootElements = new HashMap<>();
+            this.importStatements = new ArrayList<>();
+            this.deferredRootElements = new ArrayList<>();
+            this.deferredReport = new ValidationReport();
             this.comment = "";
         }
 
+        /**
+         * Returns the spec builder of the calling thread, reset to its initial state (see {@link #reset()}). The
+         * returned builder must not be used anymore once this method is called again in the same thread.
+         *
+         * @return the reset builder of the calling thread
+         */
+        public static Builder threadLocal() {
+            return THREAD_LOCAL_BUILDER.get().reset();
+        }
+
+        /**
+         * Resets this builder to build another spec, as if it was newly created. The internal collections are cleared
+         * but kept, so that builders can be reused without allocating them again.
+         *
+         * @return this builder
+         */
+        public Builder reset() {
+            this.messages.clear();
+            this.enums.clear();
+            this.services.clear();
+            this.rootElements.clear();
+            this.importStatements.clear();
+            this.deferredRootElements.clear();
+            this.deferredReport.clear();
+            this.messageStore = null;
+            this.packageDef = null;
+            this.comment = "";
+            this.deferValidation = false;
+            this.strictTypeResolution = false;
+            return this;
+        }
+
+        /**
+         * Defers the validation of root elements to {@link #build()}: messages, enums, and services are recorded
+         * without any checks and validated in one pass when the spec is built. Messages, enums, and services passed as
+         * builders are built right away; if they are invalid, their problems are reported by build() as well. Instead
+         * of failing at the first problem, build() reports all problems at once (see {@link ModelValidationException}).
+         * <p>
+         * Note that deferred validation is not propagated to the builders passed to this builder; use their
+         * withDeferredValidation() methods to collect all problems inside messages, enums, and services.
+         *
+         * @return this builder
+         */
+        public Builder withDeferredValidation() {
+            this.deferValidation = true;
+            return this;
+        }
+
+        /**
+         * Resolves the types used by fields and RPCs when the spec is built (see
+         * {@link ProtoSpec#validateTypeReferences()}); build() fails with a {@link ModelValidationException} listing
+         * all unresolved, ambiguous, and shadowed types.
+         *
+         * @return this builder
+         */
+        public Builder withStrictTypeResolution() {
+            this.strictTypeResolution = true;
+            return this;
+        }
+
+        /**
+         * Adds the given message as root message. If the message has been obtained as nested message of another
+         * message, it is added without its parent.
+         *
+         * @param message the message to add
+         * @return this builder
+         */
         public Builder withMessage(Message message) {
+            message = message.getDefinition();
             addIdentifiable(message);
             this.messages.add(message);
             return this;
         }
 
         public Builder withMessage(Message.Builder messageBuilder) {
+            if (this.deferValidation) {
+                try {
+                    return this.withMessage(messageBuilder.build());
+                } catch (ModelValidationException e) {
+                    this.deferredReport.addAll(e.getReport());
+                    return this;
+                }
+            }
             return this.withMessage(messageBuilder.build());
         }
 
+        /**
+         * Adds all given messages. The names of the whole batch are validated before any message is added; if one of
+         * the names already exists, the builder remains unchanged.
+         *
+         * @param messages the messages to add
+         * @return this builder
+         */
+        public Builder withMessages(Collection<Message> messages) {
+            List<Message> definitions = new ArrayList<>(messages.size());
+            for (Message message : messages) {
+                definitions.add(message.getDefinition());
+            }
+            addIdentifiables(definitions);
+            this.messages.addAll(definitions);
+            return this;
+        }
+
+        /**
+         * Adds the root messages of the given store (see {@link ColumnarMessageStore}). They are not materialized by
+         * the builder; their names are checked against the other root elements when the spec is built. Building the
+         * spec freezes the store (see {@link ColumnarMessageStore#isFrozen()}).
+         *
+         * @param messageStore the store containing the messages to add
+         * @return this builder
+         */
+        public Builder withMessageStore(ColumnarMessageStore messageStore) {
+            this.messageStore = messageStore;
+            return this;
+        }
+
         public Builder withEnum(Enum enumm) {
             addIdentifiable(enumm);
             this.enums.add(enumm);
@@ -162,9 +827,30 @@ public class ProtoSpec {
         }
 
         public Builder withEnum(Enum.Builder enumBuilder) {
+            if (this.deferValidation) {
+                try {
+                    return this.withEnum(enumBuilder.build());
+                } catch (ModelValidationException e) {
+                    this.deferredReport.addAll(e.getReport());
+                    return this;
+                }
+            }
             return this.withEnum(enumBuilder.build());
         }
 
+        /**
+         * Adds all given enums. The names of the whole batch are validated before any enum is added; if one of the
+         * names already exists, the builder remains unchanged.
+         *
+         * @param enums the enums to add
+         * @return this builder
+         */
+        public Builder withEnums(Collection<Enum> enums) {
+            addIdentifiables(enums);
+            this.enums.addAll(enums);
+            return this;
+        }
+
         public Builder withService(Service service) {
             addIdentifiable(service);
             this.services.add(service);
@@ -172,9 +858,30 @@ public class ProtoSpec {
         }
 
         public Builder withService(Service.Builder serviceBuilder) {
+            if (this.deferValidation) {
+                try {
+                    return this.withService(serviceBuilder.build());
+                } catch (ModelValidationException e) {
+                    this.deferredReport.addAll(e.getReport());
+                    return this;
+                }
+            }
             return this.withService(serviceBuilder.build());
         }
 
+        /**
+         * Adds all given services. The names of the whole batch are validated before any service is added; if one of
+         * the names already exists, the builder remains unchanged.
+         *
+         * @param services the services to add
+         * @return this builder
+         */
+        public Builder withServices(Collection<Service> services) {
+            addIdentifiables(services);
+            this.services.addAll(services);
+            return this;
+        }
+
         public Builder withImport(ImportStatement importStatement) {
             this.importStatements.add(importStatement);
             return this;
@@ -197,54 +904,110 @@ public class ProtoSpec {
             return this.withPackage(new FullIdentifier(packageName));
         }
 
+        Builder withComment(CharSequence comment) {
+            this.comment = comment;
+            return this;
+        }
+
         public Builder withComment(String comment) {
             this.comment = comment;
             return this;
         }
 
+        /**
+         * Sets a comment that is supplied on demand, when it is read first, instead of when the spec is built.
+         *
+         * @param comment the supplier of the comment
+         * @return this builder
+         */
+        public Builder withComment(Supplier<? extends CharSequence> comment) {
+            this.comment = new LazyComment(comment);
+            return this;
+        }
+
         private void addIdentifiable(Identifiable identifiable) {
-            if (this.allIdentifiableObjects.stream().anyMatch(m -> m.getIdentifier().equals(identifiable.getIdentifier())))
+            if (this.deferValidation) {
+                this.deferredRootElements.add(identifiable);
+                return;
+            }
+            if (this.rootElements.putIfAbsent(identifiable.getIdentifier(), identifiable) != null)
                 throw new RootElementAlreadyExistsException(identifiable.getIdentifier().toString());
-            this.allIdentifiableObjects.add(identifiable);
         }
 
-        public ProtoSpec build() {
-            ProtoSpec spec = new ProtoSpec();
-            spec.syntax = "proto3"; // currently we only support proto3
-            spec.messages = new LinkedList<>(this.messages);
-            spec.enums = new LinkedList<>(this.enums);
-            spec.services = new LinkedList<>(this.services);
-            spec.packageDef = this.packageDef;
-            spec.comment = this.comment;
-            if (containsAnyType())
-                addAnyTypeImport();
-            spec.importStatements = new LinkedList<>(this.importStatements);
-            return spec;
+        private void addIdentifiables(Collection<? extends Identifiable> identifiables) {
+            if (this.deferValidation) {
+                this.deferredRootElements.addAll(identifiables);
+                return;
+            }
+            Map<Identifier, Identifiable> batch = new HashMap<>((int) (identifiables.size() / 0.75f) + 1);
+            for (Identifiable identifiable : identifiables) {
+                if (this.rootElements.containsKey(identifiable.getIdentifier()) || batch.putIfAbsent(identifiable.getIdentifier(), identifiable) != null)
+                    throw new RootElementAlreadyExistsException(identifiable.getIdentifier().toString());
+            }
+            this.rootElements.putAll(batch);
         }
 
-        private boolean containsAnyType() {
-            for (Message message : this.messages) {
-                if (containsAnyType(message))
-                    return true;
+        /**
+         * Builds the spec. If the validation fails, the builder remains unchanged, so that calling build() again
+         * reports the same problems.
+         *
+         * @return the built spec
+         */
+        public ProtoSpec build() {
+            Map<Identifier, Identifiable> rootElements = validateDeferredRootElements();
+            validateMessageStore(rootElements);
+            List<Message> messages = Collections.unmodifiableList(new ArrayList<>(this.messages));
+            ProtoSpec spec = new ProtoSpec(messages, this.messageStore,
+                    Collections.unmodifiableList(new ArrayList<>(this.enums)),
+                    Collections.unmodifiableList(new ArrayList<>(this.services)),
+                    Collections.unmodifiableList(new ArrayList<>(this.importStatements)),
+                    new HashMap<>(rootElements), null, this.packageDef, this.comment);
+            if (this.strictTypeResolution) {
+                ValidationReport report = spec.validateTypeReferences();
+                if (!report.isValid())
+                    throw new ModelValidationException(report);
             }
-            return false;
+            if (rootElements != this.rootElements) {
+                this.rootElements.putAll(rootElements);
+                this.deferredRootElements.clear();
+            }
+            if (this.messageStore != null)
+                this.messageStore.freeze(); // the spec relies on the names and imports checked above
+            return spec;
         }
 
-        private boolean containsAnyType(Message message) {
-            for (MessageField field : message.getFields()) {
-                if (field.getType().equals(AnyType.ANY_TYPE_NAME))
-                    return true;
+        /**
+         * Returns the root elements including the deferred ones, without changing the builder.
+         */
+        private Map<Identifier, Identifiable> validateDeferredRootElements() {
+            if (this.deferredRootElements.isEmpty() && this.deferredReport.isValid())
+                return this.rootElements;
+            ValidationReport report = new ValidationReport();
+            report.addAll(this.deferredReport);
+            Map<Identifier, Identifiable> rootElements = new HashMap<>(this.rootElements);
+            for (Identifiable identifiable : this.deferredRootElements) {
+                if (rootElements.putIfAbsent(identifiable.getIdentifier(), identifiable) != null)
+                    report.add(ValidationProblem.of(identifiable.getIdentifier().toString(), RootElementAlreadyExistsException.class, () -> new RootElementAlreadyExistsException(identifiable.getIdentifier().toString())));
             }
-            for (Message nested : message.getNestedMessages()) {
-                if (containsAnyType(nested))
-                    return true;
-            }
-            return false;
+            if (!report.isValid())
+                throw new ModelValidationException(report);
+            return rootElements;
         }
 
-        private void addAnyTypeImport() {
-            if (!this.importStatements.stream().anyMatch(i -> i.getFileName().equals(ANY_TYPE_IMPORT)))
-                this.importStatements.add(new ImportStatement(ANY_TYPE_IMPORT));
+        private void validateMessageStore(Map<Identifier, Identifiable> rootElements) {
+            if (this.messageStore == null)
+                return;
+            ValidationReport report = new ValidationReport();
+            for (int i = 0; i < this.messageStore.getRootMessageCount(); i++) {
+                String name = this.messageStore.getRootMessageName(i);
+                if (!rootElements.containsKey(Identifier.of(name)))
+                    continue;
+                if (!this.deferValidation)
+                    throw new RootElementAlreadyExistsException(name);
+                report.add(ValidationProblem.of(name, RootElementAlreadyExistsException.class, () -> new RootElementAlreadyExistsException(name)));
+            }
+            if (!report.isValid())
+                throw new ModelValidationException(report);
         }
 
     }
@@ -15,7 +15,7 @@
  */
 package io.github.microserviceapipatterns.protobufgen.model;
 
-import java.util.Objects;
+import java.util.function.Supplier;
 
 /**
  * Represents a protocol buffer RPC call.
@@ -24,15 +24,21 @@ import java.util.Objects;
  */
 public class RemoteProcedureCall implements Identifiable {
 
-    private Identifier name;
-    private Message input;
-    private Message output;
-    private boolean streamInput;
-    private boolean streamOutput;
-    private String comment;
+    private final Identifier name;
+    private final FieldType input;
+    private final FieldType output;
+    private final boolean streamInput;
+    private final boolean streamOutput;
+    private final CharSequence comment;
 
-    private RemoteProcedureCall() {
+    private RemoteProcedureCall(Builder builder) {
         // use builder to create rpc
+        this.name = builder.name;
+        this.input = builder.input;
+        this.output = builder.output;
+        this.streamInput = builder.inputStreamed;
+        this.streamOutput = builder.outputStreamed;
+        this.comment = builder.comment;
     }
 
     /**
@@ -57,18 +63,38 @@ public class RemoteProcedureCall implements Identifiable {
     /**
      * Returns the message that is passed to the rpc as input/parameter.
      *
-     * @return the message that is passed to the rpc as input/parameter
+     * @return the message that is passed to the rpc as input/parameter, or null if the input is a
+     * {@link TypeReference} (see {@link #getInputType()})
      */
     public Message getInput() {
-        return input;
+        return input instanceof Message ? (Message) input : null;
     }
 
     /**
      * Returns the message that is returned by the rpc.
      *
-     * @return the message that is returned by the rpc
+     * @return the message that is returned by the rpc, or null if the output is a {@link TypeReference} (see
+     * {@link #getOutputType()})
      */
     public Message getOutput() {
+        return output instanceof Message ? (Message) output : null;
+    }
+
+    /**
+     * Returns the type (a message or a reference to a message of another file) that is passed to the rpc as input.
+     *
+     * @return the input type of the rpc
+     */
+    public FieldType getInputType() {
+        return input;
+    }
+
+    /**
+     * Returns the type (a message or a reference to a message of another file) that is returned by the rpc.
+     *
+     * @return the output type of the rpc
+     */
+    public FieldType getOutputType() {
         return output;
     }
 
@@ -96,19 +122,35 @@ public class RemoteProcedureCall implements Identifiable {
      * @return the comment for the represented rpc
      */
     public String getComment() {
-        return comment;
+        return comment != null ? comment.toString() : null;
     }
 
     public static class Builder {
         private final Identifier name;
-        private final Message input;
-        private final Message output;
+        private final FieldType input;
+        private final FieldType output;
         private boolean inputStreamed = false;
         private boolean outputStreamed = false;
-        private String comment;
+        private CharSequence comment;
 
         public Builder(String name, Message input, Message output) {
-            this.name = new Identifier(name);
+            this(name, (FieldType) input, output);
+        }
+
+        public Builder(String name, TypeReference input, Message output) {
+            this(name, (FieldType) input, output);
+        }
+
+        public Builder(String name, Message input, TypeReference output) {
+            this(name, (FieldType) input, output);
+        }
+
+        public Builder(String name, TypeReference input, TypeReference output) {
+            this(name, (FieldType) input, output);
+        }
+
+        private Builder(String name, FieldType input, FieldType output) {
+            this.name = Identifier.of(name);
             this.input = input;
             this.output = output;
             this.comment = "";
@@ -129,15 +171,19 @@ public class RemoteProcedureCall implements Identifiable {
             return this;
         }
 
+        /**
+         * Sets a comment that is supplied on demand, when it is read first, instead of when the RPC is built.
+         *
+         * @param comment the supplier of the comment
+         * @return this builder
+         */
+        public Builder withComment(Supplier<? extends CharSequence> comment) {
+            this.comment = new LazyComment(comment);
+            return this;
+        }
+
         public RemoteProcedureCall build() {
-            RemoteProcedureCall rpc = new RemoteProcedureCall();
-            rpc.name = this.name;
-            rpc.input = this.input;
-            rpc.output = this.output;
-            rpc.streamInput = this.inputStreamed;
-            rpc.streamOutput = this.outputStreamed;
-            rpc.comment = this.comment;
-            return rpc;
+            return new RemoteProcedureCall(this);
         }
     }
 
@@ -151,6 +197,6 @@ public class RemoteProcedureCall implements Identifiable {
 
     @Override
     public int hashCode() {
-        return Objects.hash(name);
+        return name.hashCode();
     }
 }
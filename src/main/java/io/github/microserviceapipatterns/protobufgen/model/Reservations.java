@@ -0,0 +1,99 @@
+/*
+ * Copyright 2020 Stefan Kapferer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.microserviceapipatterns.protobufgen.model;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * The reserved field numbers and names of a message. Ranges are sorted and merged, so that a number can be looked up
+ * with a binary search.
+ *
+ * @author Stefan Kapferer
+ */
+final class Reservations {
+
+    static final Reservations NONE = new Reservations(Collections.emptyList(), Collections.emptySet());
+
+    private final List<ReservedRange> ranges;
+    private final Set<String> names;
+
+    private Reservations(List<ReservedRange> ranges, Set<String> names) {
+        this.ranges = ranges;
+        this.names = names;
+    }
+
+    static Reservations of(Collection<ReservedRange> ranges, Collection<String> names) {
+        if (ranges.isEmpty() && names.isEmpty())
+            return NONE;
+        List<ReservedRange> sorted = new ArrayList<>(ranges);
+        Collections.sort(sorted);
+        List<ReservedRange> merged = new ArrayList<>(sorted.size());
+        for (ReservedRange range : sorted) {
+            ReservedRange last = merged.isEmpty() ? null : merged.get(merged.size() - 1);
+            if (last != null && range.getFrom() <= (long) last.getTo() + 1)
+                merged.set(merged.size() - 1, new ReservedRange(last.getFrom(), Math.max(last.getTo(), range.getTo())));
+            else
+                merged.add(range);
+        }
+        return new Reservations(Collections.unmodifiableList(merged), Collections.unmodifiableSet(new LinkedHashSet<>(names)));
+    }
+
+    List<ReservedRange> getRanges() {
+        return ranges;
+    }
+
+    Set<String> getNames() {
+        return names;
+    }
+
+    boolean containsNumber(int number) {
+        int low = 0;
+        int high = ranges.size() - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            ReservedRange range = ranges.get(mid);
+            if (range.getTo() < number)
+                low = mid + 1;
+            else if (range.getFrom() > number)
+                high = mid - 1;
+            else
+                return true;
+        }
+        return false;
+    }
+
+    boolean containsName(String name) {
+        return names.contains(name);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        Reservations that = (Reservations) o;
+        return ranges.equals(that.ranges) && names.equals(that.names);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * ranges.hashCode() + names.hashCode();
+    }
+}
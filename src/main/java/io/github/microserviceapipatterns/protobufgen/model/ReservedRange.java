@@ -0,0 +1,102 @@
+/*
+ * Copyright 2020 Stefan Kapferer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.microserviceapipatterns.protobufgen.model;
+
+import io.github.microserviceapipatterns.protobufgen.exception.FieldNumberOutOfRangeException;
+
+/**
+ * Represents a range of reserved field numbers (rendered as "reserved 5 to 9;" into the message definition).
+ *
+ * @author Stefan Kapferer
+ */
+public class ReservedRange implements Comparable<ReservedRange> {
+
+    static final int MAX = 536870911;
+
+    private final int from;
+    private final int to;
+
+    public ReservedRange(int from, int to) {
+        if (from < 1 || from > MAX)
+            throw new FieldNumberOutOfRangeException(from);
+        if (to < from || to > MAX)
+            throw new FieldNumberOutOfRangeException(to);
+        this.from = from;
+        this.to = to;
+    }
+
+    public ReservedRange(int number) {
+        this(number, number);
+    }
+
+    /**
+     * Returns the first reserved number.
+     *
+     * @return the first number of the range (inclusive)
+     */
+    public int getFrom() {
+        return from;
+    }
+
+    /**
+     * Returns the last reserved number.
+     *
+     * @return the last number of the range (inclusive)
+     */
+    public int getTo() {
+        return to;
+    }
+
+    /**
+     * Checks whether the given number is reserved by this range.
+     *
+     * @param number the field number
+     * @return true if the number is inside this range, false otherwise
+     */
+    public boolean contains(int number) {
+        return number >= from && number <= to;
+    }
+
+    @Override
+    public int compareTo(ReservedRange other) {
+        return Integer.compare(from, other.from);
+    }
+
+    /**
+     * Returns the range as it is written in a reserved statement: "5", "5 to 9", or "5 to max".
+     *
+     * @return the range in proto syntax
+     */
+    @Override
+    public String toString() {
+        if (from == to)
+            return String.valueOf(from);
+        return from + " to " + (to == MAX ? "max" : String.valueOf(to));
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        ReservedRange that = (ReservedRange) o;
+        return from == that.from && to == that.to;
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * from + to;
+    }
+}
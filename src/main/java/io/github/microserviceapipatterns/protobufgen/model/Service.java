@@ -15,11 +15,19 @@
  */
 package io.github.microserviceapipatterns.protobufgen.model;
 
+import io.github.microserviceapipatterns.protobufgen.exception.ModelValidationException;
 import io.github.microserviceapipatterns.protobufgen.exception.RemoteProcedureCallAlreadyExistsException;
+import io.github.microserviceapipatterns.protobufgen.exception.ValidationProblem;
+import io.github.microserviceapipatterns.protobufgen.exception.ValidationReport;
 
-import java.util.HashSet;
-import java.util.Objects;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.function.Supplier;
 
 /**
  * Represents a protocol buffer service.
@@ -28,12 +36,17 @@ import java.util.Set;
  */
 public class Service implements Identifiable {
 
-    private Identifier name;
-    private String comment;
-    private Set<RemoteProcedureCall> rpcs;
+    private final Identifier name;
+    private final CharSequence comment;
+    private final Map<String, RemoteProcedureCall> rpcsByName;
+    private final Set<RemoteProcedureCall> rpcs;
 
-    private Service() {
+    private Service(Identifier name, CharSequence comment, Map<String, RemoteProcedureCall> rpcsByName) {
         // use builder to create service
+        this.name = name;
+        this.comment = comment;
+        this.rpcsByName = rpcsByName;
+        this.rpcs = Collections.unmodifiableSet(new LinkedHashSet<>(rpcsByName.values()));
     }
 
     /**
@@ -61,27 +74,114 @@ public class Service implements Identifiable {
      * @return the comment for the represented service
      */
     public String getComment() {
-        return comment;
+        return comment != null ? comment.toString() : null;
     }
 
     /**
-     * Returns a set with the RPCs of the represented service.
+     * Returns an unmodifiable set with the RPCs of the represented service (in the order they have been added).
      *
      * @return a set with the RPCs of the represented service
      */
     public Set<RemoteProcedureCall> getRemoteProcedureCalls() {
-        return new HashSet<>(rpcs);
+        return rpcs;
+    }
+
+    /**
+     * Returns the RPC with the given name.
+     *
+     * @param name the name of the RPC
+     * @return the RPC with the given name, or null if the service does not contain such an RPC
+     */
+    public RemoteProcedureCall getRemoteProcedureCall(String name) {
+        return rpcsByName.get(name);
+    }
+
+    /**
+     * Returns a builder initialized with the comment and RPCs of this service. The RPCs are shared with this service.
+     *
+     * @return a new builder to create a modified copy of this service
+     */
+    public Builder toBuilder() {
+        Builder builder = new Builder(name.toString());
+        builder.comment = comment;
+        builder.rpcs.putAll(rpcsByName);
+        return builder;
+    }
+
+    /**
+     * Returns a copy of this service with the given RPC added. This service remains unchanged; all other RPCs are
+     * shared with the copy.
+     *
+     * @param rpc the RPC to add
+     * @return a new service containing the RPCs of this service plus the given RPC
+     */
+    public Service withRPCAdded(RemoteProcedureCall rpc) {
+        if (rpcsByName.containsKey(rpc.getName()))
+            throw new RemoteProcedureCallAlreadyExistsException(rpc.getName());
+        Map<String, RemoteProcedureCall> newRPCsByName = new LinkedHashMap<>(this.rpcsByName);
+        newRPCsByName.put(rpc.getName(), rpc);
+        return new Service(name, comment, newRPCsByName);
     }
 
     public static class Builder {
-        private final Identifier name;
-        private String comment;
-        private final Set<RemoteProcedureCall> rpcs;
+        private static final ThreadLocal<Builder> THREAD_LOCAL_BUILDER = new ThreadLocal<>();
+
+        private Identifier name;
+        private CharSequence comment;
+        private final Map<String, RemoteProcedureCall> rpcs;
+        private final List<RemoteProcedureCall> deferredRPCs;
+        private boolean deferValidation = false;
 
         public Builder(String serviceName) {
-            this.name = new Identifier(serviceName);
+            this.name = Identifier.of(serviceName);
+            this.comment = "";
+            this.rpcs = new LinkedHashMap<>();
+            this.deferredRPCs = new ArrayList<>();
+        }
+
+        /**
+         * Returns the service builder of the calling thread, reset to the given name (see {@link #reset(String)}).
+         * The returned builder must not be used anymore once this method is called again in the same thread.
+         *
+         * @param serviceName the name of the service to build
+         * @return the reset builder of the calling thread
+         */
+        public static Builder threadLocal(String serviceName) {
+            Builder builder = THREAD_LOCAL_BUILDER.get();
+            if (builder == null) {
+                builder = new Builder(serviceName);
+                THREAD_LOCAL_BUILDER.set(builder);
+                return builder;
+            }
+            return builder.reset(serviceName);
+        }
+
+        /**
+         * Resets this builder to build another service with the given name, as if it was newly created. The internal
+         * collections are cleared but kept, so that builders can be reused without allocating them again.
+         *
+         * @param serviceName the name of the service to build
+         * @return this builder
+         */
+        public Builder reset(String serviceName) {
+            this.name = Identifier.of(serviceName);
             this.comment = "";
-            this.rpcs = new HashSet<>();
+            this.rpcs.clear();
+            this.deferredRPCs.clear();
+            this.deferValidation = false;
+            return this;
+        }
+
+        /**
+         * Defers the validation of RPCs to {@link #build()}: RPCs are recorded without any checks and validated in one
+         * pass when the service is built. Instead of failing at the first problem, build() reports all problems at
+         * once (see {@link ModelValidationException}).
+         *
+         * @return this builder
+         */
+        public Builder withDeferredValidation() {
+            this.deferValidation = true;
+            return this;
         }
 
         public Builder withComment(String comment) {
@@ -89,10 +189,24 @@ public class Service implements Identifiable {
             return this;
         }
 
+        /**
+         * Sets a comment that is supplied on demand, when it is read first, instead of when the service is built.
+         *
+         * @param comment the supplier of the comment
+         * @return this builder
+         */
+        public Builder withComment(Supplier<? extends CharSequence> comment) {
+            this.comment = new LazyComment(comment);
+            return this;
+        }
+
         public Builder withRPC(RemoteProcedureCall rpc) {
-            if (this.rpcs.stream().anyMatch(c -> c.getName().equals(rpc.getName())))
+            if (this.deferValidation) {
+                this.deferredRPCs.add(rpc);
+                return this;
+            }
+            if (this.rpcs.putIfAbsent(rpc.getName(), rpc) != null)
                 throw new RemoteProcedureCallAlreadyExistsException(rpc.getName());
-            this.rpcs.add(rpc);
             return this;
         }
 
@@ -100,12 +214,34 @@ public class Service implements Identifiable {
             return this.withRPC(rpcBuilder.build());
         }
 
+        /**
+         * Builds the service. If the validation fails, the builder remains unchanged, so that calling build() again
+         * reports the same problems.
+         *
+         * @return the built service
+         */
         public Service build() {
-            Service service = new Service();
-            service.name = this.name;
-            service.comment = this.comment;
-            service.rpcs = new HashSet<>(this.rpcs);
-            return service;
+            validateDeferredRPCs();
+            return new Service(this.name, this.comment, new LinkedHashMap<>(this.rpcs));
+        }
+
+        /**
+         * Validates the deferred RPCs and adds them if all of them are valid; otherwise, the builder remains
+         * unchanged.
+         */
+        private void validateDeferredRPCs() {
+            if (this.deferredRPCs.isEmpty())
+                return;
+            ValidationReport report = new ValidationReport();
+            Map<String, RemoteProcedureCall> accepted = new LinkedHashMap<>();
+            for (RemoteProcedureCall rpc : this.deferredRPCs) {
+                if (this.rpcs.containsKey(rpc.getName()) || accepted.putIfAbsent(rpc.getName(), rpc) != null)
+                    report.add(ValidationProblem.of(this.name + "." + rpc.getName(), RemoteProcedureCallAlreadyExistsException.class, () -> new RemoteProcedureCallAlreadyExistsException(rpc.getName())));
+            }
+            if (!report.isValid())
+                throw new ModelValidationException(report);
+            this.rpcs.putAll(accepted);
+            this.deferredRPCs.clear();
         }
     }
 
@@ -119,6 +255,6 @@ public class Service implements Identifiable {
 
     @Override
     public int hashCode() {
-        return Objects.hash(name);
+        return name.hashCode();
     }
 }
@@ -0,0 +1,42 @@
+/*
+ * Copyright 2020 Stefan Kapferer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.microserviceapipatterns.protobufgen.model;
+
+/**
+ * Model elements that can be compared by their content (all names, numbers, types, comments, and children), not only
+ * by their name as in equals(). The structural hash is computed once when the element is built.
+ *
+ * @param <T> the type of the element
+ * @author Stefan Kapferer
+ */
+interface StructuralElement<T> {
+
+    /**
+     * Returns a hash over the whole content of the element, including its children.
+     *
+     * @return the structural hash of the element
+     */
+    int structuralHash();
+
+    /**
+     * Compares the whole content of this element (including its children) with the given element.
+     *
+     * @param other the element to compare with
+     * @return true if both elements have the same content, false otherwise
+     */
+    boolean structurallyEquals(T other);
+
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright 2020 Stefan Kapferer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.microserviceapipatterns.protobufgen.model;
+
+import java.util.List;
+import java.util.function.Supplier;
+
+/**
+ * Entry of the symbol table of a spec (see {@link ProtoSpec#resolve(String)}): a message, enum, or service together
+ * with its full identifier and the messages it is nested in. Symbols of messages of a {@link ColumnarMessageStore}
+ * materialize the message and the messages it is nested in on first access.
+ *
+ * @author Stefan Kapferer
+ */
+public class Symbol {
+
+    private final FullIdentifier fullIdentifier;
+    private final boolean nested;
+    private Supplier<Symbol> materializer;
+    private volatile Identifiable element;
+    private volatile List<Message> enclosingMessages;
+
+    Symbol(FullIdentifier fullIdentifier, Identifiable element, List<Message> enclosingMessages) {
+        this.fullIdentifier = fullIdentifier;
+        this.nested = !enclosingMessages.isEmpty();
+        this.element = element;
+        this.enclosingMessages = enclosingMessages;
+    }
+
+    /**
+     * Creates a symbol whose element is materialized on first access, by the symbol returned by the materializer.
+     */
+    Symbol(FullIdentifier fullIdentifier, boolean nested, Supplier<Symbol> materializer) {
+        this.fullIdentifier = fullIdentifier;
+        this.nested = nested;
+        this.materializer = materializer;
+    }
+
+    /**
+     * Returns the full identifier of the element within its spec (without the package).
+     *
+     * @return the full identifier of the element
+     */
+    public FullIdentifier getFullIdentifier() {
+        return fullIdentifier;
+    }
+
+    /**
+     * Returns the message, enum, or service.
+     *
+     * @return the element of this symbol
+     */
+    public Identifiable getElement() {
+        Identifiable result = element;
+        if (result == null) {
+            materialize();
+            result = element;
+        }
+        return result;
+    }
+
+    /**
+     * Returns the messages the element is nested in, starting with the root message.
+     *
+     * @return an unmodifiable list with the enclosing messages; empty for root elements
+     */
+    public List<Message> getEnclosingMessages() {
+        List<Message> result = enclosingMessages;
+        if (result == null) {
+            materialize();
+            result = enclosingMessages;
+        }
+        return result;
+    }
+
+    /**
+     * Indicates whether the element is nested in a message.
+     *
+     * @return true if the element is nested, false if it is a root element
+     */
+    public boolean isNested() {
+        return nested;
+    }
+
+    private synchronized void materialize() {
+        if (element != null)
+            return;
+        Symbol materialized = materializer.get();
+        enclosingMessages = materialized.enclosingMessages;
+        element = materialized.element;
+        materializer = null;
+    }
+
+    @Override
+    public String toString() {
+        return fullIdentifier.toString();
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright 2020 Stefan Kapferer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.microserviceapipatterns.protobufgen.model;
+
+import java.util.Objects;
+
+/**
+ * Reference to a message or enum by its full name, for types defined in other *.proto files. Fields and RPCs can use
+ * the referenced type without the model of the other file; if an import path is given, the spec using the reference
+ * imports it automatically.
+ *
+ * @author Stefan Kapferer
+ */
+public class TypeReference implements FieldType {
+
+    private final FullIdentifier fullIdentifier;
+    private final String importPath;
+
+    public TypeReference(FullIdentifier fullIdentifier, String importPath) {
+        this.fullIdentifier = Objects.requireNonNull(fullIdentifier);
+        this.importPath = importPath;
+    }
+
+    public TypeReference(String fullName, String importPath) {
+        this(new FullIdentifier(fullName), importPath);
+    }
+
+    public TypeReference(String fullName) {
+        this(new FullIdentifier(fullName), null);
+    }
+
+    /**
+     * Returns the full name of the referenced type, as it is written in the spec.
+     *
+     * @return the full name of the referenced type
+     */
+    @Override
+    public String getName() {
+        return fullIdentifier.toString();
+    }
+
+    /**
+     * Returns the full identifier of the referenced type.
+     *
+     * @return the full identifier of the referenced type
+     */
+    public FullIdentifier getFullIdentifier() {
+        return fullIdentifier;
+    }
+
+    /**
+     * Returns the path of the file defining the referenced type.
+     *
+     * @return the import path, or null if the type does not require an import
+     */
+    public String getImportPath() {
+        return importPath;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        TypeReference that = (TypeReference) o;
+        return fullIdentifier.equals(that.fullIdentifier) && Objects.equals(importPath, that.importPath);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * fullIdentifier.hashCode() + Objects.hashCode(importPath);
+    }
+
+    @Override
+    public String toString() {
+        return fullIdentifier.toString();
+    }
+}
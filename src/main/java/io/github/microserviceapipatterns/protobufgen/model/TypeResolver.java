@@ -0,0 +1,151 @@
+/*
+ * Copyright 2020 Stefan Kapferer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.microserviceapipatterns.protobufgen.model;
+
+import io.github.microserviceapipatterns.protobufgen.exception.AmbiguousTypeException;
+import io.github.microserviceapipatterns.protobufgen.exception.ShadowedTypeException;
+import io.github.microserviceapipatterns.protobufgen.exception.UnresolvedTypeException;
+import io.github.microserviceapipatterns.protobufgen.exception.ValidationProblem;
+import io.github.microserviceapipatterns.protobufgen.exception.ValidationReport;
+
+/**
+ * Resolves the types used by the fields and RPCs of a spec against its symbol table, the way protoc resolves type
+ * names: relative names are searched from the innermost scope (the referencing message) outwards.
+ *
+ * @author Stefan Kapferer
+ */
+final class TypeResolver {
+
+    private final ProtoSpec spec;
+    private final ValidationReport report;
+
+    TypeResolver(ProtoSpec spec) {
+        this.spec = spec;
+        this.report = new ValidationReport();
+    }
+
+    ValidationReport validate() {
+        for (Message message : spec.getObjectMessages()) {
+            validateMessage(message, message.getName());
+        }
+        ColumnarMessageStore store = spec.getMessageStore();
+        if (store != null) {
+            for (int message = 0; message < store.getMessageCount(); message++) {
+                validateStoredMessage(store, message);
+            }
+        }
+        for (Service service : spec.getServices()) {
+            for (RemoteProcedureCall rpc : service.getRemoteProcedureCalls()) {
+                String path = service.getName() + "." + rpc.getName();
+                validateType(rpc.getInputType(), null, path);
+                validateType(rpc.getOutputType(), null, path);
+            }
+        }
+        return report;
+    }
+
+    private void validateMessage(Message message, String scope) {
+        for (MessageField field : message.getFieldArray()) {
+            validateType(field.getFieldType(), scope, scope + "." + field.getName());
+        }
+        for (Message nested : message.getNestedMessages()) {
+            validateMessage(nested, scope + "." + nested.getSimpleName());
+        }
+    }
+
+    private void validateStoredMessage(ColumnarMessageStore store, int message) {
+        String scope = store.getFullIdentifier(message);
+        for (int field = store.getFirstField(message); field >= 0; field = store.getNextField(field)) {
+            String path = scope + "." + store.getFieldName(field);
+            int typeMessage = store.getFieldTypeMessage(field);
+            if (typeMessage < 0) {
+                validateType(store.getFieldType(field), scope, path);
+                continue;
+            }
+            String typeName = store.getFullIdentifier(typeMessage);
+            String shadowingName = findShadowingName(typeName, scope, true);
+            if (shadowingName != null)
+                report.add(ValidationProblem.of(path, ShadowedTypeException.class, () -> new ShadowedTypeException(typeName, shadowingName)));
+        }
+    }
+
+    private void validateType(FieldType type, String scope, String path) {
+        String typeName;
+        boolean local;
+        if (type instanceof Message || type instanceof Enum) {
+            typeName = spec.getTypeName(type);
+            Symbol symbol = spec.lookup(typeName);
+            if (symbol == null) {
+                report.add(ValidationProblem.of(path, UnresolvedTypeException.class, () -> new UnresolvedTypeException(typeName)));
+                return;
+            }
+            if (!isSameDefinition(symbol.getElement(), type)) {
+                report.add(ValidationProblem.of(path, AmbiguousTypeException.class, () -> new AmbiguousTypeException(typeName)));
+                return;
+            }
+            local = true;
+        } else if (type instanceof TypeReference) {
+            TypeReference reference = (TypeReference) type;
+            typeName = reference.getName();
+            local = spec.canResolve(typeName);
+            boolean imported = reference.getImportPath() != null;
+            if (!local && !imported) {
+                report.add(ValidationProblem.of(path, UnresolvedTypeException.class, () -> new UnresolvedTypeException(typeName)));
+                return;
+            }
+            if (local && imported) {
+                report.add(ValidationProblem.of(path, AmbiguousTypeException.class, () -> new AmbiguousTypeException(typeName)));
+                return;
+            }
+        } else {
+            return; // scalar and well-known types
+        }
+        String shadowingName = findShadowingName(typeName, scope, local);
+        if (shadowingName != null)
+            report.add(ValidationProblem.of(path, ShadowedTypeException.class, () -> new ShadowedTypeException(typeName, shadowingName)));
+    }
+
+    /**
+     * Searches the scopes between the referencing message and the root for an element named like the first part of
+     * the type name; protoc would continue the resolution of the name in the innermost such element. For types of
+     * other files, an element at the root shadows the type as well.
+     */
+    private String findShadowingName(String typeName, String scope, boolean local) {
+        int dot = typeName.indexOf('.');
+        String firstPart = dot < 0 ? typeName : typeName.substring(0, dot);
+        while (scope != null) {
+            String candidate = scope + "." + firstPart;
+            if (spec.contains(candidate))
+                return candidate;
+            int lastDot = scope.lastIndexOf('.');
+            scope = lastDot < 0 ? null : scope.substring(0, lastDot);
+        }
+        if (!local && spec.contains(firstPart))
+            return firstPart;
+        return null;
+    }
+
+    private static boolean isSameDefinition(Identifiable element, FieldType type) {
+        if (element == type)
+            return true;
+        if (element instanceof Message && type instanceof Message)
+            return ((Message) element).structurallyEquals((Message) type);
+        if (element instanceof Enum && type instanceof Enum)
+            return ((Enum) element).structurallyEquals((Enum) type);
+        return false;
+    }
+
+}
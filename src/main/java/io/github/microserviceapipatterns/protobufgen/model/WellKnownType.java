@@ -0,0 +1,96 @@
+/*
+ * Copyright 2020 Stefan Kapferer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.microserviceapipatterns.protobufgen.model;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Types that are not defined in the generated proto spec, but require an import of a well-known proto file. Every
+ * type is represented by one bit, so that messages can summarize the types used in their subtree within a single long.
+ *
+ * @author Stefan Kapferer
+ */
+enum WellKnownType {
+
+    ANY(AnyType.ANY_TYPE_NAME, AnyType.ANY_TYPE_IMPORT);
+
+    /**
+     * Not a well-known type: set for subtrees containing fields of {@link TypeReference}s with import paths, so that
+     * only these subtrees have to be searched for the imports.
+     */
+    static final long TYPE_REFERENCE_IMPORTS = 1L << 62;
+
+    private static final Map<String, WellKnownType> TYPES_BY_NAME = new HashMap<>();
+
+    static {
+        for (WellKnownType type : values()) {
+            TYPES_BY_NAME.put(type.typeName, type);
+        }
+    }
+
+    private final String typeName;
+    private final String importFileName;
+
+    WellKnownType(String typeName, String importFileName) {
+        this.typeName = typeName;
+        this.importFileName = importFileName;
+    }
+
+    /**
+     * Returns the file that has to be imported to use this type.
+     *
+     * @return the file name of the import
+     */
+    String getImportFileName() {
+        return importFileName;
+    }
+
+    /**
+     * Returns the bit representing this type.
+     *
+     * @return a long with the bit of this type set
+     */
+    long mask() {
+        return 1L << ordinal();
+    }
+
+    /**
+     * Returns the bits of the given field type: the bit of the well-known type, and
+     * {@link #TYPE_REFERENCE_IMPORTS} for type references that require an import.
+     *
+     * @param type a field type
+     * @return a long with the bits of the given type set
+     */
+    static long maskOf(FieldType type) {
+        long mask = maskOf(type.getName());
+        if (type instanceof TypeReference && ((TypeReference) type).getImportPath() != null)
+            mask |= TYPE_REFERENCE_IMPORTS;
+        return mask;
+    }
+
+    /**
+     * Returns the bit of the well-known type with the given name.
+     *
+     * @param typeName the name of a field type
+     * @return a long with the bit of the well-known type set, or 0 if the given type is not a well-known type
+     */
+    static long maskOf(String typeName) {
+        WellKnownType type = TYPES_BY_NAME.get(typeName);
+        return type != null ? type.mask() : 0L;
+    }
+
+}
@@ -20,10 +20,12 @@ import freemarker.template.Template;
 import io.github.microserviceapipatterns.protobufgen.exception.ProtoSerializationException;
 import io.github.microserviceapipatterns.protobufgen.model.ProtoSpec;
 
+import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.StringWriter;
+import java.io.Writer;
 
 import static freemarker.template.Configuration.VERSION_2_3_30;
 
@@ -35,24 +37,35 @@ import static freemarker.template.Configuration.VERSION_2_3_30;
 public class ProtoSpecSerializer {
 
     public String serialize(ProtoSpec spec) {
+        StringWriter writer = new StringWriter();
+        serialize(spec, writer);
+        return writer.toString();
+    }
+
+    /**
+     * Serializes the given spec into the given writer. The proto file is streamed into the writer while the spec is
+     * rendered; it is never held in memory as a whole.
+     *
+     * @param spec   the spec to serialize
+     * @param writer the writer to write the proto file to
+     */
+    public void serialize(ProtoSpec spec, Writer writer) {
         Configuration cfg = new Configuration(VERSION_2_3_30);
         cfg.setClassLoaderForTemplateLoading(getClass().getClassLoader(), "template");
         cfg.setDefaultEncoding("UTF-8");
 
         try {
             Template template = cfg.getTemplate("proto.ftl");
-            StringWriter writer = new StringWriter();
             template.process(spec, writer);
-            return writer.toString();
         } catch (Exception e) {
             throw new ProtoSerializationException(e);
         }
     }
 
     public void writeToFile(ProtoSpec spec, File file) throws IOException {
-        FileWriter writer = new FileWriter(file);
-        writer.write(serialize(spec));
-        writer.close();
+        try (Writer writer = new BufferedWriter(new FileWriter(file))) {
+            serialize(spec, writer);
+        }
     }
 
 }
@@ -1,5 +1,6 @@
-<#if comment?has_content>
-/* ${comment} */
+<#assign specComment = comment!>
+<#if specComment?has_content>
+/* ${specComment} */
 
 </#if>
 syntax = "${syntax}";
@@ -15,13 +16,21 @@ import <#if import.isPublic()>public </#if>"${import.fileName}";
 
 </#if>
 <#macro renderMessage message indent>
-<#if message.comment?has_content>
-${""?left_pad(indent * 2)}/* ${message.comment} */
+<#local messageComment = message.comment!>
+<#if messageComment?has_content>
+${""?left_pad(indent * 2)}/* ${messageComment} */
 </#if>
 ${""?left_pad(indent * 2)}message ${message.simpleName} {
+<#if message.reservedRanges?has_content>
+${""?left_pad((indent + 1) * 2)}reserved <#list message.reservedRanges as range>${range}<#sep>, </#sep></#list>;
+</#if>
+<#if message.reservedNames?has_content>
+${""?left_pad((indent + 1) * 2)}reserved <#list message.reservedNames as reservedName>"${reservedName}"<#sep>, </#sep></#list>;
+</#if>
 <#if message.fields?has_content>
 <#list message.fields as field>
-${""?left_pad((indent + 1) * 2)}<#if field.repeated>repeated </#if>${field.type} ${field.name} = ${field.number};<#if field.comment?has_content> // ${field.comment}</#if>
+<#local fieldComment = field.comment!>
+${""?left_pad((indent + 1) * 2)}<#if field.repeated>repeated </#if>${getTypeName(field)} ${field.name} = ${field.number};<#if fieldComment?has_content> // ${fieldComment}</#if>
 </#list>
 </#if>
 <#if message.getNestedMessages()?has_content>
@@ -37,23 +46,27 @@ ${""?left_pad(indent * 2)}}
 
 </#list>
 <#list enums as enum>
-<#if enum.comment?has_content>
-/* ${enum.comment} */
+<#assign enumComment = enum.comment!>
+<#if enumComment?has_content>
+/* ${enumComment} */
 </#if>
 enum ${enum.name} {
   <#list enum.fields as field>
-  ${field.name} = ${field.value};<#if field.comment?has_content> // ${field.comment}</#if>
+  <#assign fieldComment = field.comment!>
+  ${field.name} = ${field.value};<#if fieldComment?has_content> // ${fieldComment}</#if>
   </#list>
 }
 
 </#list>
 <#list services as service>
-<#if service.comment?has_content>
-/* ${service.comment} */
+<#assign serviceComment = service.comment!>
+<#if serviceComment?has_content>
+/* ${serviceComment} */
 </#if>
 service ${service.name} {
   <#list service.remoteProcedureCalls as rpc>
-  rpc ${rpc.name}(<#if rpc.isInputStreamed()>stream </#if>${rpc.input.name}) returns (<#if rpc.isOutputStreamed()>stream </#if>${rpc.output.name});<#if rpc.comment?has_content> // ${rpc.comment}</#if>
+  <#assign rpcComment = rpc.comment!>
+  rpc ${rpc.name}(<#if rpc.isInputStreamed()>stream </#if>${getTypeName(rpc.inputType)}) returns (<#if rpc.isOutputStreamed()>stream </#if>${getTypeName(rpc.outputType)});<#if rpcComment?has_content> // ${rpcComment}</#if>
   </#list>
 }
 
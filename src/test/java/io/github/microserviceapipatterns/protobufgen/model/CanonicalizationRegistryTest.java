@@ -0,0 +1,243 @@
+/*
+ * Copyright 2020 Stefan Kapferer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.microserviceapipatterns.protobufgen.model;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CanonicalizationRegistryTest {
+
+    @Test
+    public void canDeduplicateStructurallyEqualMessages() {
+        // given
+        CanonicalizationRegistry registry = new CanonicalizationRegistry();
+        Message first = createPageMessage("page info");
+        Message second = createPageMessage("page info");
+
+        // when
+        Message canonicalFirst = registry.canonicalize(first);
+        Message canonicalSecond = registry.canonicalize(second);
+
+        // then
+        assertNotSame(first, second);
+        assertSame(canonicalFirst, canonicalSecond);
+        assertEquals(first.structuralHash(), second.structuralHash());
+        assertTrue(first.structurallyEquals(second));
+    }
+
+    @Test
+    public void doesNotDeduplicateMessagesWithDifferentContent() {
+        // given
+        CanonicalizationRegistry registry = new CanonicalizationRegistry();
+        Message first = createPageMessage("page info");
+        Message otherComment = createPageMessage("other comment");
+        Message otherField = first.withFieldAdded(new MessageField.Builder(SimpleFieldType.BOOL, "last", 3).build());
+
+        // when
+        Message canonicalFirst = registry.canonicalize(first);
+
+        // then
+        assertNotSame(canonicalFirst, registry.canonicalize(otherComment));
+        assertNotSame(canonicalFirst, registry.canonicalize(otherField));
+        assertFalse(first.structurallyEquals(otherComment));
+        assertFalse(first.structurallyEquals(otherField));
+    }
+
+    @Test
+    public void comparesNestedMessagesStructurally() {
+        // given
+        CanonicalizationRegistry registry = new CanonicalizationRegistry();
+        Message first = new Message.Builder("Parent")
+                .withNestedMessage(new Message.Builder("Child").withField(SimpleFieldType.STRING, "name").build())
+                .build();
+        Message second = new Message.Builder("Parent")
+                .withNestedMessage(new Message.Builder("Child").withField(SimpleFieldType.INT32, "name").build())
+                .build();
+
+        // when
+        Message canonicalFirst = registry.canonicalize(first);
+        Message canonicalSecond = registry.canonicalize(second);
+
+        // then
+        assertNotSame(canonicalFirst, canonicalSecond);
+        assertSame(first, canonicalFirst);
+    }
+
+    @Test
+    public void sharesFieldsBetweenDifferentMessages() {
+        // given
+        CanonicalizationRegistry registry = new CanonicalizationRegistry();
+        Message first = new Message.Builder("First").withField(SimpleFieldType.STRING, "id").build();
+        Message second = new Message.Builder("Second").withField(SimpleFieldType.STRING, "id").build();
+
+        // when
+        Message canonicalFirst = registry.canonicalize(first);
+        Message canonicalSecond = registry.canonicalize(second);
+
+        // then
+        assertSame(canonicalFirst.getField("id"), canonicalSecond.getField("id"));
+        assertSame(canonicalSecond.getField("id"), canonicalSecond.getFieldByNumber(1));
+        assertTrue(canonicalSecond.structurallyEquals(second));
+        assertEquals(3, registry.size());
+    }
+
+    @Test
+    public void canDeduplicateEnums() {
+        // given
+        CanonicalizationRegistry registry = new CanonicalizationRegistry();
+        Enum first = new Enum.Builder("Currency").withField("CHF").withField("EUR").build();
+        Enum second = new Enum.Builder("Currency").withField("CHF").withField("EUR").build();
+        Enum other = new Enum.Builder("Currency").withField("CHF").withField("USD").build();
+
+        // when
+        Enum canonicalFirst = registry.canonicalize(first);
+
+        // then
+        assertSame(canonicalFirst, registry.canonicalize(second));
+        assertNotSame(canonicalFirst, registry.canonicalize(other));
+        assertSame(registry.canonicalize(new EnumField.Builder("CHF", 0).build()), registry.canonicalize(new EnumField.Builder("CHF", 0).build()));
+    }
+
+    @Test
+    public void sharesFieldsBetweenDifferentEnums() {
+        // given
+        CanonicalizationRegistry registry = new CanonicalizationRegistry();
+        Enum first = new Enum.Builder("Currency").withField("UNKNOWN").withField("CHF").build();
+        Enum second = new Enum.Builder("Country").withField("UNKNOWN").withField("CH").build();
+
+        // when
+        Enum canonicalFirst = registry.canonicalize(first);
+        Enum canonicalSecond = registry.canonicalize(second);
+
+        // then
+        assertSame(canonicalFirst.getFields().iterator().next(), canonicalSecond.getFields().iterator().next());
+        assertTrue(canonicalSecond.structurallyEquals(second));
+        assertEquals(5, registry.size());
+    }
+
+    @Test
+    public void doesNotShareFieldsReferencingDifferentMessagesWithSameName() {
+        // given
+        CanonicalizationRegistry registry = new CanonicalizationRegistry();
+        Message wrapperItem = new Message.Builder("Item").withField(SimpleFieldType.STRING, "name").build();
+        Message otherItem = new Message.Builder("Item").withField(SimpleFieldType.STRING, "name").build();
+        Message wrapper = new Message.Builder("Wrapper").withNestedMessage(wrapperItem)
+                .withField(wrapperItem, "item").build();
+        Message other = new Message.Builder("Other").withNestedMessage(otherItem)
+                .withField(otherItem, "item").build();
+
+        // when
+        ProtoSpec spec = new ProtoSpec.Builder()
+                .withMessage(registry.canonicalize(wrapper))
+                .withMessage(registry.canonicalize(other))
+                .withStrictTypeResolution()
+                .build();
+
+        // then
+        assertNotSame(spec.getMessages().get(0).getField("item"), spec.getMessages().get(1).getField("item"));
+        assertEquals("Other.Item", spec.getTypeName(spec.getMessages().get(1).getField("item")));
+    }
+
+    @Test
+    public void canonicalizesNestedMessagesAndTheirReferences() {
+        // given
+        CanonicalizationRegistry registry = new CanonicalizationRegistry();
+        Message first = createWrapperMessage();
+        Message second = createWrapperMessage();
+
+        // when
+        Message canonicalFirst = registry.canonicalize(first);
+        Message canonicalSecond = registry.canonicalize(second);
+        Message canonicalItem = registry.canonicalize(second.getNestedMessages().get(0));
+
+        // then
+        assertFalse(first.structurallyEquals(second));
+        assertSame(canonicalFirst, canonicalSecond);
+        assertSame(canonicalItem, canonicalFirst.getNestedMessages().get(0).getDefinition());
+        assertSame(canonicalItem, canonicalFirst.getField("item").getFieldType());
+        assertFalse(canonicalItem.isNestedMessage());
+    }
+
+    @Test
+    public void pointsTypesOfFieldsAtCanonicalNestedMessagesOfOtherParents() {
+        // given
+        CanonicalizationRegistry registry = new CanonicalizationRegistry();
+        Message wrapper = createWrapperMessage();
+        Message holder = new Message.Builder("Holder").withField(wrapper.getNestedMessages().get(0), "item").build();
+
+        // when
+        Message canonicalWrapper = registry.canonicalize(createWrapperMessage());
+        Message canonicalHolder = registry.canonicalize(holder);
+        ProtoSpec spec = new ProtoSpec.Builder()
+                .withMessage(canonicalWrapper)
+                .withMessage(canonicalHolder)
+                .withStrictTypeResolution()
+                .build();
+
+        // then
+        assertSame(canonicalWrapper.getNestedMessages().get(0), canonicalHolder.getField("item").getFieldType());
+        assertEquals("Wrapper.Item", spec.getTypeName(canonicalHolder.getField("item")));
+    }
+
+    @Test
+    public void distinguishesTypeReferencesByImportPath() {
+        // given
+        CanonicalizationRegistry registry = new CanonicalizationRegistry();
+        MessageField first = new MessageField.Builder(new TypeReference("common.Money", "common/money.proto"), "amount", 1).build();
+        MessageField second = new MessageField.Builder(new TypeReference("common.Money", "other/money.proto"), "amount", 1).build();
+
+        // when
+        MessageField canonicalFirst = registry.canonicalize(first);
+        MessageField canonicalSecond = registry.canonicalize(second);
+
+        // then
+        assertNotSame(canonicalFirst, canonicalSecond);
+    }
+
+    @Test
+    public void sharesElementsWithLazyCommentsOnlyIfTheSupplierIsShared() {
+        // given
+        CanonicalizationRegistry registry = new CanonicalizationRegistry();
+        Supplier<String> comment = () -> "page info";
+        Message first = new Message.Builder("Page").withComment(comment).build();
+        Message second = new Message.Builder("Page").withComment(comment).build();
+        Message third = new Message.Builder("Page").withComment(() -> "page info").build();
+
+        // when
+        Message canonicalFirst = registry.canonicalize(first);
+
+        // then
+        assertSame(canonicalFirst, registry.canonicalize(second));
+        assertNotSame(canonicalFirst, registry.canonicalize(third));
+    }
+
+    private Message createWrapperMessage() {
+        Message item = new Message.Builder("Item").withField(SimpleFieldType.STRING, "name").build();
+        return new Message.Builder("Wrapper").withNestedMessage(item).withField(item, "item").build();
+    }
+
+    private Message createPageMessage(String comment) {
+        return new Message.Builder("Page")
+                .withComment(comment)
+                .withField(SimpleFieldType.INT32, "size")
+                .withField(SimpleFieldType.INT32, "number")
+                .build();
+    }
+
+}
@@ -0,0 +1,238 @@
+/*
+ * Copyright 2020 Stefan Kapferer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.microserviceapipatterns.protobufgen.model;
+
+import io.github.microserviceapipatterns.protobufgen.exception.FieldAlreadyExistsException;
+import io.github.microserviceapipatterns.protobufgen.exception.FieldNumberAlreadyExistsException;
+import io.github.microserviceapipatterns.protobufgen.exception.FieldNumberOutOfRangeException;
+import io.github.microserviceapipatterns.protobufgen.exception.MessageStoreFrozenException;
+import io.github.microserviceapipatterns.protobufgen.exception.NestedMessageAlreadyExistsException;
+import io.github.microserviceapipatterns.protobufgen.exception.RootElementAlreadyExistsException;
+import io.github.microserviceapipatterns.protobufgen.exception.WrongIdentifierException;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ColumnarMessageStoreTest {
+
+    @Test
+    public void rendersSameSpecAsObjectModel() {
+        // given
+        ColumnarMessageStore store = new ColumnarMessageStore();
+        int customer = store.addMessage("Customer");
+        int address = store.addNestedMessage(customer, "Address");
+        store.addField(address, SimpleFieldType.STRING, "street", 1);
+        store.addField(customer, SimpleFieldType.STRING, "name", 1);
+        store.addMessageField(customer, address, "addresses", 2, true);
+        store.addField(customer, new AnyType(), "details", 3);
+
+        Message addressMessage = new Message.Builder("Address")
+                .withField(SimpleFieldType.STRING, "street")
+                .build();
+        Message customerMessage = new Message.Builder("Customer")
+                .withNestedMessage(addressMessage)
+                .withField(SimpleFieldType.STRING, "name")
+                .withField(new MessageField.Builder(addressMessage, "addresses", 2).repeated())
+                .withField(new AnyType(), "details")
+                .build();
+
+        // when
+        ProtoSpec storeSpec = new ProtoSpec.Builder().withPackage("test").withMessageStore(store).build();
+        ProtoSpec objectSpec = new ProtoSpec.Builder().withPackage("test").withMessage(customerMessage).build();
+
+        // then
+        assertEquals(objectSpec.toString(), storeSpec.toString());
+        assertEquals(1, storeSpec.getImportStatements().size());
+    }
+
+    @Test
+    public void materializesRootMessagesOnAccess() {
+        // given
+        ColumnarMessageStore store = new ColumnarMessageStore();
+        store.addMessage("First");
+        int second = store.addMessage("Second");
+        store.addField(second, SimpleFieldType.INT32, "value", 1);
+
+        // when
+        ProtoSpec spec = new ProtoSpec.Builder()
+                .withMessage(new Message.Builder("Eager"))
+                .withMessageStore(store)
+                .build();
+
+        // then
+        assertEquals(3, spec.getMessages().size());
+        assertEquals("Eager", spec.getMessages().get(0).getName());
+        assertEquals("Second", spec.getMessages().get(2).getName());
+        assertNotSame(spec.getMessages().get(2), spec.getMessages().get(2));
+        assertEquals(1, ((Message) spec.findRootElement("Second")).getFields().size());
+        assertNull(spec.findRootElement("Third"));
+    }
+
+    @Test
+    public void internsNames() {
+        // given
+        ColumnarMessageStore store = new ColumnarMessageStore();
+
+        // when
+        for (int i = 0; i < 100; i++) {
+            int message = store.addMessage("Message" + i);
+            store.addField(message, SimpleFieldType.STRING, "name", 1);
+            store.addField(message, SimpleFieldType.STRING, "description", 2);
+        }
+
+        // then
+        assertEquals(100, store.getMessageCount());
+        assertEquals(200, store.getFieldCount());
+        assertSame(store.getRootMessage(0).getField("name").getName(), store.getRootMessage(99).getField("name").getName());
+        assertEquals("Message42", store.findRootMessage("Message42").getName());
+    }
+
+    @Test
+    public void canResolveFullIdentifier() {
+        // given
+        ColumnarMessageStore store = new ColumnarMessageStore();
+        int parent = store.addMessage("Parent");
+        int child = store.addNestedMessage(parent, "Child");
+        int grandChild = store.addNestedMessage(child, "GrandChild");
+
+        // when
+        String fullIdentifier = store.getFullIdentifier(grandChild);
+
+        // then
+        assertEquals("Parent.Child.GrandChild", fullIdentifier);
+    }
+
+    @Test
+    public void canFindMessageByFullIdentifier() {
+        // given
+        ColumnarMessageStore store = new ColumnarMessageStore();
+        int parent = store.addMessage("Parent");
+        int child = store.addNestedMessage(parent, "Child");
+        int grandChild = store.addNestedMessage(child, "GrandChild");
+        int other = store.addMessage("Child");
+
+        // when, then
+        assertEquals(grandChild, store.findMessage("Parent.Child.GrandChild"));
+        assertEquals(child, store.findMessage("Parent.Child"));
+        assertEquals(other, store.findMessage("Child"));
+        assertEquals(-1, store.findMessage("Child.GrandChild"));
+        assertEquals(-1, store.findMessage("Parent.Unknown"));
+        assertEquals(-1, store.findMessage("Parent."));
+        assertEquals("Child", store.findRootMessage("Child").getName());
+    }
+
+    @Test
+    public void cannotAddDuplicateNames() {
+        // given
+        ColumnarMessageStore store = new ColumnarMessageStore();
+        int message = store.addMessage("Test");
+        store.addNestedMessage(message, "Nested");
+        store.addField(message, SimpleFieldType.STRING, "name", 1);
+
+        // when, then
+        assertThrows(RootElementAlreadyExistsException.class, () -> store.addMessage("Test"));
+        assertThrows(NestedMessageAlreadyExistsException.class, () -> store.addNestedMessage(message, "Nested"));
+        assertThrows(FieldAlreadyExistsException.class, () -> store.addField(message, SimpleFieldType.INT32, "name", 2));
+        assertThrows(FieldNumberAlreadyExistsException.class, () -> store.addField(message, SimpleFieldType.INT32, "other", 1));
+        assertEquals(1, store.getFieldCount());
+    }
+
+    @Test
+    public void detectsDuplicateFieldsWhenSwitchingBetweenMessages() {
+        // given
+        ColumnarMessageStore store = new ColumnarMessageStore();
+        int first = store.addMessage("First");
+        int second = store.addMessage("Second");
+
+        // when
+        store.addField(first, SimpleFieldType.STRING, "name", 1);
+        store.addField(first, SimpleFieldType.STRING, "large", 100000);
+        store.addField(second, SimpleFieldType.STRING, "name", 1);
+        store.addField(second, SimpleFieldType.STRING, "large", 100000);
+
+        // then
+        assertThrows(FieldAlreadyExistsException.class, () -> store.addField(first, SimpleFieldType.INT32, "name", 2));
+        assertThrows(FieldNumberAlreadyExistsException.class, () -> store.addField(second, SimpleFieldType.INT32, "other", 1));
+        assertThrows(FieldNumberAlreadyExistsException.class, () -> store.addField(first, SimpleFieldType.INT32, "other", 100000));
+        store.addField(second, SimpleFieldType.INT32, "other", 2);
+        assertEquals(5, store.getFieldCount());
+        assertEquals(3, store.getRootMessage(1).getFields().size());
+    }
+
+    @Test
+    public void cannotAddInvalidNamesOrNumbers() {
+        // given
+        ColumnarMessageStore store = new ColumnarMessageStore();
+        int message = store.addMessage("Test");
+
+        // when, then
+        assertThrows(WrongIdentifierException.class, () -> store.addMessage("1Test"));
+        assertThrows(WrongIdentifierException.class, () -> store.addField(message, SimpleFieldType.STRING, "in valid", 1));
+        assertThrows(FieldNumberOutOfRangeException.class, () -> store.addField(message, SimpleFieldType.STRING, "name", 0));
+        assertEquals(0, store.getFieldCount());
+    }
+
+    @Test
+    public void cannotAddStoreWithNameOfOtherRootElement() {
+        // given
+        ColumnarMessageStore store = new ColumnarMessageStore();
+        store.addMessage("Test");
+        ProtoSpec.Builder builder = new ProtoSpec.Builder()
+                .withEnum(new Enum.Builder("Test").withField("DEFAULT"))
+                .withMessageStore(store);
+
+        // when, then
+        assertThrows(RootElementAlreadyExistsException.class, builder::build);
+    }
+
+    @Test
+    public void cannotChangeStoreAfterSpecHasBeenBuilt() {
+        // given
+        ColumnarMessageStore store = new ColumnarMessageStore();
+        int address = store.addMessage("Address");
+        ProtoSpec spec = new ProtoSpec.Builder()
+                .withMessage(new Message.Builder("Person"))
+                .withMessageStore(store)
+                .build();
+
+        // when, then
+        assertTrue(store.isFrozen());
+        assertThrows(MessageStoreFrozenException.class, () -> store.addMessage("Person"));
+        assertThrows(MessageStoreFrozenException.class, () -> store.addNestedMessage(address, "Nested"));
+        assertThrows(MessageStoreFrozenException.class, () -> store.addField(address, new AnyType(), "details", 1));
+        assertThrows(MessageStoreFrozenException.class, () -> store.addMessageField(address, address, "self", 2));
+        assertEquals(2, spec.getMessages().size());
+        assertTrue(spec.getImportStatements().isEmpty());
+    }
+
+    @Test
+    public void doesNotFreezeStoreIfBuildFails() {
+        // given
+        ColumnarMessageStore store = new ColumnarMessageStore();
+        store.addMessage("Person");
+        ProtoSpec.Builder builder = new ProtoSpec.Builder()
+                .withMessage(new Message.Builder("Person"))
+                .withMessageStore(store);
+
+        // when
+        assertThrows(RootElementAlreadyExistsException.class, builder::build);
+
+        // then
+        assertFalse(store.isFrozen());
+        store.addMessage("Address");
+    }
+
+}
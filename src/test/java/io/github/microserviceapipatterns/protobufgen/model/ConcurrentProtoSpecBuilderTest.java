@@ -0,0 +1,133 @@
+/*
+ * Copyright 2020 Stefan Kapferer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.microserviceapipatterns.protobufgen.model;
+
+import io.github.microserviceapipatterns.protobufgen.exception.RootElementAlreadyExistsException;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ConcurrentProtoSpecBuilderTest {
+
+    @Test
+    public void canAddMessagesFromParallelStream() {
+        // given
+        ConcurrentProtoSpecBuilder builder = new ConcurrentProtoSpecBuilder();
+
+        // when
+        IntStream.range(0, 1000).parallel().forEach(i -> builder
+                .withMessage(new Message.Builder("Message" + i).withField(SimpleFieldType.STRING, "name"))
+                .withImport("import" + (i % 10) + ".proto"));
+        ProtoSpec spec = builder.build();
+
+        // then
+        assertEquals(1000, spec.getMessages().size());
+        assertEquals(10, spec.getImportStatements().size());
+        assertNotNull(spec.findRootElement("Message999"));
+    }
+
+    @Test
+    public void buildsSpecIndependentOfInsertionOrder() {
+        // given
+        ConcurrentProtoSpecBuilder ascending = new ConcurrentProtoSpecBuilder();
+        ConcurrentProtoSpecBuilder parallel = new ConcurrentProtoSpecBuilder();
+
+        // when
+        for (int i = 0; i < 100; i++) {
+            ascending.withMessage(new Message.Builder("Message" + i));
+            ascending.withEnum(new Enum.Builder("Enum" + i));
+        }
+        IntStream.range(0, 100).map(i -> 99 - i).parallel().forEach(i -> parallel
+                .withEnum(new Enum.Builder("Enum" + i))
+                .withMessage(new Message.Builder("Message" + i)));
+
+        // then
+        assertEquals(ascending.build().toString(), parallel.build().toString());
+    }
+
+    @Test
+    public void sortsElementsByName() {
+        // given
+        ConcurrentProtoSpecBuilder builder = new ConcurrentProtoSpecBuilder();
+
+        // when
+        builder.withMessage(new Message.Builder("C"))
+                .withMessage(new Message.Builder("A"))
+                .withMessage(new Message.Builder("B"));
+        List<String> names = builder.build().getMessages().stream().map(Message::getSimpleName).collect(Collectors.toList());
+
+        // then
+        assertEquals(Arrays.asList("A", "B", "C"), names);
+    }
+
+    @Test
+    public void importsFilePubliclyIfAnyImportIsPublic() {
+        // given
+        ConcurrentProtoSpecBuilder publicFirst = new ConcurrentProtoSpecBuilder();
+        ConcurrentProtoSpecBuilder publicLast = new ConcurrentProtoSpecBuilder();
+
+        // when
+        publicFirst.withImport("other.proto", true).withImport("other.proto");
+        publicLast.withImport("other.proto").withImport("other.proto", true);
+        List<ImportStatement> importsOfPublicFirst = publicFirst.build().getImportStatements();
+        List<ImportStatement> importsOfPublicLast = publicLast.build().getImportStatements();
+
+        // then
+        assertEquals(1, importsOfPublicFirst.size());
+        assertTrue(importsOfPublicFirst.get(0).isPublic());
+        assertEquals(1, importsOfPublicLast.size());
+        assertTrue(importsOfPublicLast.get(0).isPublic());
+    }
+
+    @Test
+    public void detectsDuplicatesAcrossThreads() {
+        // given
+        ConcurrentProtoSpecBuilder builder = new ConcurrentProtoSpecBuilder();
+        AtomicInteger duplicates = new AtomicInteger();
+
+        // when
+        IntStream.range(0, 100).parallel().forEach(i -> {
+            try {
+                builder.withMessage(new Message.Builder("Message" + (i % 10)));
+            } catch (RootElementAlreadyExistsException e) {
+                duplicates.incrementAndGet();
+            }
+        });
+
+        // then
+        assertEquals(90, duplicates.get());
+        assertEquals(10, builder.build().getMessages().size());
+    }
+
+    @Test
+    public void cannotAddElementsWithSameName() {
+        // given
+        ConcurrentProtoSpecBuilder builder = new ConcurrentProtoSpecBuilder();
+        builder.withMessage(new Message.Builder("Test"));
+
+        // when, then
+        assertThrows(RootElementAlreadyExistsException.class, () -> {
+            builder.withService(new Service.Builder("Test"));
+        });
+    }
+
+}
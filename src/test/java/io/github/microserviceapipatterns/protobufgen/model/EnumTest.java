@@ -17,8 +17,10 @@ package io.github.microserviceapipatterns.protobufgen.model;
 
 import io.github.microserviceapipatterns.protobufgen.exception.FirstEnumFieldZeroValueException;
 import io.github.microserviceapipatterns.protobufgen.exception.FieldAlreadyExistsException;
+import io.github.microserviceapipatterns.protobufgen.exception.ModelValidationException;
 import org.junit.jupiter.api.Test;
 
+import java.util.Arrays;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.Set;
@@ -112,6 +114,68 @@ public class EnumTest {
         });
     }
 
+    @Test
+    public void canAddFieldsInBulk() {
+        // given
+        Enum.Builder builder = new Enum.Builder("TestEnum");
+
+        // when
+        Enum enumm = builder.withFields(Arrays.asList(
+                new EnumField.Builder("FIRST", 0).build(),
+                new EnumField.Builder("SECOND", 1).build(),
+                new EnumField.Builder("THIRD", 2).build()))
+                .withField("FOURTH")
+                .build();
+
+        // then
+        assertEquals(4, enumm.getFields().size());
+        assertEquals(3, enumm.getFields().stream().filter(f -> f.getName().equals("FOURTH")).findAny().get().getValue());
+    }
+
+    @Test
+    public void cannotAddFieldsInBulkIfFirstValueIsNotZero() {
+        // given
+        Enum.Builder builder = new Enum.Builder("TestEnum");
+
+        // when, then
+        assertThrows(FirstEnumFieldZeroValueException.class, () -> {
+            builder.withFields(Arrays.asList(new EnumField.Builder("FIRST", 1).build(), new EnumField.Builder("SECOND", 0).build()));
+        });
+    }
+
+    @Test
+    public void cannotAddFieldsInBulkWithDuplicateNames() {
+        // given
+        Enum.Builder builder = new Enum.Builder("TestEnum").withField("FIRST");
+
+        // when
+        assertThrows(FieldAlreadyExistsException.class, () -> {
+            builder.withFields(Arrays.asList(new EnumField.Builder("SECOND", 1).build(), new EnumField.Builder("SECOND", 2).build()));
+        });
+        Enum enumm = builder.build();
+
+        // then
+        assertEquals(1, enumm.getFields().size());
+    }
+
+    @Test
+    public void canReportAllProblemsAtOnceWithDeferredValidation() {
+        // given
+        Enum.Builder builder = new Enum.Builder("TestEnum").withDeferredValidation()
+                .withField(new EnumField.Builder("FIRST", 1))
+                .withField("SECOND")
+                .withField("FIRST");
+
+        // when
+        ModelValidationException exception = assertThrows(ModelValidationException.class, builder::build);
+
+        // then
+        assertEquals(2, exception.getProblems().size());
+        assertTrue(exception.getProblems().get(0) instanceof FirstEnumFieldZeroValueException);
+        assertTrue(exception.getProblems().get(1) instanceof FieldAlreadyExistsException);
+        assertEquals(2, assertThrows(ModelValidationException.class, builder::build).getProblems().size());
+    }
+
     @Test
     public void canAddComment() {
         // given
@@ -153,4 +217,25 @@ public class EnumTest {
         assertEquals(1, enumSet.size());
     }
 
+    @Test
+    public void canResetBuilder() {
+        // given
+        Enum.Builder builder = Enum.Builder.threadLocal("First")
+                .withComment("first comment")
+                .withField("ONE")
+                .withField("TWO");
+        Enum first = builder.build();
+
+        // when
+        Enum second = Enum.Builder.threadLocal("Second").withField("THREE").build();
+
+        // then
+        assertEquals("Second", second.getName());
+        assertEquals("", second.getComment());
+        assertEquals(1, second.getFields().size());
+        assertEquals(0, second.getFields().iterator().next().getValue());
+        assertEquals(2, first.getFields().size());
+        assertSame(builder, builder.reset("Third"));
+    }
+
 }
@@ -0,0 +1,297 @@
+/*
+ * Copyright 2020 Stefan Kapferer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.microserviceapipatterns.protobufgen.model;
+
+import io.github.microserviceapipatterns.protobufgen.exception.FieldAlreadyExistsException;
+import io.github.microserviceapipatterns.protobufgen.exception.FieldNameReservedException;
+import io.github.microserviceapipatterns.protobufgen.exception.FieldNumberAlreadyExistsException;
+import io.github.microserviceapipatterns.protobufgen.exception.FieldNumberReservedException;
+import io.github.microserviceapipatterns.protobufgen.exception.InvalidLockFileException;
+import io.github.microserviceapipatterns.protobufgen.exception.ModelValidationException;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class FieldNumberAllocatorTest {
+
+    @Test
+    public void allocatesLowestFreeNumbers() {
+        // given
+        FieldNumberAllocator allocator = new FieldNumberAllocator("Test");
+        allocator.assign("explicit", 2);
+        allocator.reserve(4, 5);
+
+        // when
+        int first = allocator.allocate("first");
+        int second = allocator.allocate("second");
+        int third = allocator.allocate("third");
+
+        // then
+        assertEquals(1, first);
+        assertEquals(3, second);
+        assertEquals(6, third);
+        assertEquals(1, allocator.allocate("first"));
+    }
+
+    @Test
+    public void skipsImplementationReservedNumbers() {
+        // given
+        FieldNumberAllocator allocator = new FieldNumberAllocator("Test");
+        allocator.reserve(1, 18999);
+
+        // when
+        int number = allocator.allocate("field");
+
+        // then
+        assertEquals(20000, number);
+    }
+
+    @Test
+    public void retiresRemovedFields() {
+        // given
+        FieldNumberAllocator allocator = new FieldNumberAllocator("Test");
+        allocator.allocate("first");
+        allocator.allocate("second");
+        allocator.allocate("third");
+
+        // when
+        allocator.retireFieldsExcept(Arrays.asList("first", "third"));
+
+        // then
+        assertEquals(Arrays.asList(new ReservedRange(2)), allocator.getReservedRanges());
+        assertTrue(allocator.getReservedNames().contains("second"));
+        assertEquals(4, allocator.allocate("fourth"));
+        assertThrows(FieldNameReservedException.class, () -> allocator.allocate("second"));
+        assertThrows(FieldNumberReservedException.class, () -> allocator.assign("other", 2));
+    }
+
+    @Test
+    public void mergesReservedRanges() {
+        // given
+        FieldNumberAllocator allocator = new FieldNumberAllocator("Test");
+
+        // when
+        allocator.reserve(5, 9).reserve(1).reserve(10, 12).reserve(3, 6);
+
+        // then
+        assertEquals(Arrays.asList(new ReservedRange(1), new ReservedRange(3, 12)), allocator.getReservedRanges());
+    }
+
+    @Test
+    public void cannotReserveAssignedNumber() {
+        // given
+        FieldNumberAllocator allocator = new FieldNumberAllocator("Test");
+        allocator.allocate("field");
+
+        // when, then
+        assertThrows(FieldNumberAlreadyExistsException.class, () -> allocator.reserve(1, 10));
+        assertThrows(FieldNumberAlreadyExistsException.class, () -> allocator.assign("other", 1));
+    }
+
+    @Test
+    public void keepsNumbersStableWhenFieldIsRemoved() {
+        // given
+        FieldNumberLockFile lockFile = new FieldNumberLockFile();
+        new Message.Builder("Customer")
+                .withFieldNumberAllocator(lockFile.getAllocator("Customer"))
+                .withField(SimpleFieldType.STRING, "name")
+                .withField(SimpleFieldType.STRING, "email")
+                .withField(SimpleFieldType.STRING, "phone")
+                .build();
+        String content = lockFile.toString();
+
+        // when
+        FieldNumberLockFile nextRun = FieldNumberLockFile.parse(content);
+        Message message = new Message.Builder("Customer")
+                .withFieldNumberAllocator(nextRun.getAllocator("Customer"))
+                .withField(SimpleFieldType.STRING, "name")
+                .withField(SimpleFieldType.STRING, "phone")
+                .withField(SimpleFieldType.STRING, "mobile")
+                .build();
+
+        // then
+        assertEquals("Customer name=1 email=2 phone=3\n", content);
+        assertEquals(1, message.getField("name").getNumber());
+        assertEquals(3, message.getField("phone").getNumber());
+        assertEquals(4, message.getField("mobile").getNumber());
+        assertEquals(Arrays.asList(new ReservedRange(2)), message.getReservedRanges());
+        assertTrue(message.getReservedNames().contains("email"));
+        assertEquals("Customer name=1 phone=3 mobile=4 !2 !email\n", nextRun.toString());
+    }
+
+    @Test
+    public void canReadWrittenLockFile() {
+        // given
+        FieldNumberLockFile lockFile = new FieldNumberLockFile();
+        lockFile.getAllocator("Order").reserve(100, ReservedRange.MAX).reserveName("old");
+        lockFile.getAllocator("Order").allocate("id");
+        lockFile.getAllocator("Customer.Address").allocate("street");
+
+        // when
+        FieldNumberLockFile read = FieldNumberLockFile.parse(lockFile.toString());
+
+        // then
+        assertEquals("Customer.Address street=1\nOrder id=1 !100-max !old\n", read.toString());
+    }
+
+    @Test
+    public void cannotReadInvalidLockFile() {
+        // given
+        String content = "Customer name=1\nOrder id=one\n";
+
+        // when, then
+        InvalidLockFileException exception = assertThrows(InvalidLockFileException.class, () -> FieldNumberLockFile.parse(content));
+        assertTrue(exception.getMessage().contains("line 2"));
+    }
+
+    @Test
+    public void rendersReservedNumbersAndNames() {
+        // given
+        Message message = new Message.Builder("Test")
+                .withReservedNumbers(2, 3)
+                .withReservedNumber(9)
+                .withReservedNumbers(15, ReservedRange.MAX)
+                .withReservedName("old")
+                .withReservedName("older")
+                .withField(SimpleFieldType.STRING, "name")
+                .build();
+
+        // when
+        String proto = new ProtoSpec.Builder().withMessage(message).build().toString();
+
+        // then
+        assertTrue(proto.contains("  reserved 2 to 3, 9, 15 to max;\n  reserved \"old\", \"older\";\n  string name = 1;"));
+    }
+
+    @Test
+    public void cannotUseReservedNumberOrName() {
+        // given
+        Message.Builder reservedNumber = new Message.Builder("Test")
+                .withReservedNumber(1)
+                .withField(SimpleFieldType.STRING, "name");
+        Message.Builder reservedName = new Message.Builder("Test")
+                .withReservedName("name")
+                .withField(SimpleFieldType.STRING, "name");
+        Message message = new Message.Builder("Test").withReservedNumber(1).build();
+
+        // when, then
+        assertThrows(FieldNumberReservedException.class, reservedNumber::build);
+        assertThrows(FieldNameReservedException.class, reservedName::build);
+        assertThrows(FieldNumberReservedException.class, () -> message.withFieldAdded(new MessageField.Builder(SimpleFieldType.STRING, "name", 1).build()));
+    }
+
+    @Test
+    public void doesNotRegisterRejectedFields() {
+        // given
+        FieldNumberAllocator allocator = new FieldNumberAllocator("Test");
+        Message.Builder builder = new Message.Builder("Test")
+                .withFieldNumberAllocator(allocator)
+                .withField(new MessageField.Builder(SimpleFieldType.STRING, "a", 1));
+
+        // when
+        assertThrows(FieldAlreadyExistsException.class, () -> builder.withField(new MessageField.Builder(SimpleFieldType.STRING, "a", 5)));
+        assertThrows(FieldAlreadyExistsException.class, () -> builder.withField(SimpleFieldType.INT32, "a"));
+        assertThrows(FieldAlreadyExistsException.class, () -> builder.withFields(SimpleFieldType.INT32, Arrays.asList("b", "a")));
+
+        // then
+        assertEquals(Collections.singletonMap("a", 1), allocator.getAssignments());
+        builder.withField(SimpleFieldType.STRING, "b");
+        assertEquals(2, allocator.getAssignments().get("b"));
+    }
+
+    @Test
+    public void registersDeferredFieldsOnlyWhenMessageIsBuilt() {
+        // given
+        FieldNumberAllocator allocator = new FieldNumberAllocator("Test");
+        Message.Builder builder = new Message.Builder("Test")
+                .withFieldNumberAllocator(allocator)
+                .withDeferredValidation()
+                .withField(new MessageField.Builder(SimpleFieldType.STRING, "a", 1))
+                .withField(SimpleFieldType.STRING, "b")
+                .withField(new MessageField.Builder(SimpleFieldType.STRING, "a", 5));
+
+        // when
+        assertThrows(ModelValidationException.class, builder::build);
+
+        // then
+        assertTrue(allocator.getAssignments().isEmpty());
+        Message message = new Message.Builder("Test")
+                .withFieldNumberAllocator(allocator)
+                .withDeferredValidation()
+                .withField(new MessageField.Builder(SimpleFieldType.STRING, "a", 1))
+                .withFields(SimpleFieldType.STRING, Arrays.asList("b", "c"))
+                .build();
+        assertEquals(3, message.getFields().size());
+        assertEquals(2, allocator.getAssignments().get("b"));
+        assertEquals(3, allocator.getAssignments().get("c"));
+    }
+
+    @Test
+    public void doesNotRetireFieldsWhenBuildFails() {
+        // given
+        FieldNumberAllocator allocator = new FieldNumberAllocator("Test");
+        allocator.assign("a", 1);
+        allocator.assign("b", 2);
+        Message.Builder deferred = new Message.Builder("Test")
+                .withFieldNumberAllocator(allocator)
+                .withDeferredValidation()
+                .withField(SimpleFieldType.STRING, "a")
+                .withReservedNumber(5)
+                .withField(new MessageField.Builder(SimpleFieldType.STRING, "c", 5));
+        Message.Builder immediate = new Message.Builder("Test")
+                .withFieldNumberAllocator(allocator)
+                .withField(SimpleFieldType.STRING, "a")
+                .withReservedName("a");
+
+        // when
+        assertThrows(ModelValidationException.class, deferred::build);
+        assertThrows(ModelValidationException.class, deferred::build);
+        assertThrows(FieldNameReservedException.class, immediate::build);
+
+        // then
+        assertEquals(2, allocator.getAssignments().size());
+        assertEquals(2, allocator.getAssignments().get("b"));
+        assertTrue(allocator.getReservedRanges().isEmpty());
+        assertTrue(allocator.getReservedNames().isEmpty());
+    }
+
+    @Test
+    public void reportsConflictsWithAllocatorWhenDeferredMessageIsBuilt() {
+        // given
+        FieldNumberAllocator allocator = new FieldNumberAllocator("Test").reserveName("old").reserve(7);
+        Message.Builder builder = new Message.Builder("Test")
+                .withFieldNumberAllocator(allocator)
+                .withDeferredValidation()
+                .withField(new MessageField.Builder(SimpleFieldType.STRING, "old", 3))
+                .withField(SimpleFieldType.STRING, "old")
+                .withField(new MessageField.Builder(SimpleFieldType.STRING, "name", 7));
+
+        // when
+        ModelValidationException exception = assertThrows(ModelValidationException.class, builder::build);
+
+        // then
+        assertEquals(3, exception.getReport().getProblems().size());
+        assertEquals(FieldNameReservedException.class, exception.getReport().getProblems().get(0).getType());
+        assertEquals(FieldNameReservedException.class, exception.getReport().getProblems().get(1).getType());
+        assertEquals(FieldNumberReservedException.class, exception.getReport().getProblems().get(2).getType());
+        assertEquals("Test.name", exception.getReport().getProblems().get(2).getPath());
+        assertTrue(allocator.getAssignments().isEmpty());
+    }
+
+}
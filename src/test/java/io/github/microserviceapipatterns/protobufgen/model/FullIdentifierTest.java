@@ -15,6 +15,7 @@
  */
 package io.github.microserviceapipatterns.protobufgen.model;
 
+import io.github.microserviceapipatterns.protobufgen.exception.ValidationReport;
 import io.github.microserviceapipatterns.protobufgen.exception.WrongIdentifierException;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.params.ParameterizedTest;
@@ -27,6 +28,8 @@ import static org.junit.jupiter.api.Assertions.*;
 
 public class FullIdentifierTest {
 
+    private static final String FULL_IDENT_REGEX = "^[a-zA-Z][a-zA-Z0-9_]*([\\.][a-zA-Z][a-zA-Z0-9_]*)*";
+
     @ParameterizedTest
     @ValueSource(strings = {"ident", "ident.sub", "Ident_1", "Another_Ident1.Sub_Ident", "Another_Ident1.Sub_Ident.SubSubIdent"})
     public void canCreateIdentifier(String identifierName) {
@@ -49,6 +52,24 @@ public class FullIdentifierTest {
         });
     }
 
+    @Test
+    public void canValidateWithoutException() {
+        // given
+        String valid = "root.sub";
+        String invalid = "root.";
+
+        // when
+        ValidationReport validReport = FullIdentifier.validate(valid);
+        ValidationReport invalidReport = FullIdentifier.validate(invalid);
+
+        // then
+        assertTrue(FullIdentifier.isValid(valid));
+        assertFalse(FullIdentifier.isValid(invalid));
+        assertFalse(FullIdentifier.isValid(null));
+        assertTrue(validReport.isValid());
+        assertTrue(invalidReport.getProblems().get(0).getException() instanceof WrongIdentifierException);
+    }
+
     @Test
     public void canDetermineEquality() {
         // given
@@ -78,4 +99,50 @@ public class FullIdentifierTest {
         assertEquals(1, fullIdentifiers.size());
     }
 
+    @Test
+    public void validatesLikeRegexForAllAsciiStringsUpToTwoCharacters() {
+        // given
+        char[] alphabet = new char[128];
+        for (char c = 0; c < 128; c++) {
+            alphabet[c] = c;
+        }
+
+        // when
+        int mismatches = 0;
+        for (int length = 0; length <= 2; length++) {
+            mismatches += countMismatches(alphabet, new char[length], 0);
+        }
+
+        // then
+        assertEquals(0, mismatches);
+    }
+
+    @Test
+    public void validatesLikeRegexForAllSegmentCombinationsUpToSixCharacters() {
+        // given
+        char[] alphabet = {'a', 'Z', '0', '_', '.', '-', ' ', '\u00e9'};
+
+        // when
+        int mismatches = 0;
+        for (int length = 0; length <= 6; length++) {
+            mismatches += countMismatches(alphabet, new char[length], 0);
+        }
+
+        // then
+        assertEquals(0, mismatches);
+    }
+
+    private int countMismatches(char[] alphabet, char[] candidate, int position) {
+        if (position == candidate.length) {
+            String name = new String(candidate);
+            return name.matches(FULL_IDENT_REGEX) == FullIdentifier.isFullIdent(name) ? 0 : 1;
+        }
+        int mismatches = 0;
+        for (char c : alphabet) {
+            candidate[position] = c;
+            mismatches += countMismatches(alphabet, candidate, position + 1);
+        }
+        return mismatches;
+    }
+
 }
@@ -15,15 +15,23 @@
  */
 package io.github.microserviceapipatterns.protobufgen.model;
 
+import io.github.microserviceapipatterns.protobufgen.exception.ProtocolBufferBuilderException;
+import io.github.microserviceapipatterns.protobufgen.exception.ValidationReport;
 import io.github.microserviceapipatterns.protobufgen.exception.WrongIdentifierException;
+import org.junit.jupiter.api.Test;
 import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.ValueSource;
 
-import static org.junit.jupiter.api.Assertions.assertEquals;
-import static org.junit.jupiter.api.Assertions.assertThrows;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
 
 public class IdentifierTest {
 
+    private static final String IDENT_REGEX = "^[a-zA-Z][a-zA-Z0-9_]*";
+
     @ParameterizedTest
     @ValueSource(strings = {"ident", "Ident", "Ident_1", "Another_Ident1"})
     public void canCreateIdentifier(String identifierName) {
@@ -46,4 +54,120 @@ public class IdentifierTest {
         });
     }
 
+    @Test
+    public void canValidateWithoutException() {
+        // given
+        String valid = "Ident_1";
+        String invalid = "1_ident";
+
+        // when
+        ValidationReport validReport = Identifier.validate(valid);
+        ValidationReport invalidReport = Identifier.validate(invalid);
+
+        // then
+        assertTrue(Identifier.isValid(valid));
+        assertFalse(Identifier.isValid(invalid));
+        assertFalse(Identifier.isValid(null));
+        assertTrue(validReport.isValid());
+        assertFalse(invalidReport.isValid());
+        assertEquals(1, invalidReport.getProblems().size());
+        assertEquals(WrongIdentifierException.class, invalidReport.getProblems().get(0).getType());
+        assertEquals("'1_ident' is not a correct identifier! Ensure it corresponds to the protocol buffers format (https://developers.google.com/protocol-buffers/docs/reference/proto3-spec#identifiers).",
+                invalidReport.getProblems().get(0).getMessage());
+        assertTrue(invalidReport.getProblems().get(0).getException() instanceof WrongIdentifierException);
+    }
+
+    @Test
+    public void canCreateExceptionsWithoutStackTraces() {
+        // given
+        ProtocolBufferBuilderException.setStackTracesEnabled(false);
+
+        // when
+        WrongIdentifierException exception;
+        try {
+            exception = assertThrows(WrongIdentifierException.class, () -> {
+                new Identifier("1_ident");
+            });
+        } finally {
+            ProtocolBufferBuilderException.setStackTracesEnabled(true);
+        }
+
+        // then
+        assertEquals(0, exception.getStackTrace().length);
+        assertTrue(new WrongIdentifierException("1_ident").getStackTrace().length > 0);
+    }
+
+    @Test
+    public void canInternIdentifiers() {
+        // given
+        Identifier ident1;
+        Identifier ident2;
+
+        // when
+        ident1 = Identifier.of("tenant_id");
+        ident2 = Identifier.of(new String("tenant_id"));
+
+        // then
+        assertSame(ident1, ident2);
+        assertEquals(new Identifier("tenant_id"), ident1);
+        assertEquals(new Identifier("tenant_id").hashCode(), ident1.hashCode());
+    }
+
+    @Test
+    public void canInternMoreIdentifiersThanThePoolHoldsConcurrently() {
+        // given
+        List<String> names = IntStream.range(0, 20000).mapToObj(i -> "name_" + i).collect(Collectors.toList());
+
+        // when
+        List<Identifier> identifiers = names.parallelStream().map(Identifier::of).collect(Collectors.toList());
+
+        // then
+        for (int i = 0; i < names.size(); i++) {
+            assertEquals(names.get(i), identifiers.get(i).getName());
+        }
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"1_ident", "_ident", "@ident", "#ident"})
+    public void cannotInternIdentifierWithWrongPattern(String identifierName) {
+        assertThrows(WrongIdentifierException.class, () -> {
+            Identifier.of(identifierName);
+        });
+    }
+
+    @Test
+    public void validatesLikeRegexForAllStringsUpToThreeCharacters() {
+        // given
+        char[] alphabet = new char[132];
+        for (char c = 0; c < 128; c++) {
+            alphabet[c] = c;
+        }
+        alphabet[128] = '\u00e9'; // é
+        alphabet[129] = '\u00c4'; // Ä
+        alphabet[130] = '\u0661'; // arabic-indic digit one
+        alphabet[131] = '\uff21'; // fullwidth latin capital letter A
+
+        // when
+        int mismatches = 0;
+        for (int length = 0; length <= 3; length++) {
+            mismatches += countMismatches(alphabet, new char[length], 0);
+        }
+
+        // then
+        assertEquals(0, mismatches);
+    }
+
+    private int countMismatches(char[] alphabet, char[] candidate, int position) {
+        if (position == candidate.length) {
+            String name = new String(candidate);
+            return name.matches(IDENT_REGEX) == Identifier.isIdent(name, 0, name.length()) ? 0 : 1;
+        }
+        int mismatches = 0;
+        for (char c : alphabet) {
+            candidate[position] = c;
+            mismatches += countMismatches(alphabet, candidate, position + 1);
+        }
+        return mismatches;
+    }
+
 }
@@ -17,6 +17,7 @@ package io.github.microserviceapipatterns.protobufgen.model;
 
 import io.github.microserviceapipatterns.protobufgen.exception.FieldNumberOutOfRangeException;
 import io.github.microserviceapipatterns.protobufgen.exception.FieldNumberReservedException;
+import io.github.microserviceapipatterns.protobufgen.exception.ValidationReport;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.ValueSource;
@@ -57,6 +58,76 @@ public class MessageFieldNumberTest {
         });
     }
 
+    @ParameterizedTest
+    @ValueSource(ints = {1, 2, 15, 16, 2047})
+    public void canShareCommonFieldNumbers(int number) {
+        // given
+        FieldNumber fieldNumber;
+
+        // when
+        fieldNumber = FieldNumber.of(number);
+
+        // then
+        assertEquals(number, fieldNumber.toInt());
+        assertSame(fieldNumber, FieldNumber.of(number));
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {2048, 18999, 20000, 536870911})
+    public void canCreateUncommonFieldNumbers(int number) {
+        // given
+        FieldNumber fieldNumber;
+
+        // when
+        fieldNumber = FieldNumber.of(number);
+
+        // then
+        assertEquals(number, fieldNumber.toInt());
+        assertEquals(FieldNumber.of(number), fieldNumber);
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {19000, 19999})
+    public void cannotGetReservedNumbers(int number) {
+        assertThrows(FieldNumberReservedException.class, () -> {
+            FieldNumber.of(number);
+        });
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {-1, 0, 536870912})
+    public void cannotGetNumbersOutOfRange(int number) {
+        assertThrows(FieldNumberOutOfRangeException.class, () -> {
+            FieldNumber.of(number);
+        });
+    }
+
+    @Test
+    public void canCompareFieldNumbers() {
+        assertTrue(FieldNumber.of(1).compareTo(FieldNumber.of(2)) < 0);
+        assertTrue(FieldNumber.of(536870911).compareTo(FieldNumber.of(1)) > 0);
+        assertEquals(0, FieldNumber.of(3000).compareTo(new FieldNumber(3000)));
+    }
+
+    @Test
+    public void canValidateWithoutException() {
+        // given
+        int valid = 18999;
+
+        // when
+        ValidationReport validReport = FieldNumber.validate(valid);
+        ValidationReport reservedReport = FieldNumber.validate(19000);
+        ValidationReport outOfRangeReport = FieldNumber.validate(0);
+
+        // then
+        assertTrue(FieldNumber.isValid(valid));
+        assertFalse(FieldNumber.isValid(19999));
+        assertFalse(FieldNumber.isValid(536870912));
+        assertTrue(validReport.isValid());
+        assertTrue(reservedReport.getProblems().get(0).getException() instanceof FieldNumberReservedException);
+        assertTrue(outOfRangeReport.getProblems().get(0).getException() instanceof FieldNumberOutOfRangeException);
+    }
+
     @Test
     public void canDetermineEquality() {
         // given
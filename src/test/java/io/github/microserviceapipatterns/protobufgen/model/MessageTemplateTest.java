@@ -0,0 +1,150 @@
+/*
+ * Copyright 2020 Stefan Kapferer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.microserviceapipatterns.protobufgen.model;
+
+import io.github.microserviceapipatterns.protobufgen.exception.FieldAlreadyExistsException;
+import io.github.microserviceapipatterns.protobufgen.exception.InstanceNameConflictException;
+import io.github.microserviceapipatterns.protobufgen.exception.TypeArgumentCountMismatchException;
+import io.github.microserviceapipatterns.protobufgen.exception.UnknownTypeParameterException;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MessageTemplateTest {
+
+    @Test
+    public void canInstantiateTemplate() {
+        // given
+        MessageTemplate page = createPageTemplate();
+        Message customer = new Message.Builder("Customer").build();
+
+        // when
+        Message customerPage = page.instantiate(customer);
+
+        // then
+        assertEquals("CustomerPage", customerPage.getName());
+        assertEquals(2, customerPage.getFields().size());
+        assertSame(customer, customerPage.getField("items").getFieldType());
+        assertTrue(customerPage.getField("items").isRepeated());
+        assertEquals(2, customerPage.getField("total").getNumber());
+        assertTrue(new ProtoSpec.Builder().withMessage(customer).withMessage(customerPage).build().toString()
+                .contains("  repeated Customer items = 1;\n  int32 total = 2;"));
+    }
+
+    @Test
+    public void reusesInstancesWithSameTypeArguments() {
+        // given
+        MessageTemplate page = createPageTemplate();
+        Message customer = new Message.Builder("Customer").build();
+        Message order = new Message.Builder("Order").build();
+
+        // when
+        Message first = page.instantiate(customer);
+        Message second = page.instantiate(customer);
+        Message orderPage = page.instantiate(order);
+
+        // then
+        assertSame(first, second);
+        assertNotSame(first, orderPage);
+        assertSame(first.getField("total"), orderPage.getField("total"));
+        assertEquals(2, page.getInstances().size());
+    }
+
+    @Test
+    public void distinguishesMessagesWithSameName() {
+        // given
+        MessageTemplate page = createPageTemplate();
+        Message customer = new Message.Builder("Customer").build();
+        Message otherCustomer = new Message.Builder("Customer").withField(SimpleFieldType.STRING, "name").build();
+        Message parent = new Message.Builder("Parent").withNestedMessage(customer).build();
+
+        // when
+        Message customerPage = page.instantiate(customer);
+
+        // then
+        assertSame(customerPage, page.instantiate(parent.getNestedMessages().get(0)));
+        assertThrows(InstanceNameConflictException.class, () -> page.instantiate(otherCustomer));
+        assertThrows(InstanceNameConflictException.class, () -> page.instantiate(new TypeReference("crm.Customer")));
+        assertEquals(1, page.getInstances().size());
+    }
+
+    @Test
+    public void releasesInstanceNameIfInstantiationFails() {
+        // given
+        MessageTemplate page = createPageTemplate();
+        AtomicInteger nameCalls = new AtomicInteger();
+        FieldType broken = () -> {
+            if (nameCalls.incrementAndGet() > 1)
+                throw new IllegalStateException("type name not available");
+            return "Customer";
+        };
+        Message customer = new Message.Builder("Customer").build();
+
+        // when
+        assertThrows(IllegalStateException.class, () -> page.instantiate(broken));
+        Message customerPage = page.instantiate(customer);
+
+        // then
+        assertEquals("CustomerPage", customerPage.getName());
+        assertEquals(1, page.getInstances().size());
+    }
+
+    @Test
+    public void canInstantiateTemplateWithSeveralParameters() {
+        // given
+        MessageTemplate result = new MessageTemplate.Builder("Result", "T", "E")
+                .withParameterField("T", "value")
+                .withParameterField("E", "error")
+                .build();
+
+        // when
+        Message instance = result.instantiate(new TypeReference("crm.Customer"), SimpleFieldType.STRING);
+
+        // then
+        assertEquals("CustomerStringResult", instance.getName());
+        assertEquals("crm.Customer", instance.getField("value").getType());
+        assertEquals("string", instance.getField("error").getType());
+    }
+
+    @Test
+    public void cannotInstantiateWithWrongNumberOfArguments() {
+        // given
+        MessageTemplate page = createPageTemplate();
+
+        // when, then
+        assertThrows(TypeArgumentCountMismatchException.class, () -> page.instantiate(SimpleFieldType.STRING, SimpleFieldType.INT32));
+    }
+
+    @Test
+    public void cannotUseUnknownTypeParameterOrDuplicateFieldName() {
+        // given
+        MessageTemplate.Builder builder = new MessageTemplate.Builder("Page", "T").withParameterField("T", "items");
+
+        // when, then
+        assertThrows(UnknownTypeParameterException.class, () -> builder.withParameterField("U", "other"));
+        assertThrows(FieldAlreadyExistsException.class, () -> builder.withField(SimpleFieldType.INT32, "items"));
+    }
+
+    private MessageTemplate createPageTemplate() {
+        return new MessageTemplate.Builder("Page", "T")
+                .withRepeatedParameterField("T", "items")
+                .withField(SimpleFieldType.INT32, "total")
+                .build();
+    }
+
+}
@@ -15,13 +15,24 @@
  */
 package io.github.microserviceapipatterns.protobufgen.model;
 
-import io.github.microserviceapipatterns.protobufgen.exception.NestedMessageAlreadyExistsException;
+import io.github.microserviceapipatterns.protobufgen.exception.ElementNotFoundException;
 import io.github.microserviceapipatterns.protobufgen.exception.FieldAlreadyExistsException;
 import io.github.microserviceapipatterns.protobufgen.exception.FieldNumberAlreadyExistsException;
+import io.github.microserviceapipatterns.protobufgen.exception.LazyMessageMismatchException;
+import io.github.microserviceapipatterns.protobufgen.exception.MessageNotInSpecException;
+import io.github.microserviceapipatterns.protobufgen.exception.ModelValidationException;
+import io.github.microserviceapipatterns.protobufgen.exception.NestedMessageAlreadyExistsException;
+import io.github.microserviceapipatterns.protobufgen.exception.ValidationProblem;
 import org.junit.jupiter.api.Test;
 
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -123,6 +134,185 @@ public class MessageTest {
         assertEquals(2, message.getFields().stream().filter(f -> f.getName().equals("testField2")).map(f -> f.getNumber()).findAny().get());
     }
 
+    @Test
+    public void canLookUpFieldsByNameAndNumber() {
+        // given
+        Message.Builder builder = new Message.Builder("TestMessage");
+        for (int i = 1; i <= 100; i++) {
+            builder.withField(new MessageField.Builder(SimpleFieldType.STRING, "field" + i, i * 3));
+        }
+
+        // when
+        Message message = builder.build();
+
+        // then
+        assertEquals(12, message.getField("field4").getNumber());
+        assertEquals("field4", message.getFieldByNumber(12).getName());
+        assertEquals("field1", message.getFieldByNumber(3).getName());
+        assertEquals("field100", message.getFieldByNumber(300).getName());
+        assertNull(message.getField("field101"));
+        assertNull(message.getFieldByNumber(13));
+        assertNull(message.getFieldByNumber(303));
+        assertTrue(message.getFields().contains(message.getField("field42")));
+    }
+
+    @Test
+    public void keepsFieldsOrderedByNumber() {
+        // given
+        Message.Builder builder = new Message.Builder("TestMessage")
+                .withField(new MessageField.Builder(SimpleFieldType.STRING, "third", 3))
+                .withField(new MessageField.Builder(SimpleFieldType.STRING, "first", 1))
+                .withField(new MessageField.Builder(SimpleFieldType.STRING, "second", 2));
+
+        // when
+        Message message = builder.build();
+
+        // then
+        assertEquals(Arrays.asList("first", "second", "third"), message.getFieldList().stream().map(MessageField::getName).collect(Collectors.toList()));
+        assertEquals(Arrays.asList("first", "second", "third"), message.getFields().stream().map(MessageField::getName).collect(Collectors.toList()));
+    }
+
+    @Test
+    public void canAddFieldsInBulk() {
+        // given
+        Message.Builder builder = new Message.Builder("TestMessage");
+
+        // when
+        Message message = builder.withFields(Arrays.asList(
+                new MessageField.Builder(SimpleFieldType.STRING, "name", 3).build(),
+                new MessageField.Builder(SimpleFieldType.INT32, "id", 1).build()))
+                .withField(SimpleFieldType.BOOL, "active")
+                .build();
+
+        // then
+        assertEquals(3, message.getFields().size());
+        assertEquals("id", message.getFieldByNumber(1).getName());
+        assertEquals(2, message.getField("active").getNumber());
+    }
+
+    @Test
+    public void canGiveFieldNumbersAutomaticallyInBulk() {
+        // given
+        Message.Builder builder = new Message.Builder("TestMessage").withField(SimpleFieldType.INT64, "id");
+
+        // when
+        Message message = builder.withFields(SimpleFieldType.STRING, Arrays.asList("first_name", "last_name", "email"))
+                .withField(SimpleFieldType.BOOL, "active")
+                .build();
+
+        // then
+        assertEquals(Arrays.asList("id", "first_name", "last_name", "email", "active"), message.getFieldList().stream().map(MessageField::getName).collect(Collectors.toList()));
+        assertEquals(5, message.getField("active").getNumber());
+    }
+
+    @Test
+    public void cannotAddFieldsInBulkWithDuplicateNames() {
+        // given
+        Message.Builder builder = new Message.Builder("TestMessage").withField(SimpleFieldType.INT64, "id");
+
+        // when
+        assertThrows(FieldAlreadyExistsException.class, () -> {
+            builder.withFields(SimpleFieldType.STRING, Arrays.asList("name", "name"));
+        });
+        assertThrows(FieldAlreadyExistsException.class, () -> {
+            builder.withFields(SimpleFieldType.STRING, Arrays.asList("name", "id"));
+        });
+        Message message = builder.build();
+
+        // then
+        assertEquals(1, message.getFields().size());
+    }
+
+    @Test
+    public void cannotAddFieldsInBulkWithDuplicateNumbers() {
+        // given
+        Message.Builder builder = new Message.Builder("TestMessage").withField(SimpleFieldType.INT64, "id");
+
+        // when, then
+        assertThrows(FieldNumberAlreadyExistsException.class, () -> {
+            builder.withFields(Arrays.asList(
+                    new MessageField.Builder(SimpleFieldType.STRING, "name", 2).build(),
+                    new MessageField.Builder(SimpleFieldType.STRING, "email", 2).build()));
+        });
+        assertThrows(FieldNumberAlreadyExistsException.class, () -> {
+            builder.withFields(Arrays.asList(new MessageField.Builder(SimpleFieldType.STRING, "name", 1).build()));
+        });
+        assertNull(builder.build().getField("name"));
+    }
+
+    @Test
+    public void canDeferValidationToBuild() {
+        // given
+        Message.Builder builder = new Message.Builder("TestMessage").withDeferredValidation();
+
+        // when
+        Message message = builder.withField(SimpleFieldType.STRING, "name")
+                .withFields(SimpleFieldType.STRING, Arrays.asList("first_name", "last_name"))
+                .withNestedMessage(new Message.Builder("Nested").build())
+                .build();
+
+        // then
+        assertEquals(3, message.getFields().size());
+        assertEquals(3, message.getField("last_name").getNumber());
+        assertEquals("TestMessage.Nested", message.getNestedMessages().get(0).getName());
+    }
+
+    @Test
+    public void canReportAllProblemsAtOnceWithDeferredValidation() {
+        // given
+        Message.Builder builder = new Message.Builder("TestMessage").withDeferredValidation()
+                .withField(new MessageField.Builder(SimpleFieldType.STRING, "name", 1))
+                .withField(new MessageField.Builder(SimpleFieldType.STRING, "name", 2))
+                .withField(new MessageField.Builder(SimpleFieldType.STRING, "email", 1))
+                .withNestedMessage(new Message.Builder("Nested").build())
+                .withNestedMessage(new Message.Builder("Nested").build());
+
+        // when
+        ModelValidationException exception = assertThrows(ModelValidationException.class, builder::build);
+
+        // then
+        assertEquals(3, exception.getProblems().size());
+        assertTrue(exception.getProblems().get(0) instanceof FieldAlreadyExistsException);
+        assertTrue(exception.getProblems().get(1) instanceof FieldNumberAlreadyExistsException);
+        assertTrue(exception.getProblems().get(2) instanceof NestedMessageAlreadyExistsException);
+        assertEquals(Arrays.asList("TestMessage.name", "TestMessage.email", "TestMessage.Nested"),
+                exception.getReport().getProblems().stream().map(ValidationProblem::getPath).collect(Collectors.toList()));
+    }
+
+    @Test
+    public void reportsSameProblemsWhenBuildingAgainAfterFailedValidation() {
+        // given
+        Message.Builder builder = new Message.Builder("TestMessage").withDeferredValidation()
+                .withField(new MessageField.Builder(SimpleFieldType.STRING, "name", 1))
+                .withField(new MessageField.Builder(SimpleFieldType.STRING, "name", 2))
+                .withNestedMessage(new Message.Builder("Nested").build());
+
+        // when
+        ModelValidationException first = assertThrows(ModelValidationException.class, builder::build);
+        ModelValidationException second = assertThrows(ModelValidationException.class, builder::build);
+
+        // then
+        assertEquals(first.getReport().toString(), second.getReport().toString());
+        assertEquals(1, second.getProblems().size());
+    }
+
+    @Test
+    public void reportsFullPathsOfProblemsInNestedMessages() {
+        // given
+        Message.Builder builder = new Message.Builder("Outer").withDeferredValidation()
+                .withNestedMessage(new Message.Builder("Inner").withDeferredValidation()
+                        .withNestedMessage(new Message.Builder("Deep").withDeferredValidation()
+                                .withField(SimpleFieldType.STRING, "name")
+                                .withField(SimpleFieldType.STRING, "name")));
+
+        // when
+        ModelValidationException exception = assertThrows(ModelValidationException.class, builder::build);
+
+        // then
+        assertEquals(1, exception.getProblems().size());
+        assertEquals("Outer.Inner.Deep.name", exception.getReport().getProblems().get(0).getPath());
+    }
+
     @Test
     public void canNestMessages() {
         // given
@@ -135,9 +325,13 @@ public class MessageTest {
 
         // then
         assertEquals(1, parent.getNestedMessages().size());
-        assertTrue(child.isNestedMessage());
-        assertEquals("ParentMessage", child.getParent().getName());
-        assertEquals("ParentMessage.ChildMessage", child.getName());
+        assertTrue(parent.getNestedMessages().get(0).isNestedMessage());
+        assertSame(parent, parent.getNestedMessages().get(0).getParent());
+        assertEquals("ParentMessage.ChildMessage", parent.getNestedMessages().get(0).getName());
+        assertSame(child, parent.getNestedMessages().get(0).getDefinition());
+        assertSame(parent.getNestedMessages().get(0), parent.getNestedMessages().get(0));
+        assertFalse(child.isNestedMessage());
+        assertEquals("ChildMessage", child.getName());
     }
 
     @Test
@@ -151,19 +345,43 @@ public class MessageTest {
         Message childChild = childChildMessage.build();
         Message child = childMessage.withNestedMessage(childChild).build();
         Message parent = parentMessage.withNestedMessage(child).build();
+        ProtoSpec spec = new ProtoSpec.Builder().withMessage(parent).build();
 
         // then
         assertEquals(1, parent.getNestedMessages().size());
         assertEquals(1, child.getNestedMessages().size());
-        assertTrue(child.isNestedMessage());
-        assertTrue(childChild.isNestedMessage());
-        assertEquals("ParentMessage", child.getParent().getName());
-        assertEquals("ParentMessage.ChildMessage", childChild.getParent().getName());
-        assertEquals("ParentMessage.ChildMessage.ChildChildMessage", childChild.getName());
-        assertEquals("ChildMessage", childChild.getParent().getSimpleName());
+        assertEquals(new FullIdentifier("ParentMessage"), spec.getFullIdentifier(parent));
+        assertEquals(new FullIdentifier("ParentMessage.ChildMessage"), spec.getFullIdentifier(child));
+        assertEquals(new FullIdentifier("ParentMessage.ChildMessage.ChildChildMessage"), spec.getFullIdentifier(childChild));
+        Message nestedChildChild = parent.getNestedMessages().get(0).getNestedMessages().get(0);
+        assertTrue(nestedChildChild.isNestedMessage());
+        assertEquals("ParentMessage.ChildMessage", nestedChildChild.getParent().getName());
+        assertEquals("ParentMessage.ChildMessage.ChildChildMessage", nestedChildChild.getName());
+        assertEquals(spec.getFullIdentifier(nestedChildChild), nestedChildChild.getFullIdentifier());
+        assertEquals("ChildMessage", nestedChildChild.getParent().getSimpleName());
         assertEquals("ChildChildMessage", childChild.getSimpleName());
     }
 
+    @Test
+    public void doesNotChangeMessagesWhenNestingThem() {
+        // given
+        Message childChild = new Message.Builder("ChildChildMessage").build();
+        Message child = new Message.Builder("ChildMessage").withNestedMessage(childChild).build();
+
+        // when
+        Message firstParent = new Message.Builder("FirstParent").withNestedMessage(child).build();
+        Message secondParent = new Message.Builder("SecondParent").withNestedMessage(child).build();
+        ProtoSpec firstSpec = new ProtoSpec.Builder().withMessage(firstParent).build();
+        ProtoSpec secondSpec = new ProtoSpec.Builder().withMessage(secondParent).build();
+
+        // then
+        assertEquals("ChildChildMessage", childChild.getName());
+        assertEquals(new FullIdentifier("FirstParent.ChildMessage.ChildChildMessage"), firstSpec.getFullIdentifier(childChild));
+        assertEquals(new FullIdentifier("SecondParent.ChildMessage.ChildChildMessage"), secondSpec.getFullIdentifier(childChild));
+        assertEquals("FirstParent.ChildMessage.ChildChildMessage", firstSpec.getMessages().get(0).getNestedMessages().get(0).getNestedMessages().get(0).getName());
+        assertThrows(MessageNotInSpecException.class, () -> new ProtoSpec.Builder().build().getFullIdentifier(child));
+    }
+
     @Test
     public void cannotAddDuplicateNestedMessage() {
         // given
@@ -178,6 +396,48 @@ public class MessageTest {
         });
     }
 
+    @Test
+    public void summarizesWellKnownTypesOfSubtree() {
+        // given
+        Message childChild = new Message.Builder("ChildChildMessage")
+                .withField(new AnyType(), "anyField")
+                .build();
+        Message child = new Message.Builder("ChildMessage")
+                .withField(SimpleFieldType.STRING, "name")
+                .withNestedMessage(childChild)
+                .build();
+
+        // when
+        Message parent = new Message.Builder("ParentMessage").withNestedMessage(child).build();
+        Message other = new Message.Builder("OtherMessage").withField(SimpleFieldType.STRING, "name").build();
+
+        // then
+        assertEquals(WellKnownType.ANY.mask(), parent.getUsedWellKnownTypes());
+        assertEquals(0L, other.getUsedWellKnownTypes());
+    }
+
+    @Test
+    public void returnsReadOnlyViewsWithoutCopying() {
+        // given
+        Message message = new Message.Builder("ParentMessage")
+                .withField(SimpleFieldType.STRING, "name")
+                .withNestedMessage(new Message.Builder("ChildMessage").build())
+                .build();
+
+        // when, then
+        assertSame(message.getFields(), message.getFields());
+        assertSame(message.getNestedMessages(), message.getNestedMessages());
+        assertThrows(UnsupportedOperationException.class, () -> {
+            message.getFields().clear();
+        });
+        assertThrows(UnsupportedOperationException.class, () -> {
+            message.getFieldList().clear();
+        });
+        assertThrows(UnsupportedOperationException.class, () -> {
+            message.getNestedMessages().clear();
+        });
+    }
+
     @Test
     public void canDetermineEquality() {
         // given
@@ -207,4 +467,238 @@ public class MessageTest {
         assertEquals(1, messageSet.size());
     }
 
+    @Test
+    public void canCreateBuilderFromMessage() {
+        // given
+        Message nested = new Message.Builder("Nested").build();
+        Message message = new Message.Builder("TestMessage")
+                .withComment("test-comment")
+                .withField(SimpleFieldType.STRING, "name")
+                .withNestedMessage(nested)
+                .build();
+
+        // when
+        Message copy = message.toBuilder().withField(SimpleFieldType.INT32, "age").build();
+
+        // then
+        assertEquals("test-comment", copy.getComment());
+        assertEquals(2, copy.getFieldByNumber(2).getNumber());
+        assertSame(message.getField("name"), copy.getField("name"));
+        assertSame(nested, copy.getNestedMessages().get(0).getDefinition());
+        assertEquals(1, message.getFields().size());
+    }
+
+    @Test
+    public void canAddFieldWithoutChangingOriginal() {
+        // given
+        Message message = new Message.Builder("TestMessage")
+                .withField(new MessageField.Builder(SimpleFieldType.STRING, "first", 1))
+                .withField(new MessageField.Builder(SimpleFieldType.STRING, "third", 3))
+                .withNestedMessage(new Message.Builder("Nested").build())
+                .build();
+        MessageField second = new MessageField.Builder(SimpleFieldType.STRING, "second", 2).build();
+
+        // when
+        Message copy = message.withFieldAdded(second);
+
+        // then
+        assertEquals(Arrays.asList("first", "second", "third"), copy.getFieldList().stream().map(MessageField::getName).collect(Collectors.toList()));
+        assertSame(second, copy.getField("second"));
+        assertSame(second, copy.getFieldByNumber(2));
+        assertTrue(copy.getFields().contains(second));
+        assertSame(message.getNestedMessages().get(0).getDefinition(), copy.getNestedMessages().get(0).getDefinition());
+        assertSame(copy, copy.getNestedMessages().get(0).getParent());
+        assertEquals(2, message.getFields().size());
+        assertNull(message.getField("second"));
+    }
+
+    @Test
+    public void cannotAddFieldWithExistingNameOrNumber() {
+        // given
+        Message message = new Message.Builder("TestMessage")
+                .withField(SimpleFieldType.STRING, "name")
+                .build();
+
+        // when, then
+        assertThrows(FieldAlreadyExistsException.class, () -> {
+            message.withFieldAdded(new MessageField.Builder(SimpleFieldType.STRING, "name", 2).build());
+        });
+        assertThrows(FieldNumberAlreadyExistsException.class, () -> {
+            message.withFieldAdded(new MessageField.Builder(SimpleFieldType.STRING, "other", 1).build());
+        });
+    }
+
+    @Test
+    public void canReplaceNestedMessage() {
+        // given
+        Message first = new Message.Builder("First").build();
+        Message second = new Message.Builder("Second").build();
+        Message message = new Message.Builder("TestMessage")
+                .withField(SimpleFieldType.STRING, "name")
+                .withNestedMessage(first)
+                .withNestedMessage(second)
+                .build();
+        Message replacement = new Message.Builder("First").withField(new AnyType(), "any").build();
+
+        // when
+        Message copy = message.withNestedMessageReplaced("First", replacement);
+
+        // then
+        assertSame(replacement, copy.getNestedMessages().get(0).getDefinition());
+        assertSame(second, copy.getNestedMessages().get(1).getDefinition());
+        assertSame(first, message.getNestedMessages().get(0).getDefinition());
+        assertEquals("TestMessage.First", copy.getNestedMessages().get(0).getName());
+        assertSame(message.getField("name"), copy.getField("name"));
+        assertEquals("First", replacement.getName());
+        assertNotEquals(0L, copy.getUsedWellKnownTypes());
+    }
+
+    @Test
+    public void cannotReplaceNestedMessageThatDoesNotExist() {
+        // given
+        Message message = new Message.Builder("TestMessage")
+                .withNestedMessage(new Message.Builder("First").build())
+                .withNestedMessage(new Message.Builder("Second").build())
+                .build();
+
+        // when, then
+        assertThrows(ElementNotFoundException.class, () -> {
+            message.withNestedMessageReplaced("Third", new Message.Builder("Third").build());
+        });
+        assertThrows(NestedMessageAlreadyExistsException.class, () -> {
+            message.withNestedMessageReplaced("First", new Message.Builder("Second").build());
+        });
+    }
+
+    @Test
+    public void canResetBuilder() {
+        // given
+        Message.Builder builder = new Message.Builder("First")
+                .withDeferredValidation()
+                .withComment("first comment")
+                .withField(SimpleFieldType.STRING, "name")
+                .withNestedMessage(new Message.Builder("Nested").build());
+        Message first = builder.build();
+
+        // when
+        Message second = builder.reset("Second").withField(SimpleFieldType.INT32, "age").build();
+
+        // then
+        assertEquals("Second", second.getName());
+        assertEquals("", second.getComment());
+        assertEquals(1, second.getFieldByNumber(1).getNumber());
+        assertNull(second.getField("name"));
+        assertTrue(second.getNestedMessages().isEmpty());
+        assertEquals("first comment", first.getComment());
+        assertEquals(1, first.getFields().size());
+        assertEquals(1, first.getNestedMessages().size());
+    }
+
+    @Test
+    public void canUseThreadLocalBuilder() {
+        // given
+        Message.Builder builder = Message.Builder.threadLocal("First");
+        Message first = builder.withField(SimpleFieldType.STRING, "name").build();
+
+        // when
+        Message.Builder sameBuilder = Message.Builder.threadLocal("Second");
+        Message second = sameBuilder.build();
+
+        // then
+        assertSame(builder, sameBuilder);
+        assertEquals("First", first.getName());
+        assertEquals(1, first.getFields().size());
+        assertEquals("Second", second.getName());
+        assertTrue(second.getFields().isEmpty());
+    }
+
+    @Test
+    public void canAddLazyNestedMessage() {
+        // given
+        AtomicInteger supplierCalls = new AtomicInteger();
+        Message.Builder builder = new Message.Builder("ParentMessage")
+                .withLazyNestedMessage("LazyChild", () -> {
+                    supplierCalls.incrementAndGet();
+                    return new Message.Builder("LazyChild").withField(SimpleFieldType.STRING, "name").build();
+                });
+
+        // when
+        Message parent = builder.build();
+        int callsAfterBuild = supplierCalls.get();
+        Message child = parent.getNestedMessages().get(0);
+
+        // then
+        assertEquals(0, callsAfterBuild);
+        assertEquals("ParentMessage.LazyChild", child.getName());
+        assertSame(parent, child.getParent());
+        assertSame(child, parent.getNestedMessages().get(0));
+        assertEquals(1, parent.getNestedMessages().size());
+        assertEquals(1, supplierCalls.get());
+    }
+
+    @Test
+    public void materializesLazyNestedMessageOnceForAllThreads() {
+        // given
+        AtomicInteger supplierCalls = new AtomicInteger();
+        Message parent = new Message.Builder("ParentMessage")
+                .withLazyNestedMessage("LazyChild", () -> {
+                    supplierCalls.incrementAndGet();
+                    return new Message.Builder("LazyChild").build();
+                })
+                .build();
+
+        // when
+        Set<Message> children = IntStream.range(0, 100).parallel()
+                .mapToObj(i -> parent.getNestedMessages().get(0))
+                .collect(Collectors.toCollection(() -> Collections.newSetFromMap(new IdentityHashMap<>())));
+
+        // then
+        assertEquals(1, children.size());
+        assertEquals(1, supplierCalls.get());
+    }
+
+    @Test
+    public void cannotAddLazyNestedMessageWithExistingName() {
+        // given
+        Message.Builder builder = new Message.Builder("ParentMessage")
+                .withNestedMessage(new Message.Builder("Child").build());
+
+        // when, then
+        assertThrows(NestedMessageAlreadyExistsException.class, () -> {
+            builder.withLazyNestedMessage("Child", () -> new Message.Builder("Child").build());
+        });
+    }
+
+    @Test
+    public void cannotSupplyLazyNestedMessageWithOtherName() {
+        // given
+        Message parent = new Message.Builder("ParentMessage")
+                .withLazyNestedMessage("Child", () -> new Message.Builder("Other").build())
+                .build();
+
+        // when, then
+        assertThrows(LazyMessageMismatchException.class, () -> {
+            parent.getNestedMessages().get(0);
+        });
+    }
+
+    @Test
+    public void cannotSupplyNullAsLazyNestedMessage() {
+        // given
+        Message parent = new Message.Builder("ParentMessage")
+                .withLazyNestedMessage("Child", () -> null)
+                .build();
+
+        // when
+        LazyMessageMismatchException exception = assertThrows(LazyMessageMismatchException.class, () -> {
+            parent.getNestedMessages().get(0);
+        });
+
+        // then
+        assertTrue(exception.getMessage().contains("'Child'"));
+        assertThrows(LazyMessageMismatchException.class, () -> {
+            parent.getNestedMessages().get(0);
+        });
+    }
+
 }
@@ -16,11 +16,22 @@
 package io.github.microserviceapipatterns.protobufgen.model;
 
 import io.github.microserviceapipatterns.protobufgen.AbstractProtoIntegTest;
+import io.github.microserviceapipatterns.protobufgen.exception.AmbiguousTypeException;
+import io.github.microserviceapipatterns.protobufgen.exception.ElementNotFoundException;
+import io.github.microserviceapipatterns.protobufgen.exception.FieldAlreadyExistsException;
+import io.github.microserviceapipatterns.protobufgen.exception.ModelValidationException;
+import io.github.microserviceapipatterns.protobufgen.exception.MessageNotInSpecException;
 import io.github.microserviceapipatterns.protobufgen.exception.RootElementAlreadyExistsException;
+import io.github.microserviceapipatterns.protobufgen.exception.ShadowedTypeException;
+import io.github.microserviceapipatterns.protobufgen.exception.UnresolvedTypeException;
+import io.github.microserviceapipatterns.protobufgen.exception.ValidationReport;
 import org.junit.jupiter.api.Test;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -119,6 +130,144 @@ public class ProtoSpecTest extends AbstractProtoIntegTest {
         });
     }
 
+    @Test
+    public void canAddRootElementsInBulk() {
+        // given
+        ProtoSpec.Builder builder = new ProtoSpec.Builder();
+
+        // when
+        ProtoSpec spec = builder.withMessages(Arrays.asList(new Message.Builder("Message1").build(), new Message.Builder("Message2").build()))
+                .withEnums(Arrays.asList(new Enum.Builder("Enum1").build(), new Enum.Builder("Enum2").build()))
+                .withServices(Arrays.asList(new Service.Builder("Service1").build(), new Service.Builder("Service2").build()))
+                .build();
+
+        // then
+        assertEquals(2, spec.getMessages().size());
+        assertEquals(2, spec.getEnums().size());
+        assertEquals(2, spec.getServices().size());
+        assertEquals("Message2", spec.getMessages().get(1).getName());
+        assertNotNull(spec.findRootElement("Service1"));
+    }
+
+    @Test
+    public void cannotAddRootElementsInBulkWithAlreadyExistingNames() {
+        // given
+        ProtoSpec.Builder builder = new ProtoSpec.Builder().withMessage(new Message.Builder("Existing"));
+
+        // when
+        assertThrows(RootElementAlreadyExistsException.class, () -> {
+            builder.withMessages(Arrays.asList(new Message.Builder("New").build(), new Message.Builder("New").build()));
+        });
+        assertThrows(RootElementAlreadyExistsException.class, () -> {
+            builder.withEnums(Arrays.asList(new Enum.Builder("AnotherNew").build(), new Enum.Builder("Existing").build()));
+        });
+        ProtoSpec spec = builder.build();
+
+        // then
+        assertEquals(1, spec.getMessages().size());
+        assertTrue(spec.getEnums().isEmpty());
+        assertNull(spec.findRootElement("New"));
+    }
+
+    @Test
+    public void canReportAllProblemsAtOnceWithDeferredValidation() {
+        // given
+        ProtoSpec.Builder builder = new ProtoSpec.Builder().withDeferredValidation()
+                .withMessage(new Message.Builder("Duplicate"))
+                .withEnum(new Enum.Builder("Duplicate"))
+                .withMessage(new Message.Builder("Invalid").withDeferredValidation()
+                        .withField(SimpleFieldType.STRING, "name")
+                        .withField(SimpleFieldType.STRING, "name"))
+                .withService(new Service.Builder("Duplicate"));
+
+        // when
+        ModelValidationException exception = assertThrows(ModelValidationException.class, builder::build);
+
+        // then
+        assertEquals(3, exception.getProblems().size());
+        assertTrue(exception.getProblems().get(0) instanceof FieldAlreadyExistsException);
+        assertTrue(exception.getProblems().get(1) instanceof RootElementAlreadyExistsException);
+        assertTrue(exception.getProblems().get(2) instanceof RootElementAlreadyExistsException);
+        assertTrue(exception.getMessage().startsWith("The model contains 3 problems:"));
+        assertTrue(exception.getMessage().contains(" - Invalid.name: A field with the name 'name' already exists."));
+        assertEquals("Duplicate", exception.getReport().getProblems().get(1).getPath());
+    }
+
+    @Test
+    public void reportsSameProblemsWhenBuildingAgainAfterFailedValidation() {
+        // given
+        ProtoSpec.Builder builder = new ProtoSpec.Builder().withDeferredValidation()
+                .withMessage(new Message.Builder("Duplicate"))
+                .withMessage(new Message.Builder("Duplicate"));
+
+        // when
+        assertThrows(ModelValidationException.class, builder::build);
+        ModelValidationException exception = assertThrows(ModelValidationException.class, builder::build);
+
+        // then
+        assertEquals(1, exception.getProblems().size());
+        assertTrue(exception.getProblems().get(0) instanceof RootElementAlreadyExistsException);
+    }
+
+    @Test
+    public void canFindRootElementByName() {
+        // given
+        Message message = new Message.Builder("TestMessage").build();
+        Enum enumm = new Enum.Builder("TestEnum").build();
+        Service service = new Service.Builder("TestService").build();
+
+        // when
+        ProtoSpec spec = new ProtoSpec.Builder()
+                .withMessage(message)
+                .withEnum(enumm)
+                .withService(service)
+                .build();
+
+        // then
+        assertSame(message, spec.findRootElement("TestMessage"));
+        assertSame(enumm, spec.findRootElement("TestEnum"));
+        assertSame(service, spec.findRootElement("TestService"));
+        assertNull(spec.findRootElement("AnotherElement"));
+    }
+
+    @Test
+    public void findsNoRootElementForNamesThatAreNoIdentifiers() {
+        // given
+        ProtoSpec spec = new ProtoSpec.Builder()
+                .withMessage(new Message.Builder("TestMessage").withNestedMessage(new Message.Builder("Nested")))
+                .build();
+
+        // when, then
+        assertNull(spec.findRootElement("TestMessage.Nested"));
+        assertNull(spec.findRootElement(""));
+        assertNull(spec.findRootElement(null));
+    }
+
+    @Test
+    public void returnsReadOnlyViewsWithoutCopying() {
+        // given
+        ProtoSpec spec = new ProtoSpec.Builder()
+                .withMessage(new Message.Builder("TestMessage"))
+                .withImport("protos/test.proto")
+                .build();
+
+        // when, then
+        assertSame(spec.getMessages(), spec.getMessages());
+        assertSame(spec.getImportStatements(), spec.getImportStatements());
+        assertThrows(UnsupportedOperationException.class, () -> {
+            spec.getMessages().clear();
+        });
+        assertThrows(UnsupportedOperationException.class, () -> {
+            spec.getEnums().clear();
+        });
+        assertThrows(UnsupportedOperationException.class, () -> {
+            spec.getServices().clear();
+        });
+        assertThrows(UnsupportedOperationException.class, () -> {
+            spec.getImportStatements().clear();
+        });
+    }
+
     @Test
     public void canAddImport() {
         // given
@@ -237,6 +386,22 @@ public class ProtoSpecTest extends AbstractProtoIntegTest {
         assertEquals("google/protobuf/any.proto", spec.getImportStatements().iterator().next().getFileName());
     }
 
+    @Test
+    public void doNotAddAnyTypeImportIfNotNeeded() {
+        // given
+        ProtoSpec.Builder builder = new ProtoSpec.Builder();
+        Message message = new Message.Builder("TestMessage")
+                .withField(SimpleFieldType.STRING, "name")
+                .withNestedMessage(new Message.Builder("NestedType").withField(SimpleFieldType.BOOL, "flag").build())
+                .build();
+
+        // when
+        ProtoSpec spec = builder.withMessage(message).build();
+
+        // then
+        assertTrue(spec.getImportStatements().isEmpty());
+    }
+
     @Test
     public void doNotAddAnyTypeImportIfDoneManually() {
         // given
@@ -255,4 +420,456 @@ public class ProtoSpecTest extends AbstractProtoIntegTest {
         assertEquals("google/protobuf/any.proto", spec.getImportStatements().iterator().next().getFileName());
     }
 
+    @Test
+    public void canReplaceMessageWithoutChangingOriginal() {
+        // given
+        Message first = new Message.Builder("First").build();
+        Message second = new Message.Builder("Second").build();
+        ProtoSpec spec = new ProtoSpec.Builder()
+                .withMessage(first)
+                .withMessage(second)
+                .withEnum(new Enum.Builder("TestEnum"))
+                .build();
+        Message replacement = first.withFieldAdded(new MessageField.Builder(new AnyType(), "any", 1).build());
+
+        // when
+        ProtoSpec copy = spec.withMessageReplaced("First", replacement);
+
+        // then
+        assertSame(replacement, copy.getMessages().get(0));
+        assertSame(second, copy.getMessages().get(1));
+        assertSame(replacement, copy.findRootElement("First"));
+        assertSame(spec.getEnums(), copy.getEnums());
+        assertEquals("google/protobuf/any.proto", copy.getImportStatements().get(0).getFileName());
+        assertSame(first, spec.getMessages().get(0));
+        assertSame(first, spec.findRootElement("First"));
+        assertTrue(spec.getImportStatements().isEmpty());
+    }
+
+    @Test
+    public void sharesImportsIfReplacedMessageRequiresSameImports() {
+        // given
+        Message first = new Message.Builder("First").withField(new AnyType(), "any").build();
+        ProtoSpec spec = new ProtoSpec.Builder()
+                .withMessage(first)
+                .withMessage(new Message.Builder("Second"))
+                .build();
+
+        // when
+        ProtoSpec sameImports = spec.withMessageReplaced("First", first.withFieldAdded(new MessageField.Builder(new AnyType(), "other", 2).build()));
+        ProtoSpec otherImports = spec.withMessageReplaced("First", new Message.Builder("First").withField(new TypeReference("common.Money", "common/money.proto"), "amount").build());
+
+        // then
+        assertSame(spec.getImportStatements(), sameImports.getImportStatements());
+        assertEquals(1, otherImports.getImportStatements().size());
+        assertEquals("common/money.proto", otherImports.getImportStatements().get(0).getFileName());
+    }
+
+    @Test
+    public void canReplaceMessageWithRenamedMessage() {
+        // given
+        ProtoSpec spec = new ProtoSpec.Builder()
+                .withMessage(new Message.Builder("First"))
+                .withMessage(new Message.Builder("Second"))
+                .build();
+
+        // when
+        ProtoSpec copy = spec.withMessageReplaced("First", new Message.Builder("Renamed").build());
+
+        // then
+        assertNull(copy.findRootElement("First"));
+        assertNotNull(copy.findRootElement("Renamed"));
+        assertEquals("Renamed", copy.getMessages().get(0).getName());
+        assertThrows(RootElementAlreadyExistsException.class, () -> {
+            copy.withMessageReplaced("Renamed", new Message.Builder("Second").build());
+        });
+    }
+
+    @Test
+    public void resolvesFullIdentifiersOfNestedMessagesAfterReplacingMessage() {
+        // given
+        Message nested = new Message.Builder("Nested").build();
+        Message replacedNested = new Message.Builder("Nested").withField(SimpleFieldType.STRING, "name").build();
+        ProtoSpec spec = new ProtoSpec.Builder()
+                .withMessage(new Message.Builder("First").withNestedMessage(nested))
+                .build();
+        assertEquals(new FullIdentifier("First.Nested"), spec.getFullIdentifier(nested));
+
+        // when
+        ProtoSpec copy = spec.withMessageReplaced("First", new Message.Builder("First").withNestedMessage(replacedNested).build());
+
+        // then
+        assertEquals(new FullIdentifier("First.Nested"), copy.getFullIdentifier(replacedNested));
+        assertThrows(MessageNotInSpecException.class, () -> copy.getFullIdentifier(nested));
+        assertEquals(new FullIdentifier("First.Nested"), spec.getFullIdentifier(nested));
+    }
+
+    @Test
+    public void cannotReplaceElementThatDoesNotExist() {
+        // given
+        ProtoSpec spec = new ProtoSpec.Builder()
+                .withMessage(new Message.Builder("TestMessage"))
+                .withService(new Service.Builder("TestService"))
+                .build();
+
+        // when, then
+        assertThrows(ElementNotFoundException.class, () -> {
+            spec.withMessageReplaced("Other", new Message.Builder("Other").build());
+        });
+        assertThrows(ElementNotFoundException.class, () -> {
+            spec.withMessageReplaced("TestService", new Message.Builder("TestService").build());
+        });
+    }
+
+    @Test
+    public void canReplaceService() {
+        // given
+        ProtoSpec spec = new ProtoSpec.Builder()
+                .withMessage(new Message.Builder("TestMessage"))
+                .withService(new Service.Builder("TestService"))
+                .build();
+        Service replacement = new Service.Builder("TestService").withComment("replaced").build();
+
+        // when
+        ProtoSpec copy = spec.withServiceReplaced("TestService", replacement);
+
+        // then
+        assertSame(replacement, copy.getServices().get(0));
+        assertSame(spec.getMessages(), copy.getMessages());
+        assertEquals("", spec.getServices().get(0).getComment());
+    }
+
+    @Test
+    public void canCreateBuilderFromSpec() {
+        // given
+        ProtoSpec spec = new ProtoSpec.Builder()
+                .withPackage("test.pkg")
+                .withComment("test-comment")
+                .withImport("other.proto")
+                .withMessage(new Message.Builder("TestMessage"))
+                .build();
+
+        // when
+        ProtoSpec copy = spec.toBuilder().withEnum(new Enum.Builder("TestEnum")).build();
+
+        // then
+        assertEquals("test.pkg", copy.getPackage());
+        assertEquals("test-comment", copy.getComment());
+        assertEquals("other.proto", copy.getImportStatements().get(0).getFileName());
+        assertSame(spec.getMessages().get(0), copy.getMessages().get(0));
+        assertEquals(1, copy.getEnums().size());
+        assertTrue(spec.getEnums().isEmpty());
+    }
+
+    @Test
+    public void canResetBuilder() {
+        // given
+        ProtoSpec.Builder builder = ProtoSpec.Builder.threadLocal()
+                .withPackage("test.pkg")
+                .withComment("first comment")
+                .withImport("other.proto")
+                .withMessage(new Message.Builder("TestMessage"));
+        ProtoSpec first = builder.build();
+
+        // when
+        ProtoSpec second = ProtoSpec.Builder.threadLocal()
+                .withMessage(new Message.Builder("TestMessage"))
+                .build();
+
+        // then
+        assertEquals("", second.getPackage());
+        assertEquals("", second.getComment());
+        assertTrue(second.getImportStatements().isEmpty());
+        assertEquals(1, second.getMessages().size());
+        assertEquals("test.pkg", first.getPackage());
+        assertEquals(1, first.getImportStatements().size());
+    }
+
+    @Test
+    public void canSupplyCommentsLazily() {
+        // given
+        AtomicInteger supplierCalls = new AtomicInteger();
+        Supplier<CharSequence> comment = () -> "lazy comment " + supplierCalls.incrementAndGet();
+        Message message = new Message.Builder("TestMessage")
+                .withComment(comment)
+                .withField(new MessageField.Builder(SimpleFieldType.STRING, "name", 1).withComment(comment))
+                .build();
+        Enum enumm = new Enum.Builder("TestEnum")
+                .withComment(comment)
+                .withField(new EnumField.Builder("ZERO", 0).withComment(comment))
+                .build();
+        Service service = new Service.Builder("TestService")
+                .withComment(comment)
+                .withRPC(new RemoteProcedureCall.Builder("TestCall", message, message).withComment(comment))
+                .build();
+
+        // when
+        ProtoSpec spec = new ProtoSpec.Builder()
+                .withComment(comment)
+                .withMessage(message)
+                .withEnum(enumm)
+                .withService(service)
+                .build();
+        int callsBeforeRendering = supplierCalls.get();
+        String proto = spec.toString();
+
+        // then
+        assertEquals(0, callsBeforeRendering);
+        assertEquals(7, supplierCalls.get());
+        for (int i = 1; i <= 7; i++) {
+            assertTrue(proto.contains("lazy comment " + i));
+        }
+        assertTrue(proto.contains("/* " + message.getComment() + " */"));
+        assertEquals(7, supplierCalls.get());
+    }
+
+    @Test
+    public void resolvesLazyCommentOnce() {
+        // given
+        AtomicInteger supplierCalls = new AtomicInteger();
+        CharSequence comment = new LazyComment(() -> "lazy comment " + supplierCalls.incrementAndGet());
+
+        // when
+        int length = comment.length();
+        char first = comment.charAt(0);
+        CharSequence subSequence = comment.subSequence(0, 4);
+
+        // then
+        assertEquals("lazy comment 1".length(), length);
+        assertEquals('l', first);
+        assertEquals("lazy", subSequence.toString());
+        assertEquals("lazy comment 1", comment.toString());
+        assertEquals(1, supplierCalls.get());
+    }
+
+    @Test
+    public void canRenderLazyNestedMessages() {
+        // given
+        AtomicInteger supplierCalls = new AtomicInteger();
+        Message parent = new Message.Builder("Parent")
+                .withLazyNestedMessage("Child", () -> {
+                    supplierCalls.incrementAndGet();
+                    Message childChild = new Message.Builder("ChildChild").withField(new AnyType(), "any").build();
+                    return new Message.Builder("Child")
+                            .withField(childChild, "ref")
+                            .withNestedMessage(childChild)
+                            .build();
+                })
+                .build();
+
+        // when
+        ProtoSpec spec = new ProtoSpec.Builder().withMessage(parent).build();
+        int callsAfterBuild = supplierCalls.get();
+        String proto = spec.toString();
+
+        // then
+        assertEquals(0, callsAfterBuild);
+        assertEquals(1, supplierCalls.get());
+        assertTrue(proto.contains("import \"google/protobuf/any.proto\";"));
+        assertTrue(proto.contains("Parent.Child.ChildChild ref = 1;"));
+        assertEquals(new FullIdentifier("Parent.Child"), spec.getFullIdentifier(parent.getNestedMessages().get(0)));
+    }
+
+    @Test
+    public void doesNotMaterializeUnusedLazyNestedMessages() {
+        // given
+        AtomicInteger supplierCalls = new AtomicInteger();
+        Message lazy = new Message.Builder("Lazy")
+                .withLazyNestedMessage("Child", () -> {
+                    supplierCalls.incrementAndGet();
+                    return new Message.Builder("Child").build();
+                })
+                .build();
+        Message eager = new Message.Builder("Eager")
+                .withNestedMessage(new Message.Builder("Child").build())
+                .build();
+
+        // when
+        ProtoSpec spec = new ProtoSpec.Builder().withMessage(lazy).withMessage(eager).build();
+        FullIdentifier eagerChild = spec.getFullIdentifier(eager.getNestedMessages().get(0));
+
+        // then
+        assertEquals(new FullIdentifier("Eager.Child"), eagerChild);
+        assertThrows(MessageNotInSpecException.class, () -> spec.getFullIdentifier(new Message.Builder("Unknown").build()));
+        assertNotNull(spec.findRootElement("Lazy"));
+        assertEquals(0, supplierCalls.get());
+    }
+
+    @Test
+    public void canResolveNestedMessageByQualifiedName() {
+        // given
+        Message deep = new Message.Builder("Deep").build();
+        Message inner = new Message.Builder("Inner").withNestedMessage(deep).build();
+        Message outer = new Message.Builder("Outer").withNestedMessage(inner).build();
+        ProtoSpec spec = new ProtoSpec.Builder()
+                .withPackage("test.pkg")
+                .withMessage(outer)
+                .withEnum(new Enum.Builder("State").withField("UNKNOWN"))
+                .build();
+
+        // when
+        Symbol symbol = spec.resolve("Outer.Inner.Deep");
+
+        // then
+        assertSame(deep, ((Message) symbol.getElement()).getDefinition());
+        assertEquals("Outer.Inner.Deep", ((Message) symbol.getElement()).getName());
+        assertEquals("Outer.Inner.Deep", symbol.getFullIdentifier().toString());
+        assertEquals(Arrays.asList(outer, inner), symbol.getEnclosingMessages());
+        assertTrue(symbol.isNested());
+        assertSame(symbol, spec.resolve(".test.pkg.Outer.Inner.Deep"));
+        assertSame(outer, spec.resolve("Outer").getElement());
+        assertFalse(spec.resolve("Outer").isNested());
+        assertSame(spec.getEnums().get(0), spec.resolve("test.pkg.State").getElement());
+        assertNull(spec.resolve("Outer.Deep"));
+        assertNull(spec.resolve("Inner"));
+    }
+
+    @Test
+    public void canResolveMessageOfMessageStore() {
+        // given
+        ColumnarMessageStore store = new ColumnarMessageStore();
+        int outer = store.addMessage("Outer");
+        store.addNestedMessage(outer, "Inner");
+        ProtoSpec spec = new ProtoSpec.Builder().withMessageStore(store).build();
+
+        // when
+        Symbol symbol = spec.resolve("Outer.Inner");
+
+        // then
+        assertEquals("Outer.Inner", ((Message) symbol.getElement()).getName());
+        assertEquals("Outer", symbol.getEnclosingMessages().get(0).getName());
+        assertTrue(symbol.isNested());
+        assertSame(symbol, spec.resolve("Outer.Inner"));
+        assertSame(symbol.getElement(), spec.resolve("Outer.Inner").getElement());
+        assertFalse(spec.resolve("Outer").isNested());
+        assertNull(spec.resolve("Outer.Other"));
+        assertNull(spec.resolve("Inner"));
+    }
+
+    @Test
+    public void acceptsResolvableTypesInStrictMode() {
+        // given
+        Message nested = new Message.Builder("Nested").build();
+        Message parent = new Message.Builder("Parent")
+                .withNestedMessage(nested)
+                .withField(nested, "nested")
+                .withField(new TypeReference("common.Address", "common.proto"), "address")
+                .withField(new AnyType(), "details")
+                .build();
+        Service service = new Service.Builder("ParentService")
+                .withRPC(new RemoteProcedureCall.Builder("getNested", parent, nested))
+                .build();
+
+        // when
+        ProtoSpec spec = new ProtoSpec.Builder()
+                .withStrictTypeResolution()
+                .withMessage(parent)
+                .withService(service)
+                .build();
+
+        // then
+        assertTrue(spec.validateTypeReferences().isValid());
+    }
+
+    @Test
+    public void reportsUnresolvedTypesInStrictMode() {
+        // given
+        Message foreign = new Message.Builder("Foreign").build();
+        ProtoSpec.Builder builder = new ProtoSpec.Builder()
+                .withStrictTypeResolution()
+                .withMessage(new Message.Builder("Test")
+                        .withField(foreign, "foreign")
+                        .withField(new TypeReference("other.Type"), "other"));
+
+        // when
+        ModelValidationException exception = assertThrows(ModelValidationException.class, builder::build);
+
+        // then
+        assertEquals(2, exception.getReport().getProblems().size());
+        assertEquals("Test.foreign", exception.getReport().getProblems().get(0).getPath());
+        assertTrue(exception.getProblems().get(0) instanceof UnresolvedTypeException);
+        assertEquals("Test.other", exception.getReport().getProblems().get(1).getPath());
+        assertTrue(exception.getProblems().get(1) instanceof UnresolvedTypeException);
+    }
+
+    @Test
+    public void validatesTypesOfMessageStore() {
+        // given
+        ColumnarMessageStore store = new ColumnarMessageStore();
+        int address = store.addMessage("Address");
+        int customer = store.addMessage("Customer");
+        int customerAddress = store.addNestedMessage(customer, "Address");
+        store.addMessageField(customer, address, "address", 1);
+        store.addMessageField(customer, customerAddress, "customer_address", 2);
+        store.addField(customer, new TypeReference("Missing"), "missing", 3);
+        store.addField(customerAddress, new TypeReference("Address"), "parent", 1);
+        store.addField(address, new TypeReference("Customer.Address"), "nested", 1);
+        ProtoSpec spec = new ProtoSpec.Builder()
+                .withMessage(new Message.Builder("Order").withField(new TypeReference("Customer"), "customer"))
+                .withMessageStore(store)
+                .build();
+
+        // when
+        ValidationReport report = spec.validateTypeReferences();
+
+        // then
+        assertEquals(3, report.getProblems().size());
+        assertEquals("Customer.address", report.getProblems().get(0).getPath());
+        assertEquals(ShadowedTypeException.class, report.getProblems().get(0).getType());
+        assertEquals("Customer.missing", report.getProblems().get(1).getPath());
+        assertEquals(UnresolvedTypeException.class, report.getProblems().get(1).getType());
+        assertEquals("Customer.Address.parent", report.getProblems().get(2).getPath());
+        assertEquals(ShadowedTypeException.class, report.getProblems().get(2).getType());
+        assertThrows(ModelValidationException.class, () -> new ProtoSpec.Builder().withStrictTypeResolution().withMessageStore(store).build());
+    }
+
+    @Test
+    public void reportsAmbiguousTypes() {
+        // given
+        Message address = new Message.Builder("Address").withField(SimpleFieldType.STRING, "street").build();
+        Message otherAddress = new Message.Builder("Address").withField(SimpleFieldType.STRING, "city").build();
+        ProtoSpec spec = new ProtoSpec.Builder()
+                .withMessage(address)
+                .withMessage(new Message.Builder("Customer")
+                        .withField(otherAddress, "address")
+                        .withField(new TypeReference("Address", "common.proto"), "imported"))
+                .build();
+
+        // when
+        ValidationReport report = spec.validateTypeReferences();
+
+        // then
+        assertEquals(2, report.getProblems().size());
+        assertTrue(report.getProblems().get(0).getException() instanceof AmbiguousTypeException);
+        assertTrue(report.getProblems().get(1).getException() instanceof AmbiguousTypeException);
+    }
+
+    @Test
+    public void reportsShadowedTypes() {
+        // given
+        Message address = new Message.Builder("Address").build();
+        Message nestedAddress = new Message.Builder("Address").withField(SimpleFieldType.STRING, "street").build();
+        Message customer = new Message.Builder("Customer")
+                .withNestedMessage(nestedAddress)
+                .withField(address, "address")
+                .build();
+        Message common = new Message.Builder("common").build();
+        ProtoSpec spec = new ProtoSpec.Builder()
+                .withMessage(address)
+                .withMessage(customer)
+                .withMessage(common)
+                .withMessage(new Message.Builder("Order").withField(new TypeReference("common.Money", "common.proto"), "price"))
+                .build();
+
+        // when
+        ValidationReport report = spec.validateTypeReferences();
+
+        // then
+        assertEquals(2, report.getProblems().size());
+        assertEquals("Customer.address", report.getProblems().get(0).getPath());
+        assertTrue(report.getProblems().get(0).getMessage().contains("'Customer.Address'"));
+        assertEquals("Order.price", report.getProblems().get(1).getPath());
+        assertTrue(report.getProblems().get(1).getException() instanceof ShadowedTypeException);
+    }
+
 }
@@ -15,6 +15,7 @@
  */
 package io.github.microserviceapipatterns.protobufgen.model;
 
+import io.github.microserviceapipatterns.protobufgen.exception.ModelValidationException;
 import io.github.microserviceapipatterns.protobufgen.exception.RemoteProcedureCallAlreadyExistsException;
 import org.junit.jupiter.api.Test;
 
@@ -84,6 +85,78 @@ public class ServiceTest {
         });
     }
 
+    @Test
+    public void canGetRPCByName() {
+        // given
+        Message input = new Message.Builder("InputMessage").build();
+        Message output = new Message.Builder("OutputMessage").build();
+        Service service = new Service.Builder("TestService")
+                .withRPC(new RemoteProcedureCall.Builder("FirstCall", input, output))
+                .withRPC(new RemoteProcedureCall.Builder("SecondCall", input, output))
+                .build();
+
+        // when
+        RemoteProcedureCall rpc = service.getRemoteProcedureCall("SecondCall");
+
+        // then
+        assertEquals("SecondCall", rpc.getName());
+        assertNull(service.getRemoteProcedureCall("ThirdCall"));
+    }
+
+    @Test
+    public void keepsRPCsInInsertionOrder() {
+        // given
+        Message input = new Message.Builder("InputMessage").build();
+        Message output = new Message.Builder("OutputMessage").build();
+        Service.Builder builder = new Service.Builder("TestService");
+        for (int i = 0; i < 100; i++) {
+            builder.withRPC(new RemoteProcedureCall.Builder("Call" + i, input, output));
+        }
+
+        // when
+        Service service = builder.build();
+
+        // then
+        int i = 0;
+        for (RemoteProcedureCall rpc : service.getRemoteProcedureCalls()) {
+            assertEquals("Call" + i++, rpc.getName());
+        }
+        assertEquals(100, i);
+    }
+
+    @Test
+    public void cannotModifyRPCsOfBuiltService() {
+        // given
+        Message input = new Message.Builder("InputMessage").build();
+        Message output = new Message.Builder("OutputMessage").build();
+        Service service = new Service.Builder("TestService").build();
+
+        // when, then
+        assertThrows(UnsupportedOperationException.class, () -> {
+            service.getRemoteProcedureCalls().add(new RemoteProcedureCall.Builder("TestCall", input, output).build());
+        });
+    }
+
+    @Test
+    public void canReportAllProblemsAtOnceWithDeferredValidation() {
+        // given
+        Message input = new Message.Builder("InputMessage").build();
+        Message output = new Message.Builder("OutputMessage").build();
+        Service.Builder builder = new Service.Builder("TestService").withDeferredValidation()
+                .withRPC(new RemoteProcedureCall.Builder("FirstCall", input, output))
+                .withRPC(new RemoteProcedureCall.Builder("SecondCall", input, output))
+                .withRPC(new RemoteProcedureCall.Builder("FirstCall", input, output))
+                .withRPC(new RemoteProcedureCall.Builder("SecondCall", input, output));
+
+        // when
+        ModelValidationException exception = assertThrows(ModelValidationException.class, builder::build);
+
+        // then
+        assertEquals(2, exception.getProblems().size());
+        assertTrue(exception.getProblems().stream().allMatch(p -> p instanceof RemoteProcedureCallAlreadyExistsException));
+        assertEquals(2, assertThrows(ModelValidationException.class, builder::build).getProblems().size());
+    }
+
     @Test
     public void canDetermineEquality() {
         // given
@@ -113,4 +186,68 @@ public class ServiceTest {
         assertEquals(1, services.size());
     }
 
+    @Test
+    public void canAddRPCWithoutChangingOriginal() {
+        // given
+        Message input = new Message.Builder("InputMessage").build();
+        Message output = new Message.Builder("OutputMessage").build();
+        Service service = new Service.Builder("TestService")
+                .withRPC(new RemoteProcedureCall.Builder("First", input, output))
+                .build();
+
+        // when
+        Service copy = service.withRPCAdded(new RemoteProcedureCall.Builder("Second", input, output).build());
+
+        // then
+        assertEquals(2, copy.getRemoteProcedureCalls().size());
+        assertSame(service.getRemoteProcedureCall("First"), copy.getRemoteProcedureCall("First"));
+        assertEquals(1, service.getRemoteProcedureCalls().size());
+        assertThrows(RemoteProcedureCallAlreadyExistsException.class, () -> {
+            copy.withRPCAdded(new RemoteProcedureCall.Builder("First", input, output).build());
+        });
+    }
+
+    @Test
+    public void canCreateBuilderFromService() {
+        // given
+        Message input = new Message.Builder("InputMessage").build();
+        Message output = new Message.Builder("OutputMessage").build();
+        Service service = new Service.Builder("TestService")
+                .withComment("test-comment")
+                .withRPC(new RemoteProcedureCall.Builder("First", input, output))
+                .build();
+
+        // when
+        Service copy = service.toBuilder()
+                .withRPC(new RemoteProcedureCall.Builder("Second", input, output))
+                .build();
+
+        // then
+        assertEquals("test-comment", copy.getComment());
+        assertEquals(2, copy.getRemoteProcedureCalls().size());
+        assertEquals(1, service.getRemoteProcedureCalls().size());
+    }
+
+    @Test
+    public void canResetBuilder() {
+        // given
+        Message input = new Message.Builder("InputMessage").build();
+        Message output = new Message.Builder("OutputMessage").build();
+        Service.Builder builder = Service.Builder.threadLocal("First")
+                .withComment("first comment")
+                .withRPC(new RemoteProcedureCall.Builder("TestCall", input, output));
+        Service first = builder.build();
+
+        // when
+        Service second = Service.Builder.threadLocal("Second")
+                .withRPC(new RemoteProcedureCall.Builder("TestCall", input, output))
+                .build();
+
+        // then
+        assertEquals("Second", second.getName());
+        assertEquals("", second.getComment());
+        assertEquals(1, second.getRemoteProcedureCalls().size());
+        assertEquals(1, first.getRemoteProcedureCalls().size());
+    }
+
 }
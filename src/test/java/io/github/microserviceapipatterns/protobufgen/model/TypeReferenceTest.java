@@ -0,0 +1,103 @@
+/*
+ * Copyright 2020 Stefan Kapferer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.microserviceapipatterns.protobufgen.model;
+
+import io.github.microserviceapipatterns.protobufgen.exception.WrongIdentifierException;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TypeReferenceTest {
+
+    @Test
+    public void canReferenceTypeOfOtherFileInField() {
+        // given
+        TypeReference address = new TypeReference("common.types.Address", "common/types.proto");
+        Message customer = new Message.Builder("Customer")
+                .withField(address, "address")
+                .build();
+
+        // when
+        ProtoSpec spec = new ProtoSpec.Builder().withMessage(customer).build();
+
+        // then
+        assertEquals(1, spec.getImportStatements().size());
+        assertEquals("common/types.proto", spec.getImportStatements().get(0).getFileName());
+        assertTrue(spec.toString().contains("  common.types.Address address = 1;"));
+    }
+
+    @Test
+    public void canReferenceTypeOfOtherFileInNestedMessage() {
+        // given
+        Message nested = new Message.Builder("Nested")
+                .withField(new TypeReference("common.types.Address", "common/types.proto"), "address")
+                .build();
+        Message customer = new Message.Builder("Customer")
+                .withNestedMessage(nested)
+                .withField(new TypeReference("common.types.Phone", "common/types.proto"), "phone")
+                .withField(new AnyType(), "details")
+                .build();
+
+        // when
+        ProtoSpec spec = new ProtoSpec.Builder().withMessage(customer).build();
+
+        // then
+        assertEquals(2, spec.getImportStatements().size());
+        assertEquals(AnyType.ANY_TYPE_IMPORT, spec.getImportStatements().get(0).getFileName());
+        assertEquals("common/types.proto", spec.getImportStatements().get(1).getFileName());
+    }
+
+    @Test
+    public void canReferenceTypesOfOtherFilesInRPC() {
+        // given
+        Message request = new Message.Builder("Request").build();
+        Service service = new Service.Builder("CustomerService")
+                .withRPC(new RemoteProcedureCall.Builder("getCustomer", request, new TypeReference("crm.Customer", "crm/customer.proto")))
+                .withRPC(new RemoteProcedureCall.Builder("getOrder", new TypeReference("sales.OrderId"), new TypeReference("sales.Order", "sales/order.proto")))
+                .build();
+
+        // when
+        ProtoSpec spec = new ProtoSpec.Builder().withMessage(request).withService(service).build();
+
+        // then
+        String proto = spec.toString();
+        assertTrue(proto.contains("import \"crm/customer.proto\";\nimport \"sales/order.proto\";"));
+        assertTrue(proto.contains("rpc getCustomer(Request) returns (crm.Customer);"));
+        assertTrue(proto.contains("rpc getOrder(sales.OrderId) returns (sales.Order);"));
+        assertNull(service.getRemoteProcedureCall("getOrder").getInput());
+        assertSame(request, service.getRemoteProcedureCall("getCustomer").getInput());
+    }
+
+    @Test
+    public void doesNotDuplicateDeclaredImports() {
+        // given
+        Message customer = new Message.Builder("Customer")
+                .withField(new TypeReference("common.Address", "common.proto"), "address")
+                .build();
+
+        // when
+        ProtoSpec spec = new ProtoSpec.Builder().withImport("common.proto").withMessage(customer).build();
+
+        // then
+        assertEquals(1, spec.getImportStatements().size());
+    }
+
+    @Test
+    public void cannotCreateReferenceWithInvalidName() {
+        assertThrows(WrongIdentifierException.class, () -> new TypeReference("common..Address"));
+    }
+
+}